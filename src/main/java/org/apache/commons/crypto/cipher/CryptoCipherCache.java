@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.cipher;
+
+import java.security.GeneralSecurityException;
+
+import org.apache.commons.crypto.utils.IOUtils;
+
+/**
+ * Caches one cipher per {@link CipherTransformation} for the current thread,
+ * so that code encrypting a small message per request re-initializes the
+ * same cipher, and with OpenSSL the same native context, instead of creating
+ * and freeing one each time.
+ * <p>
+ * The cache belongs to the thread, not to the carrier thread of a virtual
+ * thread, so a cipher is never shared between two threads. A cached cipher
+ * must be initialized before each use and must not be closed by the caller.
+ * Threads that end, such as virtual threads which usually run one task,
+ * should call {@link #release()} when done so the ciphers are closed at once
+ * rather than when they are garbage collected.
+ * </p>
+ */
+public final class CryptoCipherCache {
+
+    private static final ThreadLocal<CryptoCipher[]> CIPHERS = new ThreadLocal<CryptoCipher[]>() {
+        @Override
+        protected CryptoCipher[] initialValue() {
+            return new CryptoCipher[CipherTransformation.values().length];
+        }
+    };
+
+    private CryptoCipherCache() {
+    }
+
+    /**
+     * Gets the cipher of the current thread for the transformation, creating
+     * it with the default configuration on first use.
+     *
+     * @param transformation the cipher transformation.
+     * @return the cipher, to be initialized before use.
+     * @throws GeneralSecurityException if the cipher can't be created.
+     */
+    public static CryptoCipher getCipher(CipherTransformation transformation)
+            throws GeneralSecurityException {
+        CryptoCipher[] ciphers = CIPHERS.get();
+        CryptoCipher cipher = ciphers[transformation.ordinal()];
+        if (cipher == null) {
+            cipher = CryptoCipherFactory.getInstance(transformation);
+            ciphers[transformation.ordinal()] = cipher;
+        }
+        return cipher;
+    }
+
+    /**
+     * Closes the cipher of the current thread for the transformation, if any.
+     *
+     * @param transformation the cipher transformation.
+     */
+    public static void release(CipherTransformation transformation) {
+        CryptoCipher[] ciphers = CIPHERS.get();
+        IOUtils.cleanup(null, ciphers[transformation.ordinal()]);
+        ciphers[transformation.ordinal()] = null;
+    }
+
+    /**
+     * Closes all the ciphers of the current thread and removes its cache.
+     */
+    public static void release() {
+        CryptoCipher[] ciphers = CIPHERS.get();
+        IOUtils.cleanup(null, ciphers);
+        CIPHERS.remove();
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.cipher;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Properties;
+
+import javax.crypto.ShortBufferException;
+
+import org.apache.commons.crypto.utils.CipherPool;
+import org.apache.commons.crypto.utils.IOUtils;
+
+/**
+ * One-shot encryption and decryption of small messages. The output is
+ * allocated once with the room the cipher needs, at most a block more than
+ * the input, and the data goes through a single doFinal of a pooled cipher,
+ * without the buffers of a crypto stream. The result is the part of the
+ * output the cipher wrote; byte arrays are trimmed to it. Also
+ * holds the helpers that know the buffers the ciphers of this library work
+ * best with, so that {@link CryptoCipher} itself keeps its methods.
+ */
+public final class CryptoCipherUtils {
+
+    private CryptoCipherUtils() {
+    }
+
+    /**
+     * Encrypts the remaining bytes of the input with a cipher of the default
+     * configuration. Upon return, the input position is its limit.
+     *
+     * @param transformation the cipher transformation.
+     * @param key the encryption key.
+     * @param params the algorithm parameters.
+     * @param input the input buffer.
+     * @return the encrypted data, a direct buffer if the input is direct,
+     *         from position 0 to its limit.
+     * @throws GeneralSecurityException if the cipher can't be created or
+     *         initialized, or the encryption fails.
+     */
+    public static ByteBuffer encrypt(CipherTransformation transformation,
+            Key key, AlgorithmParameterSpec params, ByteBuffer input)
+            throws GeneralSecurityException {
+        return doFinal(transformation, CryptoCipher.ENCRYPT_MODE, key, params,
+                input);
+    }
+
+    /**
+     * Decrypts the remaining bytes of the input with a cipher of the default
+     * configuration. Upon return, the input position is its limit.
+     *
+     * @param transformation the cipher transformation.
+     * @param key the decryption key.
+     * @param params the algorithm parameters.
+     * @param input the input buffer.
+     * @return the decrypted data, a direct buffer if the input is direct,
+     *         from position 0 to its limit.
+     * @throws GeneralSecurityException if the cipher can't be created or
+     *         initialized, or the decryption fails.
+     */
+    public static ByteBuffer decrypt(CipherTransformation transformation,
+            Key key, AlgorithmParameterSpec params, ByteBuffer input)
+            throws GeneralSecurityException {
+        return doFinal(transformation, CryptoCipher.DECRYPT_MODE, key, params,
+                input);
+    }
+
+    /**
+     * Encrypts the input with a cipher of the default configuration.
+     *
+     * @param transformation the cipher transformation.
+     * @param key the encryption key.
+     * @param params the algorithm parameters.
+     * @param input the input data.
+     * @return the encrypted data.
+     * @throws GeneralSecurityException if the cipher can't be created or
+     *         initialized, or the encryption fails.
+     */
+    public static byte[] encrypt(CipherTransformation transformation,
+            Key key, AlgorithmParameterSpec params, byte[] input)
+            throws GeneralSecurityException {
+        return toArray(encrypt(transformation, key, params,
+                ByteBuffer.wrap(input)));
+    }
+
+    /**
+     * Decrypts the input with a cipher of the default configuration.
+     *
+     * @param transformation the cipher transformation.
+     * @param key the decryption key.
+     * @param params the algorithm parameters.
+     * @param input the input data.
+     * @return the decrypted data.
+     * @throws GeneralSecurityException if the cipher can't be created or
+     *         initialized, or the decryption fails.
+     */
+    public static byte[] decrypt(CipherTransformation transformation,
+            Key key, AlgorithmParameterSpec params, byte[] input)
+            throws GeneralSecurityException {
+        return toArray(decrypt(transformation, key, params,
+                ByteBuffer.wrap(input)));
+    }
+
+    /**
+     * Gets the size of the output of a single doFinal. It's exact for
+     * encryption, and for decryption without padding. For decryption with
+     * padding it's the upper bound, since the padding is only known once it's
+     * decrypted.
+     *
+     * @param transformation the cipher transformation.
+     * @param mode {@link CryptoCipher#ENCRYPT_MODE} or
+     *        {@link CryptoCipher#DECRYPT_MODE}.
+     * @param inputLen the input length.
+     * @return the output size.
+     */
+    public static int getOutputSize(CipherTransformation transformation,
+            int mode, int inputLen) {
+        if (transformation == CipherTransformation.AES_CBC_PKCS5PADDING
+                && mode == CryptoCipher.ENCRYPT_MODE) {
+            int blockSize = transformation.getAlgorithmBlockSize();
+            // PKCS5 always adds between 1 and blockSize bytes
+            return (inputLen / blockSize + 1) * blockSize;
+        }
+        return inputLen;
+    }
+
+    private static ByteBuffer doFinal(CipherTransformation transformation,
+            int mode, Key key, AlgorithmParameterSpec params, ByteBuffer input)
+            throws GeneralSecurityException {
+        CryptoCipher cipher = CipherPool.acquire(transformation,
+                new Properties());
+        boolean reusable = false;
+        try {
+            ByteBuffer output = doFinal(cipher, mode, key, params, input);
+            reusable = true;
+            return output;
+        } finally {
+            if (reusable) {
+                CipherPool.release(cipher);
+            } else {
+                IOUtils.cleanup(null, cipher);
+            }
+        }
+    }
+
+    /**
+     * Initializes the cipher and runs the remaining bytes of the input
+     * through a single doFinal. The output has the room the cipher may need
+     * for the update and the final block, not only the size of the result:
+     * with padding, OpenSSL needs a block more than the input.
+     *
+     * @param cipher the cipher.
+     * @param mode {@link CryptoCipher#ENCRYPT_MODE} or
+     *        {@link CryptoCipher#DECRYPT_MODE}.
+     * @param key the key.
+     * @param params the algorithm parameters.
+     * @param input the input buffer, its position is its limit upon return.
+     * @return the output, a direct buffer if the input is direct, from
+     *         position 0 to its limit.
+     * @throws GeneralSecurityException if the cipher can't be initialized, or
+     *         the operation fails.
+     */
+    static ByteBuffer doFinal(CryptoCipher cipher, int mode, Key key,
+            AlgorithmParameterSpec params, ByteBuffer input)
+            throws GeneralSecurityException {
+        cipher.init(mode, key, params);
+        int outputLen = getMaxOutputSize(cipher.getTransformation(),
+                input.remaining());
+        if (input.isDirect()) {
+            ByteBuffer output = ByteBuffer.allocateDirect(outputLen);
+            cipher.doFinal(input, output);
+            output.flip();
+            return output;
+        }
+        byte[] out = new byte[outputLen];
+        int n;
+        if (input.hasArray()) {
+            n = cipher.doFinal(input.array(), input.arrayOffset()
+                    + input.position(), input.remaining(), out, 0);
+            input.position(input.limit());
+        } else {
+            byte[] in = new byte[input.remaining()];
+            input.get(in);
+            n = cipher.doFinal(in, 0, in.length, out, 0);
+        }
+        return ByteBuffer.wrap(out, 0, n);
+    }
+
+    /**
+     * Gets the room a cipher may need for a doFinal of the given input
+     * length. Without padding it's the input length. With padding an update
+     * needs up to a block more than its input, the final block is written
+     * after it.
+     */
+    private static int getMaxOutputSize(CipherTransformation transformation,
+            int inputLen) {
+        if (transformation == CipherTransformation.AES_CBC_PKCS5PADDING) {
+            return inputLen + transformation.getAlgorithmBlockSize();
+        }
+        return inputLen;
+    }
+
+    /**
+     * Returns whether the cipher works best on direct buffers. Streams
+     * allocate their buffers accordingly, as native ciphers process direct
+     * buffers in place while the JCE copies them into heap arrays. Other
+     * implementations of {@link CryptoCipher} get direct buffers, as all
+     * ciphers did before.
+     *
+     * @param cipher the cipher.
+     * @return true if direct buffers are preferred, false for heap buffers.
+     */
+    public static boolean isDirectBufferPreferred(CryptoCipher cipher) {
+        if (cipher instanceof JceCipher) {
+            return ((JceCipher) cipher).isDirectBufferPreferred();
+        } else if (cipher instanceof OpensslCipher) {
+            return ((OpensslCipher) cipher).isDirectBufferPreferred();
+        } else if (cipher instanceof OpensslFfmCipher) {
+            return ((OpensslFfmCipher) cipher).isDirectBufferPreferred();
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the cipher updates a buffer in place without copying
+     * it. The ciphers of this library do; other implementations of
+     * {@link CryptoCipher} may not support overlapping buffers, so callers
+     * should keep a second buffer for them.
+     *
+     * @param cipher the cipher.
+     * @return true if {@link #updateInPlace(CryptoCipher, ByteBuffer)} needs
+     *         no copy of the input.
+     */
+    public static boolean isUpdateInPlaceSupported(CryptoCipher cipher) {
+        return cipher instanceof JceCipher || cipher instanceof OpensslCipher
+                || cipher instanceof OpensslFfmCipher;
+    }
+
+    /**
+     * Continues a multiple-part encryption/decryption operation on the
+     * remaining bytes of the buffer, storing the result over them. This needs
+     * a cipher whose output has the length of its input, such as
+     * AES/CTR/NoPadding, and saves the second buffer of
+     * {@link CryptoCipher#update(ByteBuffer, ByteBuffer)}. Unless
+     * {@link #isUpdateInPlaceSupported(CryptoCipher)}, the input is copied
+     * into a new buffer first.
+     *
+     * @param cipher the cipher.
+     * @param buffer the ByteBuffer, its position is advanced by the number
+     *        of bytes stored.
+     * @return int number of bytes stored in <code>buffer</code>
+     * @throws ShortBufferException if the output is longer than the input
+     */
+    public static int updateInPlace(CryptoCipher cipher, ByteBuffer buffer)
+            throws ShortBufferException {
+        if (cipher instanceof JceCipher) {
+            return ((JceCipher) cipher).updateInPlace(buffer);
+        } else if (cipher instanceof OpensslCipher) {
+            return ((OpensslCipher) cipher).updateInPlace(buffer);
+        } else if (cipher instanceof OpensslFfmCipher) {
+            return ((OpensslFfmCipher) cipher).updateInPlace(buffer);
+        }
+        ByteBuffer input = buffer.isDirect() ? ByteBuffer
+                .allocateDirect(buffer.remaining()) : ByteBuffer
+                .allocate(buffer.remaining());
+        input.put(buffer.duplicate());
+        input.flip();
+        return cipher.update(input, buffer);
+    }
+
+    static byte[] toArray(ByteBuffer buffer) {
+        if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+            return buffer.array();
+        }
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+}
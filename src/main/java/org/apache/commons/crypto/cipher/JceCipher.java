@@ -30,6 +30,8 @@ import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.ShortBufferException;
 
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
 import org.apache.commons.crypto.utils.Utils;
 
 /**
@@ -80,6 +82,18 @@ public class JceCipher implements CryptoCipher {
         return props;
     }
 
+    /**
+     * Returns whether this cipher works best on direct buffers, see
+     * {@link CryptoCipherUtils#isDirectBufferPreferred(CryptoCipher)}. Heap
+     * buffers are preferred, the JCE copies direct buffers into temporary
+     * arrays.
+     *
+     * @return false.
+     */
+    public boolean isDirectBufferPreferred() {
+        return false;
+    }
+
     /**
      * Initializes the cipher with mode, key and iv.
      *
@@ -103,7 +117,10 @@ public class JceCipher implements CryptoCipher {
         if (mode == ENCRYPT_MODE) {
             cipherMode = Cipher.ENCRYPT_MODE;
         }
+        long start = CryptoMetrics.start();
         cipher.init(cipherMode, key, params);
+        CryptoMetrics.recordInit(transformation, cipher.getProvider()
+                .getName(), start);
     }
 
     /**
@@ -119,7 +136,24 @@ public class JceCipher implements CryptoCipher {
     @Override
     public int update(ByteBuffer inBuffer, ByteBuffer outBuffer)
             throws ShortBufferException {
-        return cipher.update(inBuffer, outBuffer);
+        long start = CryptoMetrics.start();
+        int n = cipher.update(inBuffer, outBuffer);
+        CryptoMetrics.record(CryptoMetric.CIPHER_UPDATE, n, start);
+        return n;
+    }
+
+    /**
+     * Continues a multiple-part encryption/decryption operation on the
+     * remaining bytes of the buffer, storing the result over them, see
+     * {@link CryptoCipherUtils#updateInPlace(CryptoCipher, ByteBuffer)}. The JCE
+     * ciphers are copy-safe, a second view of the buffer is the input.
+     *
+     * @param buffer the ByteBuffer
+     * @return int number of bytes stored in <code>buffer</code>
+     * @throws ShortBufferException if the output is longer than the input
+     */
+    public int updateInPlace(ByteBuffer buffer) throws ShortBufferException {
+        return update(buffer.duplicate(), buffer);
     }
 
     /**
@@ -138,8 +172,11 @@ public class JceCipher implements CryptoCipher {
     @Override
     public int update(byte[] input, int inputOffset, int inputLen,
             byte[] output, int outputOffset) throws ShortBufferException {
-        return cipher
-                .update(input, inputOffset, inputLen, output, outputOffset);
+        long start = CryptoMetrics.start();
+        int n = cipher.update(input, inputOffset, inputLen, output,
+                outputOffset);
+        CryptoMetrics.record(CryptoMetric.CIPHER_UPDATE, n, start);
+        return n;
     }
 
     /**
@@ -165,7 +202,10 @@ public class JceCipher implements CryptoCipher {
     public int doFinal(ByteBuffer inBuffer, ByteBuffer outBuffer)
             throws ShortBufferException, IllegalBlockSizeException,
             BadPaddingException {
-        return cipher.doFinal(inBuffer, outBuffer);
+        long start = CryptoMetrics.start();
+        int n = cipher.doFinal(inBuffer, outBuffer);
+        CryptoMetrics.record(CryptoMetric.CIPHER_DO_FINAL, n, start);
+        return n;
     }
 
     /**
@@ -193,8 +233,11 @@ public class JceCipher implements CryptoCipher {
     public int doFinal(byte[] input, int inputOffset, int inputLen,
             byte[] output, int outputOffset) throws ShortBufferException,
             IllegalBlockSizeException, BadPaddingException {
-        return cipher.doFinal(input, inputOffset, inputLen, output,
+        long start = CryptoMetrics.start();
+        int n = cipher.doFinal(input, inputOffset, inputLen, output,
                 outputOffset);
+        CryptoMetrics.record(CryptoMetric.CIPHER_DO_FINAL, n, start);
+        return n;
     }
 
     /**
@@ -72,13 +72,26 @@ public final class Openssl {
         }
     }
 
+    /**
+     * The most bytes of a buffer passed to one native update of a cipher
+     * without padding. A virtual thread yields between the calls, so a large
+     * buffer doesn't hold its carrier thread for the whole update.
+     */
+    private static final int NATIVE_CHUNK_SIZE = 1024 * 1024;
+
     private long context = 0;
     private final int algorithm;
     private final int padding;
 
-    private static final String loadingFailureReason;
+    /**
+     * Loads the native library and OpenSSL at the first use of the cipher,
+     * not when the constants of this class are read.
+     */
+    private static final class Holder {
+        static final String loadingFailureReason = init();
+    }
 
-    static {
+    private static String init() {
         String loadingFailure = null;
         try {
             if (NativeCodeLoader.isNativeCodeLoaded()) {
@@ -87,9 +100,8 @@ public final class Openssl {
         } catch (Throwable t) {
             loadingFailure = t.getMessage();
             LOG.debug("Failed to load OpenSSL CryptoCipher.", t);
-        } finally {
-            loadingFailureReason = loadingFailure;
         }
+        return loadingFailure;
     }
 
     /**
@@ -98,7 +110,7 @@ public final class Openssl {
      * @return the failure reason.
      */
     public static String getLoadingFailureReason() {
-        return loadingFailureReason;
+        return Holder.loadingFailureReason;
     }
 
     private Openssl(long context, int algorithm, int padding) {
@@ -179,6 +191,38 @@ public final class Openssl {
                 .init(context, mode, algorithm, padding, key, iv);
     }
 
+    /**
+     * Expands a key into a template context for the algorithm and padding of
+     * this cipher. The template must be freed by {@link #freePreparedKey(long)}.
+     *
+     * @param mode {@link #ENCRYPT_MODE} or {@link #DECRYPT_MODE}
+     * @param key crypto key
+     * @return the address of the template context
+     */
+    public long prepareKey(int mode, byte[] key) {
+        return OpensslNative.prepareKey(mode, algorithm, padding, key);
+    }
+
+    /**
+     * Initialize this cipher with a template context created by
+     * {@link #prepareKey(int, byte[])} and an IV.
+     *
+     * @param preparedKey the address of the template context
+     * @param iv crypto iv
+     */
+    public void init(long preparedKey, byte[] iv) {
+        context = OpensslNative.initPrepared(context, preparedKey, iv);
+    }
+
+    /**
+     * Frees a template context created by {@link #prepareKey(int, byte[])}.
+     *
+     * @param preparedKey the address of the template context
+     */
+    public static void freePreparedKey(long preparedKey) {
+        OpensslNative.clean(preparedKey);
+    }
+
     /**
      * <p>
      * Continues a multiple-part encryption or decryption operation. The data is
@@ -188,7 +232,8 @@ public final class Openssl {
      * <p>
      * All <code>input.remaining()</code> bytes starting at
      * <code>input.position()</code> are processed. The result is stored in the
-     * output buffer.
+     * output buffer. Both buffers are either direct or backed by arrays, the
+     * latter are processed in place through the byte array path.
      * </p>
      *
      * <p>
@@ -210,8 +255,22 @@ public final class Openssl {
     public int update(ByteBuffer input, ByteBuffer output)
             throws ShortBufferException {
         checkState();
+        if (!input.isDirect() && !output.isDirect() && input.hasArray()
+                && output.hasArray()) {
+            int len = OpensslNative.updateByteArray(context, input.array(),
+                    input.arrayOffset() + input.position(), input.remaining(),
+                    output.array(), output.arrayOffset() + output.position(),
+                    output.remaining());
+            input.position(input.limit());
+            output.position(output.position() + len);
+            return len;
+        }
         Utils.checkArgument(input.isDirect() && output.isDirect(),
-                "Direct buffers are required.");
+                "Direct or array-backed buffers are required.");
+        if (input.remaining() > NATIVE_CHUNK_SIZE
+                && padding == Padding.NoPadding.ordinal()) {
+            return updateInChunks(input, output);
+        }
         int len = OpensslNative.update(context, input, input.position(),
                 input.remaining(), output, output.position(),
                 output.remaining());
@@ -220,6 +279,33 @@ public final class Openssl {
         return len;
     }
 
+    /**
+     * Updates a large buffer in several native calls. Without padding the
+     * output has the size of the input, so it's checked once up front and no
+     * chunk fails after the earlier ones changed the cipher state.
+     */
+    private int updateInChunks(ByteBuffer input, ByteBuffer output)
+            throws ShortBufferException {
+        if (output.remaining() < input.remaining()) {
+            throw new ShortBufferException("Output buffer is too small: "
+                    + output.remaining() + " < " + input.remaining());
+        }
+        boolean virtual = Utils.isVirtualThread();
+        int total = 0;
+        while (input.hasRemaining()) {
+            int chunk = Math.min(input.remaining(), NATIVE_CHUNK_SIZE);
+            int len = OpensslNative.update(context, input, input.position(),
+                    chunk, output, output.position(), output.remaining());
+            input.position(input.position() + chunk);
+            output.position(output.position() + len);
+            total += len;
+            if (virtual && input.hasRemaining()) {
+                Thread.yield();
+            }
+        }
+        return total;
+    }
+
     /**
      * Continues a multiple-part encryption/decryption operation. The data is
      * encrypted or decrypted, depending on how this cipher was initialized.
@@ -282,9 +368,17 @@ public final class Openssl {
     public int doFinal(ByteBuffer output) throws ShortBufferException,
             IllegalBlockSizeException, BadPaddingException {
         checkState();
-        Utils.checkArgument(output.isDirect(), "Direct buffer is required.");
-        int len = OpensslNative.doFinal(context, output, output.position(),
-                output.remaining());
+        int len;
+        if (!output.isDirect() && output.hasArray()) {
+            len = OpensslNative.doFinalByteArray(context, output.array(),
+                    output.arrayOffset() + output.position(),
+                    output.remaining());
+        } else {
+            Utils.checkArgument(output.isDirect(),
+                    "Direct or array-backed buffer is required.");
+            len = OpensslNative.doFinal(context, output, output.position(),
+                    output.remaining());
+        }
         output.position(output.position() + len);
         return len;
     }
@@ -315,6 +409,45 @@ public final class Openssl {
                 output.length - outputOffset);
     }
 
+    /**
+     * Continues a multiple-part encryption/decryption operation on native
+     * memory given by address, which the caller keeps valid during the call.
+     *
+     * @param input the address of the input
+     * @param inputLength the input length
+     * @param output the address of the output
+     * @param maxOutputLength the bytes available at the output address
+     * @return the number of bytes stored in output
+     * @throws ShortBufferException if there is insufficient space in the output
+     */
+    long update(long input, long inputLength, long output,
+            long maxOutputLength) throws ShortBufferException {
+        checkState();
+        return OpensslNative.updateAddress(context, input, inputLength,
+                output, maxOutputLength);
+    }
+
+    /**
+     * Finishes a multiple-part operation into native memory given by address,
+     * which the caller keeps valid during the call.
+     *
+     * @param output the address of the output
+     * @param maxOutputLength the bytes available at the output address
+     * @return the number of bytes stored in output
+     * @throws ShortBufferException if the output is too small to hold the
+     *         result
+     * @throws IllegalBlockSizeException if the total input length is not a
+     *         multiple of block size when no padding has been requested
+     * @throws BadPaddingException if the decrypted data is not bounded by the
+     *         appropriate padding bytes
+     */
+    int doFinal(long output, long maxOutputLength)
+            throws ShortBufferException, IllegalBlockSizeException,
+            BadPaddingException {
+        checkState();
+        return OpensslNative.doFinalAddress(context, output, maxOutputLength);
+    }
+
     /** Forcibly clean the context. */
     public void clean() {
         if (context != 0) {
@@ -30,12 +30,16 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
 import org.apache.commons.crypto.utils.Utils;
 
 /**
  * Implements the CryptoCipher using JNI into OpenSSL.
  */
 public class OpensslCipher implements CryptoCipher {
+    private static final String PROVIDER = "OpenSSL";
+
     private final Properties props;
     private final CipherTransformation transformation;
     private final Openssl cipher;
@@ -81,7 +85,20 @@ public class OpensslCipher implements CryptoCipher {
     }
 
     /**
-     * Initializes the cipher with mode, key and iv.
+     * Returns whether this cipher works best on direct buffers, see
+     * {@link CryptoCipherUtils#isDirectBufferPreferred(CryptoCipher)}. Direct
+     * buffers are preferred, OpenSSL processes them in place.
+     *
+     * @return true.
+     */
+    public boolean isDirectBufferPreferred() {
+        return true;
+    }
+
+    /**
+     * Initializes the cipher with mode, key and iv. When the key is a
+     * {@link PreparedKey}, the expanded key is cloned at native side instead
+     * of being copied and expanded again.
      *
      * @param mode {@link #ENCRYPT_MODE} or {@link #DECRYPT_MODE}
      * @param key crypto key for the cipher
@@ -107,7 +124,18 @@ public class OpensslCipher implements CryptoCipher {
             // supported now.
             throw new InvalidAlgorithmParameterException("Illegal parameters");
         }
+        long start = CryptoMetrics.start();
+        if (key instanceof PreparedKey) {
+            long template = ((PreparedKey) key).getTemplate(cipher,
+                    transformation, cipherMode);
+            if (template != 0) {
+                cipher.init(template, iv);
+                CryptoMetrics.recordInit(transformation, PROVIDER, start);
+                return;
+            }
+        }
         cipher.init(cipherMode, key.getEncoded(), iv);
+        CryptoMetrics.recordInit(transformation, PROVIDER, start);
     }
 
     /**
@@ -123,7 +151,24 @@ public class OpensslCipher implements CryptoCipher {
     @Override
     public int update(ByteBuffer inBuffer, ByteBuffer outBuffer)
             throws ShortBufferException {
-        return cipher.update(inBuffer, outBuffer);
+        long start = CryptoMetrics.start();
+        int n = cipher.update(inBuffer, outBuffer);
+        CryptoMetrics.record(CryptoMetric.CIPHER_UPDATE, n, start);
+        return n;
+    }
+
+    /**
+     * Continues a multiple-part encryption/decryption operation on the
+     * remaining bytes of the buffer, storing the result over them, see
+     * {@link CryptoCipherUtils#updateInPlace(CryptoCipher, ByteBuffer)}. OpenSSL
+     * updates in place when the input and output are the same memory.
+     *
+     * @param buffer the ByteBuffer
+     * @return int number of bytes stored in <code>buffer</code>
+     * @throws ShortBufferException if the output is longer than the input
+     */
+    public int updateInPlace(ByteBuffer buffer) throws ShortBufferException {
+        return update(buffer.duplicate(), buffer);
     }
 
     /**
@@ -142,8 +187,11 @@ public class OpensslCipher implements CryptoCipher {
     @Override
     public int update(byte[] input, int inputOffset, int inputLen,
             byte[] output, int outputOffset) throws ShortBufferException {
-        return cipher
-                .update(input, inputOffset, inputLen, output, outputOffset);
+        long start = CryptoMetrics.start();
+        int n = cipher.update(input, inputOffset, inputLen, output,
+                outputOffset);
+        CryptoMetrics.record(CryptoMetric.CIPHER_UPDATE, n, start);
+        return n;
     }
 
     /**
@@ -169,8 +217,11 @@ public class OpensslCipher implements CryptoCipher {
     public int doFinal(ByteBuffer inBuffer, ByteBuffer outBuffer)
             throws ShortBufferException, IllegalBlockSizeException,
             BadPaddingException {
+        long start = CryptoMetrics.start();
         int n = cipher.update(inBuffer, outBuffer);
-        return n + cipher.doFinal(outBuffer);
+        n += cipher.doFinal(outBuffer);
+        CryptoMetrics.record(CryptoMetric.CIPHER_DO_FINAL, n, start);
+        return n;
     }
 
     /**
@@ -198,9 +249,49 @@ public class OpensslCipher implements CryptoCipher {
     public int doFinal(byte[] input, int inputOffset, int inputLen,
             byte[] output, int outputOffset) throws ShortBufferException,
             IllegalBlockSizeException, BadPaddingException {
+        long start = CryptoMetrics.start();
         int n = cipher.update(input, inputOffset, inputLen, output,
                 outputOffset);
-        return n + cipher.doFinal(output, outputOffset + n);
+        n += cipher.doFinal(output, outputOffset + n);
+        CryptoMetrics.record(CryptoMetric.CIPHER_DO_FINAL, n, start);
+        return n;
+    }
+
+    /**
+     * Continues a multiple-part encryption/decryption operation on native
+     * memory given by address. Used by the <code>MemorySegment</code> support
+     * on Java 22 or later.
+     *
+     * @param input the address of the input
+     * @param inputLength the input length
+     * @param output the address of the output
+     * @param maxOutputLength the bytes available at the output address
+     * @return the number of bytes stored in output
+     * @throws ShortBufferException if there is insufficient space in the output
+     */
+    long update(long input, long inputLength, long output,
+            long maxOutputLength) throws ShortBufferException {
+        return cipher.update(input, inputLength, output, maxOutputLength);
+    }
+
+    /**
+     * Finishes a multiple-part operation into native memory given by address.
+     * Used by the <code>MemorySegment</code> support on Java 22 or later.
+     *
+     * @param output the address of the output
+     * @param maxOutputLength the bytes available at the output address
+     * @return the number of bytes stored in output
+     * @throws ShortBufferException if the output is too small to hold the
+     *         result
+     * @throws IllegalBlockSizeException if the total input length is not a
+     *         multiple of block size when no padding has been requested
+     * @throws BadPaddingException if the decrypted data is not bounded by the
+     *         appropriate padding bytes
+     */
+    int doFinal(long output, long maxOutputLength)
+            throws ShortBufferException, IllegalBlockSizeException,
+            BadPaddingException {
+        return cipher.doFinal(output, maxOutputLength);
     }
 
     /**
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.cipher;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Properties;
+
+/**
+ * Implements the CryptoCipher by calling OpenSSL through the Foreign Function
+ * &amp; Memory API instead of JNI. The implementation requires Java 22 or
+ * later and is packaged under <code>META-INF/versions/22</code> of the
+ * multi-release jar; on older Java versions this class can't be constructed,
+ * so {@link CryptoCipherFactory} falls back to the next configured cipher.
+ */
+public class OpensslFfmCipher implements CryptoCipher {
+    private static final String UNSUPPORTED = "OpensslFfmCipher requires Java 22 or later";
+
+    /**
+     * Constructs a {@link CryptoCipher} calling OpenSSL through the Foreign
+     * Function &amp; Memory API.
+     *
+     * @param props properties for OpenSSL cipher
+     * @param transformation transformation for OpenSSL cipher
+     * @throws GeneralSecurityException if OpenSSL cipher initialize failed
+     */
+    public OpensslFfmCipher(Properties props,
+            CipherTransformation transformation)
+            throws GeneralSecurityException {
+        throw new RuntimeException(UNSUPPORTED);
+    }
+
+    @Override
+    public CipherTransformation getTransformation() {
+        throw new UnsupportedOperationException(UNSUPPORTED);
+    }
+
+    @Override
+    public Properties getProperties() {
+        throw new UnsupportedOperationException(UNSUPPORTED);
+    }
+
+    /**
+     * Returns whether this cipher works best on direct buffers.
+     *
+     * @return true.
+     */
+    public boolean isDirectBufferPreferred() {
+        throw new UnsupportedOperationException(UNSUPPORTED);
+    }
+
+    @Override
+    public void init(int mode, Key key, AlgorithmParameterSpec params) {
+        throw new UnsupportedOperationException(UNSUPPORTED);
+    }
+
+    @Override
+    public int update(ByteBuffer inBuffer, ByteBuffer outBuffer) {
+        throw new UnsupportedOperationException(UNSUPPORTED);
+    }
+
+    /**
+     * Continues a multiple-part encryption/decryption operation on the
+     * remaining bytes of the buffer, storing the result over them.
+     *
+     * @param buffer the ByteBuffer
+     * @return int number of bytes stored in <code>buffer</code>
+     */
+    public int updateInPlace(ByteBuffer buffer) {
+        throw new UnsupportedOperationException(UNSUPPORTED);
+    }
+
+    @Override
+    public int update(byte[] input, int inputOffset, int inputLen,
+            byte[] output, int outputOffset) {
+        throw new UnsupportedOperationException(UNSUPPORTED);
+    }
+
+    @Override
+    public int doFinal(ByteBuffer inBuffer, ByteBuffer outBuffer) {
+        throw new UnsupportedOperationException(UNSUPPORTED);
+    }
+
+    @Override
+    public int doFinal(byte[] input, int inputOffset, int inputLen,
+            byte[] output, int outputOffset) {
+        throw new UnsupportedOperationException(UNSUPPORTED);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release.
+    }
+}
@@ -56,6 +56,33 @@ public class OpensslNative {
     public native static long init(long context, int mode, int alg,
             int padding, byte[] key, byte[] iv);
 
+    /**
+     * Declares a native method to expand a key into a template cipher context
+     * which can be cloned by {@link #initPrepared(long, long, byte[])}. The
+     * template is freed by {@link #clean(long)}.
+     *
+     * @param mode ENCRYPT_MODE or DECRYPT_MODE
+     * @param alg Algorithm Mode of Openssl
+     * @param padding the padding mode of Openssl cipher
+     * @param key crypto key
+     * @return the context address of the template
+     */
+    public native static long prepareKey(int mode, int alg, int padding,
+            byte[] key);
+
+    /**
+     * Declares a native method to initialize the cipher context by cloning a
+     * template created by {@link #prepareKey(int, int, int, byte[])} and
+     * setting the iv, without expanding the key again.
+     *
+     * @param context The cipher context address
+     * @param preparedKey The template context address
+     * @param iv crypto iv
+     * @return the context address of cipher
+     */
+    public native static long initPrepared(long context, long preparedKey,
+            byte[] iv);
+
     /**
      * Continues a multiple-part encryption/decryption operation. The data is
      * encrypted or decrypted, depending on how this cipher was initialized.
@@ -116,6 +143,33 @@ public class OpensslNative {
     public native static int doFinalByteArray(long context, byte[] output,
             int offset, int maxOutputLength);
 
+    /**
+     * Declares a native method to continue a multiple-part encryption or
+     * decryption operation on native memory given by address. The input may
+     * be longer than 2GB, it is passed to OpenSSL in chunks.
+     *
+     * @param context The cipher context address
+     * @param input The address of the input
+     * @param inputLength The input length
+     * @param output The address of the output
+     * @param maxOutputLength The maximum output length
+     * @return The number of bytes stored in output
+     */
+    public native static long updateAddress(long context, long input,
+            long inputLength, long output, long maxOutputLength);
+
+    /**
+     * Declares a native method to finish a multiple-part operation into
+     * native memory given by address.
+     *
+     * @param context The cipher context address
+     * @param output The address of the output
+     * @param maxOutputLength The maximum output length
+     * @return The number of bytes stored in output
+     */
+    public native static int doFinalAddress(long context, long output,
+            long maxOutputLength);
+
     /**
      * Cleans the context at native.
      *
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.cipher;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * <p>
+ * PreparedKey is a SecretKey which keeps the expanded key schedule of
+ * {@link OpensslCipher} at native side. The first time an OpensslCipher is
+ * initialized with it for a transformation and mode, the key is copied
+ * across JNI and expanded once into a template cipher context; later
+ * initializations clone that template and only set the IV. This cuts the
+ * per-stream setup cost when a small set of keys serves many streams.
+ * </p>
+ * <p>
+ * Other CryptoCipher implementations use it as a plain raw key. It is
+ * thread-safe, but it must not be closed while a cipher is being initialized
+ * with it. After {@link #close()} it still works as a plain key.
+ * </p>
+ */
+public final class PreparedKey implements SecretKey, Closeable {
+    private static final long serialVersionUID = 4630162374815468297L;
+
+    private final SecretKeySpec key;
+
+    /**
+     * The template context addresses by transformation and mode.
+     */
+    private final transient ConcurrentMap<String, Long> templates = new ConcurrentHashMap<String, Long>();
+
+    private transient volatile boolean closed = false;
+
+    /**
+     * Constructs a {@link PreparedKey} for AES.
+     *
+     * @param key crypto key for the cipher.
+     */
+    public PreparedKey(byte[] key) {
+        this(key, "AES");
+    }
+
+    /**
+     * Constructs a {@link PreparedKey}.
+     *
+     * @param key crypto key for the cipher.
+     * @param algorithm the name of the key algorithm.
+     */
+    public PreparedKey(byte[] key, String algorithm) {
+        this.key = new SecretKeySpec(key, algorithm);
+    }
+
+    /**
+     * Returns the name of the algorithm associated with this key.
+     *
+     * @return the algorithm name.
+     */
+    @Override
+    public String getAlgorithm() {
+        return key.getAlgorithm();
+    }
+
+    /**
+     * Returns the name of the encoding format of this key.
+     *
+     * @return the string "RAW".
+     */
+    @Override
+    public String getFormat() {
+        return key.getFormat();
+    }
+
+    /**
+     * Returns the key material of this key.
+     *
+     * @return a copy of the key material.
+     */
+    @Override
+    public byte[] getEncoded() {
+        return key.getEncoded();
+    }
+
+    /**
+     * Gets the template context for the transformation and mode, expanding
+     * the key on first use.
+     *
+     * @param cipher the Openssl cipher of the transformation.
+     * @param transformation the CipherTransformation.
+     * @param mode {@link Openssl#ENCRYPT_MODE} or {@link Openssl#DECRYPT_MODE}
+     * @return the address of the template context, or 0 if this key is
+     *         closed.
+     */
+    long getTemplate(Openssl cipher, CipherTransformation transformation,
+            int mode) {
+        if (closed) {
+            return 0;
+        }
+
+        final String id = transformation.getName() + "/" + mode;
+        Long template = templates.get(id);
+        if (template == null) {
+            Long prepared = Long.valueOf(cipher.prepareKey(mode,
+                    key.getEncoded()));
+            template = templates.putIfAbsent(id, prepared);
+            if (template != null) {
+                // Another thread prepared it first
+                Openssl.freePreparedKey(prepared.longValue());
+            } else {
+                template = prepared;
+                if (closed && templates.remove(id, prepared)) {
+                    // Closed meanwhile, do not leak the template
+                    Openssl.freePreparedKey(prepared.longValue());
+                    return 0;
+                }
+            }
+        }
+        return template.longValue();
+    }
+
+    /**
+     * Frees the native template contexts.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Iterator<Map.Entry<String, Long>> it = templates.entrySet()
+                .iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (templates.remove(entry.getKey(), entry.getValue())) {
+                Openssl.freePreparedKey(entry.getValue().longValue());
+            }
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        close();
+    }
+
+    /**
+     * Restores the transient state after deserialization.
+     *
+     * @return a new PreparedKey with the same key material.
+     */
+    private Object readResolve() {
+        return new PreparedKey(key.getEncoded(), key.getAlgorithm());
+    }
+}
@@ -112,6 +112,70 @@ public class ConfigurationKeys {
      */
     public static final int COMMONS_CRYPTO_STREAM_BUFFER_SIZE_DEFAULT = 8192;
 
+    /**
+     * The configuration key of the segment size for segmented stream.
+     */
+    public static final String COMMONS_CRYPTO_STREAM_SEGMENT_SIZE_KEY = CONF_PREFIX
+            + "stream.segment.size";
+
+    /**
+     * The default value of the segment size for segmented stream.
+     */
+    public static final int COMMONS_CRYPTO_STREAM_SEGMENT_SIZE_DEFAULT = 65536;
+
+    /**
+     * The configuration key to let streams adapt their buffer size to the size
+     * of the reads and writes of the caller. The buffer size is then only the
+     * initial size.
+     */
+    public static final String COMMONS_CRYPTO_STREAM_BUFFER_ADAPTIVE_KEY = CONF_PREFIX
+            + "stream.buffer.adaptive";
+
+    /**
+     * The default value to let streams adapt their buffer size.
+     */
+    public static final boolean COMMONS_CRYPTO_STREAM_BUFFER_ADAPTIVE_DEFAULT = false;
+
+    /**
+     * The configuration key of the maximum buffer size an adaptive stream
+     * grows to.
+     */
+    public static final String COMMONS_CRYPTO_STREAM_BUFFER_MAX_SIZE_KEY = CONF_PREFIX
+            + "stream.buffer.max.size";
+
+    /**
+     * The default value of the maximum buffer size of adaptive streams.
+     */
+    public static final int COMMONS_CRYPTO_STREAM_BUFFER_MAX_SIZE_DEFAULT = 1048576;
+
+    /**
+     * The configuration key of the OpenSSL crypto library which is called
+     * through the Foreign Function &amp; Memory API on Java 22 or later.
+     */
+    public static final String COMMONS_CRYPTO_OPENSSL_LIBRARY_KEY = CONF_PREFIX
+            + "openssl.library";
+
+    // metrics related configuration keys
+    /**
+     * The configuration key to enable metrics. It is read once from the
+     * system properties, so disabled metrics cost nothing on the hot paths.
+     */
+    public static final String COMMONS_CRYPTO_METRICS_ENABLED_KEY = CONF_PREFIX
+            + "metrics.enabled";
+
+    /**
+     * The default value to enable metrics.
+     */
+    public static final boolean COMMONS_CRYPTO_METRICS_ENABLED_DEFAULT = false;
+
+    /**
+     * The configuration key of the listener class receiving metrics. The
+     * default is "org.apache.commons.crypto.metrics.CryptoStatistics", which
+     * is also registered as a JMX MBean.
+     */
+    public static final String COMMONS_CRYPTO_METRICS_LISTENER_CLASS_KEY = CONF_PREFIX
+            + "metrics.listener.class";
+
     // native lib related configuration keys
     /**
      * The configuration key of the path for loading crypto library.
@@ -131,6 +195,15 @@ public class ConfigurationKeys {
     public static final String COMMONS_CRYPTO_LIB_TEMPDIR_KEY = CONF_PREFIX
             + "lib.tempdir";
 
+    /**
+     * The configuration key of the persistent directory for extracting crypto
+     * library. When set, the library is extracted once under a name derived
+     * from its content and reused by later JVMs, instead of being extracted
+     * into the temp directory on each start.
+     */
+    public static final String COMMONS_CRYPTO_LIB_CACHEDIR_KEY = CONF_PREFIX
+            + "lib.cachedir";
+
     private ConfigurationKeys() {
     }
 }
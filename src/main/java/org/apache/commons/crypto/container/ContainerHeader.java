@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.container;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * The header of an encrypted container. It is written at the start of the
+ * container and describes how the body was encrypted, so that a reader only
+ * needs the key to open the container. The layout of the header is:
+ *
+ * <pre>
+ * magic           4 bytes, "CCRY"
+ * version         1 byte
+ * header length   4 bytes, length of the whole header
+ * transformation  UTF string, e.g. "AES/CTR/NoPadding"
+ * iv length       1 byte
+ * iv              iv length bytes
+ * chunk size      4 bytes
+ * flags           1 byte
+ * </pre>
+ */
+public final class ContainerHeader {
+    /**
+     * The magic bytes which start the header and end the footer.
+     */
+    static final byte[] MAGIC = { 'C', 'C', 'R', 'Y' };
+
+    /**
+     * The current version of the container format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The default chunk size, 64KB.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Flag set when every chunk is authenticated by a HMAC-SHA256 tag.
+     */
+    public static final int FLAG_CHUNK_TAGS = 0x01;
+
+    /**
+     * The length of a chunk tag (HMAC-SHA256).
+     */
+    static final int TAG_LENGTH = 32;
+
+    /**
+     * The length of the fixed prefix: magic, version and header length.
+     */
+    static final int PREFIX_LENGTH = 9;
+
+    private final int version;
+    private final CipherTransformation transformation;
+    private final byte[] iv;
+    private final int chunkSize;
+    private final int flags;
+
+    /**
+     * Constructs a {@link ContainerHeader} of the current version.
+     *
+     * @param transformation the CipherTransformation of the body, only
+     *        AES/CTR/NoPadding is supported.
+     * @param iv Initialization vector for the cipher.
+     * @param chunkSize the size of the chunks in bytes, a multiple of the
+     *        algorithm block size.
+     * @param flags the flags, such as {@link #FLAG_CHUNK_TAGS}.
+     */
+    public ContainerHeader(CipherTransformation transformation, byte[] iv,
+            int chunkSize, int flags) {
+        this(VERSION, transformation, iv, chunkSize, flags);
+    }
+
+    private ContainerHeader(int version, CipherTransformation transformation,
+            byte[] iv, int chunkSize, int flags) {
+        Utils.checkArgument(
+                transformation == CipherTransformation.AES_CTR_NOPADDING,
+                "AES/CTR/NoPadding is required");
+        Utils.checkArgument(iv.length == transformation
+                .getAlgorithmBlockSize(), "Invalid IV length: " + iv.length);
+        Utils.checkArgument(chunkSize > 0
+                && chunkSize % transformation.getAlgorithmBlockSize() == 0,
+                "Invalid chunk size: " + chunkSize);
+        this.version = version;
+        this.transformation = transformation;
+        this.iv = iv.clone();
+        this.chunkSize = chunkSize;
+        this.flags = flags;
+    }
+
+    /**
+     * Gets the version of the container format.
+     *
+     * @return the version.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the CipherTransformation of the body.
+     *
+     * @return the CipherTransformation.
+     */
+    public CipherTransformation getTransformation() {
+        return transformation;
+    }
+
+    /**
+     * Gets the initialization vector of the body.
+     *
+     * @return a copy of the initialization vector.
+     */
+    public byte[] getIV() {
+        return iv.clone();
+    }
+
+    /**
+     * Gets the size of the chunks in bytes. All chunks but the last one have
+     * this size.
+     *
+     * @return the chunk size.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Gets the flags of the container.
+     *
+     * @return the flags.
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Checks whether every chunk is authenticated by a tag.
+     *
+     * @return true if the chunks carry tags.
+     */
+    public boolean hasChunkTags() {
+        return (flags & FLAG_CHUNK_TAGS) != 0;
+    }
+
+    /**
+     * Serializes the header.
+     *
+     * @return the header bytes.
+     * @throws IOException if an I/O error occurs.
+     */
+    byte[] toBytes() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeUTF(transformation.getName());
+        out.writeByte(iv.length);
+        out.write(iv);
+        out.writeInt(chunkSize);
+        out.writeByte(flags);
+        out.flush();
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        out = new DataOutputStream(header);
+        out.write(MAGIC);
+        out.writeByte(version);
+        out.writeInt(PREFIX_LENGTH + body.size());
+        body.writeTo(out);
+        out.flush();
+        return header.toByteArray();
+    }
+
+    /**
+     * Reads the header length from the fixed prefix of a header.
+     *
+     * @param prefix the first {@link #PREFIX_LENGTH} bytes of the container.
+     * @return the length of the whole header.
+     * @throws IOException if the prefix is not a valid container prefix.
+     */
+    static int readLength(byte[] prefix) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                prefix));
+        checkMagic(in);
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported container version: " + version);
+        }
+        int length = in.readInt();
+        if (length < PREFIX_LENGTH) {
+            throw new IOException("Invalid container header length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Deserializes a header.
+     *
+     * @param bytes the header bytes as returned by {@link #toBytes()}.
+     * @return the ContainerHeader.
+     * @throws IOException if the bytes are not a valid header.
+     */
+    static ContainerHeader parse(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                bytes));
+        checkMagic(in);
+        int version = in.readUnsignedByte();
+        in.readInt();
+        try {
+            CipherTransformation transformation = CipherTransformation
+                    .fromName(in.readUTF());
+            byte[] iv = new byte[in.readUnsignedByte()];
+            in.readFully(iv);
+            int chunkSize = in.readInt();
+            int flags = in.readUnsignedByte();
+            return new ContainerHeader(version, transformation, iv,
+                    chunkSize, flags);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads and checks the magic bytes.
+     */
+    static void checkMagic(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not an encrypted container");
+        }
+    }
+}
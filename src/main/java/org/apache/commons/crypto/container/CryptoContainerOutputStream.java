@@ -0,0 +1,319 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.container;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+import javax.crypto.Mac;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.stream.CTRCryptoOutputStream;
+import org.apache.commons.crypto.stream.output.Output;
+import org.apache.commons.crypto.stream.output.StreamOutput;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * <p>
+ * CryptoContainerOutputStream writes an encrypted container. The container
+ * starts with a {@link ContainerHeader}, followed by the body encrypted with
+ * AES/CTR/NoPadding by a {@link CTRCryptoOutputStream}, a trailer and a
+ * footer. The body is divided in chunks of {@link ContainerHeader#getChunkSize()}
+ * bytes. The trailer is the chunk index:
+ * </p>
+ *
+ * <pre>
+ * data length     8 bytes, the length of the plain text
+ * chunk count     4 bytes
+ * chunk tags      chunk count * 32 bytes, if FLAG_CHUNK_TAGS is set
+ * trailer tag     32 bytes, if FLAG_CHUNK_TAGS is set
+ * </pre>
+ *
+ * <p>
+ * and the footer is the offset of the trailer (8 bytes) followed by the magic
+ * bytes. The tag of chunk i is HMAC-SHA256(iv || i || cipher text of chunk i)
+ * and the trailer tag is HMAC-SHA256(header || trailer), so that chunks can
+ * be neither modified, reordered nor dropped. The HMAC key is derived from the
+ * cipher key.
+ * </p>
+ * It is not thread-safe. The container is complete only after {@link #close()}.
+ */
+public class CryptoContainerOutputStream extends OutputStream {
+    /**
+     * The label of the HMAC key derived from the cipher key.
+     */
+    static final String MAC_KEY_LABEL = "commons-crypto container v1";
+
+    private final Output output;
+    private final ContainerHeader header;
+    private final byte[] headerBytes;
+    private final ChunkOutput chunkOutput;
+    private final CTRCryptoOutputStream out;
+    private final Mac mac;
+    private boolean closed;
+
+    /**
+     * Constructs a {@link CryptoContainerOutputStream} with the default chunk
+     * size and chunk tags.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @param out the output stream.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @throws IOException if an I/O error occurs.
+     */
+    public CryptoContainerOutputStream(Properties props, OutputStream out,
+            byte[] key, byte[] iv) throws IOException {
+        this(props, out, key, iv, ContainerHeader.DEFAULT_CHUNK_SIZE, true);
+    }
+
+    /**
+     * Constructs a {@link CryptoContainerOutputStream}.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @param out the output stream.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @param chunkSize the chunk size, a multiple of the AES block size.
+     * @param chunkTags whether to authenticate every chunk.
+     * @throws IOException if an I/O error occurs.
+     */
+    public CryptoContainerOutputStream(Properties props, OutputStream out,
+            byte[] key, byte[] iv, int chunkSize, boolean chunkTags)
+            throws IOException {
+        this(new StreamOutput(out, Utils.getBufferSize(props)), Utils
+                .getCipherInstance(CipherTransformation.AES_CTR_NOPADDING,
+                        props), Utils.getBufferSize(props), key, iv,
+                chunkSize, chunkTags);
+    }
+
+    /**
+     * Constructs a {@link CryptoContainerOutputStream}.
+     *
+     * @param output the output target.
+     * @param cipher the CryptoCipher instance.
+     * @param bufferSize the bufferSize.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @param chunkSize the chunk size, a multiple of the AES block size.
+     * @param chunkTags whether to authenticate every chunk.
+     * @throws IOException if an I/O error occurs.
+     */
+    public CryptoContainerOutputStream(Output output, CryptoCipher cipher,
+            int bufferSize, byte[] key, byte[] iv, int chunkSize,
+            boolean chunkTags) throws IOException {
+        Utils.checkStreamCipher(cipher);
+        this.output = output;
+        this.header = new ContainerHeader(cipher.getTransformation(), iv,
+                chunkSize, chunkTags ? ContainerHeader.FLAG_CHUNK_TAGS : 0);
+        this.headerBytes = header.toBytes();
+        this.mac = chunkTags ? Utils.getMacInstance(Utils.deriveMacKey(key,
+                MAC_KEY_LABEL)) : null;
+
+        writeFully(ByteBuffer.wrap(headerBytes));
+        this.chunkOutput = new ChunkOutput();
+        this.out = new CTRCryptoOutputStream(chunkOutput, cipher, bufferSize,
+                key, iv, 0);
+    }
+
+    /**
+     * Gets the header of the container.
+     *
+     * @return the ContainerHeader.
+     */
+    public ContainerHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Overrides the {@link java.io.OutputStream#write(int)}. Writes the
+     * specified byte to this output stream.
+     *
+     * @param b the data.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+    }
+
+    /**
+     * Overrides the {@link java.io.OutputStream#write(byte[], int, int)}.
+     * Encryption is buffer based. If there is enough room in the buffer, the
+     * data is copied and returns immediately. Otherwise the data is encrypted
+     * and written to the container.
+     *
+     * @param b the data.
+     * @param off the start offset in the data.
+     * @param len the number of bytes to write.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    /**
+     * Overrides the {@link OutputStream#flush()}. To flush, we need to encrypt
+     * the data in the buffer and write to the underlying stream, then do the
+     * flush.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Overrides the {@link OutputStream#close()}. Encrypts the remaining data,
+     * writes the trailer and the footer and closes the underlying output.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            out.close();
+            chunkOutput.finish();
+
+            final long trailerOffset = headerBytes.length
+                    + chunkOutput.getLength();
+            ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+            DataOutputStream dout = new DataOutputStream(trailer);
+            dout.writeLong(chunkOutput.getLength());
+            dout.writeInt(chunkOutput.getChunkCount());
+            if (mac != null) {
+                chunkOutput.getTags().writeTo(dout);
+                dout.flush();
+                mac.update(headerBytes);
+                mac.update(trailer.toByteArray());
+                dout.write(mac.doFinal());
+            }
+            dout.writeLong(trailerOffset);
+            dout.write(ContainerHeader.MAGIC);
+            dout.flush();
+
+            writeFully(ByteBuffer.wrap(trailer.toByteArray()));
+            output.flush();
+            output.close();
+        } finally {
+            closed = true;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+    }
+
+    /**
+     * The Output of the CTRCryptoOutputStream. It forwards the cipher text to
+     * the container output and computes the chunk tags on the way.
+     */
+    private class ChunkOutput implements Output {
+        private final ByteArrayOutputStream tags = new ByteArrayOutputStream();
+        private long length;
+        private int chunkCount;
+        private int chunkPosition;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            final int len = src.remaining();
+            final int chunkSize = header.getChunkSize();
+            while (src.hasRemaining()) {
+                final int n = Math.min(src.remaining(), chunkSize
+                        - chunkPosition);
+                ByteBuffer chunk = src.duplicate();
+                chunk.limit(chunk.position() + n);
+                if (mac != null) {
+                    if (chunkPosition == 0) {
+                        startChunk();
+                    }
+                    mac.update(chunk.duplicate());
+                }
+                writeFully(chunk);
+                src.position(src.position() + n);
+                chunkPosition += n;
+                length += n;
+                if (chunkPosition == chunkSize) {
+                    finishChunk();
+                }
+            }
+            return len;
+        }
+
+        private void startChunk() {
+            mac.update(header.getIV());
+            mac.update(ByteBuffer.allocate(8).putLong(0, chunkCount));
+        }
+
+        private void finishChunk() {
+            if (mac != null) {
+                byte[] tag = mac.doFinal();
+                tags.write(tag, 0, tag.length);
+            }
+            chunkCount++;
+            chunkPosition = 0;
+        }
+
+        /** Completes the last, partial chunk. */
+        void finish() {
+            if (chunkPosition > 0) {
+                finishChunk();
+            }
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        int getChunkCount() {
+            return chunkCount;
+        }
+
+        ByteArrayOutputStream getTags() {
+            return tags;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        /**
+         * The container output stays open to write the trailer, it is closed
+         * by {@link CryptoContainerOutputStream#close()}.
+         */
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
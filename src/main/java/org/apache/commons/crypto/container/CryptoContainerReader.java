@@ -0,0 +1,430 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.container;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
+import org.apache.commons.crypto.stream.PositionedCryptoInputStream;
+import org.apache.commons.crypto.stream.input.Input;
+import org.apache.commons.crypto.utils.IOUtils;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * CryptoContainerReader reads a container written by
+ * {@link CryptoContainerOutputStream}. The header and the trailer are read and
+ * verified when the reader is constructed; afterwards any chunk, or any range
+ * of the plain text, can be read at random through the chunk index. When the
+ * container carries chunk tags, every chunk is verified before it is
+ * decrypted. The input must support positioned read. The read methods are
+ * thread-safe.
+ */
+public class CryptoContainerReader implements Closeable {
+    private static final int FOOTER_LENGTH = 8 + ContainerHeader.MAGIC.length;
+
+    private final Input input;
+    private final ContainerHeader header;
+    private final byte[] headerBytes;
+    private final long bodyOffset;
+    private final long length;
+    private final int chunkCount;
+    private final byte[] tags;
+    private final SecretKeySpec macKey;
+    private final ChunkCryptoInputStream in;
+
+    /**
+     * Mac pool
+     */
+    private final Queue<Mac> macPool = new ConcurrentLinkedQueue<Mac>();
+
+    /**
+     * Chunk buffer pool
+     */
+    private final Queue<byte[]> chunkPool = new ConcurrentLinkedQueue<byte[]>();
+
+    /**
+     * Constructs a {@link CryptoContainerReader}.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @param input the input data, which must support positioned read.
+     * @param containerLength the length of the whole container in bytes.
+     * @param key crypto key for the cipher.
+     * @throws IOException if an I/O error occurs or the container is invalid.
+     */
+    public CryptoContainerReader(Properties props, Input input,
+            long containerLength, byte[] key) throws IOException {
+        this(input, containerLength, Utils.getCipherInstance(
+                CipherTransformation.AES_CTR_NOPADDING, props), Utils
+                .getBufferSize(props), key);
+    }
+
+    /**
+     * Constructs a {@link CryptoContainerReader}.
+     *
+     * @param input the input data, which must support positioned read.
+     * @param containerLength the length of the whole container in bytes.
+     * @param cipher the CryptoCipher instance.
+     * @param bufferSize the bufferSize.
+     * @param key crypto key for the cipher.
+     * @throws IOException if an I/O error occurs or the container is invalid.
+     */
+    public CryptoContainerReader(Input input, long containerLength,
+            CryptoCipher cipher, int bufferSize, byte[] key)
+            throws IOException {
+        Utils.checkStreamCipher(cipher);
+        this.input = input;
+        if (containerLength < ContainerHeader.PREFIX_LENGTH + FOOTER_LENGTH) {
+            throw new IOException("Container is too short: " + containerLength);
+        }
+
+        // Footer
+        DataInputStream footer = readAt(containerLength - FOOTER_LENGTH,
+                FOOTER_LENGTH);
+        final long trailerOffset = footer.readLong();
+        ContainerHeader.checkMagic(footer);
+
+        // Header
+        byte[] prefix = new byte[ContainerHeader.PREFIX_LENGTH];
+        IOUtils.readFully(input, 0, prefix, 0, prefix.length);
+        final int headerLength = ContainerHeader.readLength(prefix);
+        if (headerLength > trailerOffset
+                || trailerOffset > containerLength - FOOTER_LENGTH) {
+            throw new IOException("Invalid container trailer offset: "
+                    + trailerOffset);
+        }
+        this.headerBytes = new byte[headerLength];
+        IOUtils.readFully(input, 0, headerBytes, 0, headerLength);
+        this.header = ContainerHeader.parse(headerBytes);
+        if (header.getTransformation() != cipher.getTransformation()) {
+            throw new IOException("Container transformation "
+                    + header.getTransformation().getName()
+                    + " does not match the cipher");
+        }
+        this.bodyOffset = headerLength;
+
+        // Trailer
+        final int trailerLength = (int) (containerLength - FOOTER_LENGTH - trailerOffset);
+        byte[] trailerBytes = new byte[trailerLength];
+        IOUtils.readFully(input, trailerOffset, trailerBytes, 0, trailerLength);
+        DataInputStream trailer = new DataInputStream(new ByteArrayInputStream(
+                trailerBytes));
+        this.length = trailer.readLong();
+        this.chunkCount = trailer.readInt();
+        final int chunkSize = header.getChunkSize();
+        if (length != trailerOffset - bodyOffset
+                || chunkCount != (length + chunkSize - 1) / chunkSize) {
+            throw new IOException("Invalid container trailer");
+        }
+        if (header.hasChunkTags()) {
+            this.macKey = Utils.deriveMacKey(key,
+                    CryptoContainerOutputStream.MAC_KEY_LABEL);
+            if (trailerLength != 12 + (chunkCount + 1)
+                    * ContainerHeader.TAG_LENGTH) {
+                throw new IOException("Invalid container trailer");
+            }
+            this.tags = new byte[chunkCount * ContainerHeader.TAG_LENGTH];
+            trailer.readFully(tags);
+            byte[] trailerTag = new byte[ContainerHeader.TAG_LENGTH];
+            trailer.readFully(trailerTag);
+
+            Mac mac = getMac();
+            mac.update(headerBytes);
+            mac.update(trailerBytes, 0, trailerLength
+                    - ContainerHeader.TAG_LENGTH);
+            boolean verified = MessageDigest.isEqual(trailerTag,
+                    mac.doFinal());
+            returnMac(mac);
+            if (!verified) {
+                throw new IOException("Container trailer verification failed");
+            }
+        } else {
+            this.macKey = null;
+            this.tags = null;
+            if (trailerLength != 12) {
+                throw new IOException("Invalid container trailer");
+            }
+        }
+
+        this.in = new ChunkCryptoInputStream(new BodyInput(), cipher,
+                bufferSize, key, header.getIV());
+    }
+
+    /**
+     * Gets the header of the container.
+     *
+     * @return the ContainerHeader.
+     */
+    public ContainerHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Gets the length of the plain text.
+     *
+     * @return the length in bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the number of chunks.
+     *
+     * @return the chunk count.
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Gets the length of a chunk. Only the last chunk may be shorter than the
+     * chunk size.
+     *
+     * @param index the index of the chunk.
+     * @return the length of the chunk in bytes.
+     */
+    public int getChunkLength(int index) {
+        checkChunkIndex(index);
+        final long start = (long) index * header.getChunkSize();
+        return (int) Math.min(header.getChunkSize(), length - start);
+    }
+
+    /**
+     * Reads, verifies and decrypts a whole chunk.
+     *
+     * @param index the index of the chunk.
+     * @param buffer the buffer into which the chunk is read, it must have
+     *        {@link #getChunkLength(int)} bytes of room after offset.
+     * @param offset the start offset in the buffer.
+     * @return the length of the chunk.
+     * @throws IOException if an I/O error occurs or the chunk fails
+     *         verification.
+     */
+    public int readChunk(int index, byte[] buffer, int offset)
+            throws IOException {
+        in.checkOpen();
+        final int chunkLength = getChunkLength(index);
+        final long position = (long) index * header.getChunkSize();
+        IOUtils.readFully(input, bodyOffset + position, buffer, offset,
+                chunkLength);
+        verifyChunk(index, buffer, offset, chunkLength);
+        in.decryptChunk(position, buffer, offset, chunkLength);
+        return chunkLength;
+    }
+
+    /**
+     * Reads up to the specified number of bytes of plain text from a given
+     * position. Every chunk touched by the read is verified when the container
+     * carries chunk tags.
+     *
+     * @param position the offset in the plain text.
+     * @param buffer the buffer into which the data is read.
+     * @param offset the start offset in the buffer.
+     * @param len the maximum number of bytes to read.
+     * @return the number of bytes read, or <code>-1</code> if position is at
+     *         or beyond the end of the plain text.
+     * @throws IOException if an I/O error occurs or a chunk fails
+     *         verification.
+     */
+    public int read(long position, byte[] buffer, int offset, int len)
+            throws IOException {
+        Utils.checkArgument(position >= 0, "Negative position: " + position);
+        in.checkOpen();
+        if (position >= length) {
+            return -1;
+        }
+        final int n = (int) Math.min(len, length - position);
+        if (n == 0) {
+            return 0;
+        }
+        if (!header.hasChunkTags()) {
+            in.readFully(position, buffer, offset, n);
+            return n;
+        }
+
+        final int chunkSize = header.getChunkSize();
+        byte[] chunk = getChunkBuffer();
+        try {
+            int done = 0;
+            while (done < n) {
+                final long pos = position + done;
+                final int index = (int) (pos / chunkSize);
+                final int chunkOffset = (int) (pos % chunkSize);
+                final int chunkLength = readChunk(index, chunk, 0);
+                final int toCopy = Math.min(n - done, chunkLength - chunkOffset);
+                System.arraycopy(chunk, chunkOffset, buffer, offset + done,
+                        toCopy);
+                done += toCopy;
+            }
+        } finally {
+            chunkPool.add(chunk);
+        }
+        return n;
+    }
+
+    /**
+     * Closes the reader and the underlying input.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void verifyChunk(int index, byte[] buffer, int offset,
+            int chunkLength) throws IOException {
+        if (!header.hasChunkTags()) {
+            return;
+        }
+        Mac mac = getMac();
+        try {
+            mac.update(header.getIV());
+            mac.update(ByteBuffer.allocate(8).putLong(0, index));
+            mac.update(buffer, offset, chunkLength);
+            byte[] expected = new byte[ContainerHeader.TAG_LENGTH];
+            System.arraycopy(tags, index * ContainerHeader.TAG_LENGTH,
+                    expected, 0, expected.length);
+            if (!MessageDigest.isEqual(expected, mac.doFinal())) {
+                throw new IOException("Chunk " + index
+                        + " failed verification");
+            }
+        } finally {
+            returnMac(mac);
+        }
+    }
+
+    private void checkChunkIndex(int index) {
+        if (index < 0 || index >= chunkCount) {
+            throw new IndexOutOfBoundsException("Chunk index " + index
+                    + " out of range [0, " + chunkCount + ")");
+        }
+    }
+
+    private DataInputStream readAt(long position, int len) throws IOException {
+        byte[] bytes = new byte[len];
+        IOUtils.readFully(input, position, bytes, 0, len);
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    /** Get Mac from pool */
+    private Mac getMac() throws IOException {
+        Mac mac = macPool.poll();
+        if (mac == null) {
+            mac = Utils.getMacInstance(macKey);
+        }
+        return mac;
+    }
+
+    /** Return Mac to pool */
+    private void returnMac(Mac mac) {
+        mac.reset();
+        macPool.add(mac);
+    }
+
+    /** Get chunk buffer from pool */
+    private byte[] getChunkBuffer() {
+        byte[] chunk = chunkPool.poll();
+        if (chunk != null) {
+            CryptoMetrics.count(CryptoMetric.BUFFER_POOL_HIT);
+        } else {
+            CryptoMetrics.count(CryptoMetric.BUFFER_POOL_MISS);
+            chunk = new byte[header.getChunkSize()];
+        }
+        return chunk;
+    }
+
+    /**
+     * The Input of the body, positioned reads are relative to the start of
+     * the body and stop at the end of the body.
+     */
+    private class BodyInput implements Input {
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            throw new UnsupportedOperationException(
+                    "Container body only supports positioned read");
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new UnsupportedOperationException(
+                    "Container body only supports positioned read");
+        }
+
+        @Override
+        public int available() throws IOException {
+            return 0;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int len)
+                throws IOException {
+            if (position >= length) {
+                return -1;
+            }
+            final int n = (int) Math.min(len, length - position);
+            return input.read(bodyOffset + position, buffer, offset, n);
+        }
+
+        @Override
+        public void seek(long position) throws IOException {
+            throw new UnsupportedOperationException(
+                    "Container body only supports positioned read");
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /**
+     * Exposes the positioned decryption of the stream to the reader.
+     */
+    private static class ChunkCryptoInputStream extends
+            PositionedCryptoInputStream {
+        ChunkCryptoInputStream(Input input, CryptoCipher cipher,
+                int bufferSize, byte[] key, byte[] iv) throws IOException {
+            super(input, cipher, bufferSize, key, iv, 0);
+        }
+
+        void decryptChunk(long position, byte[] buffer, int offset, int len)
+                throws IOException {
+            decrypt(position, buffer, offset, len);
+        }
+
+        void checkOpen() throws IOException {
+            checkStream();
+        }
+    }
+}
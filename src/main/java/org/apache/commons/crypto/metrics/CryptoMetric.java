@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.metrics;
+
+/**
+ * The operations measured by {@link CryptoMetrics}. Timed operations are
+ * recorded with the bytes they processed and their latency; pool operations
+ * are counted only.
+ */
+public enum CryptoMetric {
+
+    /** Initializing a cipher with key and iv. */
+    CIPHER_INIT,
+
+    /** A cipher update call. */
+    CIPHER_UPDATE,
+
+    /** A cipher doFinal call. */
+    CIPHER_DO_FINAL,
+
+    /** Encrypting a buffer of a crypto output stream, including the write. */
+    STREAM_ENCRYPT,
+
+    /** Decrypting a buffer of a crypto input stream. */
+    STREAM_DECRYPT,
+
+    /** Generating random bytes. */
+    RANDOM_BYTES,
+
+    /** A buffer taken from a pool. */
+    BUFFER_POOL_HIT,
+
+    /** A buffer allocated because its pool was empty. */
+    BUFFER_POOL_MISS,
+
+    /** A cipher taken from a pool. */
+    CIPHER_POOL_HIT,
+
+    /** A cipher created because its pool was empty. */
+    CIPHER_POOL_MISS,
+
+    /** Loading the native library. */
+    NATIVE_LOAD
+}
@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.conf.ConfigurationKeys;
+import org.apache.commons.crypto.utils.ReflectionUtils;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * The entry point of metrics. Metrics are enabled by the system property
+ * {@link ConfigurationKeys#COMMONS_CRYPTO_METRICS_ENABLED_KEY}, which is read
+ * once; when disabled every method returns at once and the JIT removes the
+ * calls. When enabled, operations are passed to a
+ * {@link CryptoMetricsListener}, by default a {@link CryptoStatistics}
+ * registered as the MBean {@value #OBJECT_NAME}. On Java 11 or later,
+ * {@link JfrMetricsListener} turns them into Java Flight Recorder events.
+ *
+ * <pre>
+ * long start = CryptoMetrics.start();
+ * int n = cipher.update(inBuffer, outBuffer);
+ * CryptoMetrics.record(CryptoMetric.CIPHER_UPDATE, n, start);
+ * </pre>
+ */
+public final class CryptoMetrics {
+    private static final Log LOG = LogFactory.getLog(CryptoMetrics.class
+            .getName());
+
+    /**
+     * The JMX object name of the default {@link CryptoStatistics}.
+     */
+    public static final String OBJECT_NAME = "org.apache.commons.crypto:type=CryptoStatistics";
+
+    private static final boolean ENABLED = Boolean.parseBoolean(Utils
+            .getSystemProperty(ConfigurationKeys.COMMONS_CRYPTO_METRICS_ENABLED_KEY,
+                    String.valueOf(ConfigurationKeys
+                            .COMMONS_CRYPTO_METRICS_ENABLED_DEFAULT)));
+
+    private static volatile CryptoMetricsListener listener;
+
+    static {
+        if (ENABLED) {
+            listener = createListener();
+        }
+    }
+
+    /**
+     * The private constructor of {@link CryptoMetrics}.
+     */
+    private CryptoMetrics() {
+    }
+
+    /**
+     * Judges whether metrics are enabled.
+     *
+     * @return true if metrics are enabled.
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Gets the listener receiving metrics.
+     *
+     * @return the listener, null if metrics are disabled.
+     */
+    public static CryptoMetricsListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Sets the listener receiving metrics. It has no effect if metrics are
+     * disabled.
+     *
+     * @param metricsListener the listener.
+     */
+    public static void setListener(CryptoMetricsListener metricsListener) {
+        Utils.checkNotNull(metricsListener);
+        if (ENABLED) {
+            listener = metricsListener;
+        }
+    }
+
+    /**
+     * Starts timing an operation.
+     *
+     * @return the start time to pass to
+     *         {@link #record(CryptoMetric, long, long)}, 0 if metrics are
+     *         disabled.
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records a timed operation.
+     *
+     * @param metric the operation.
+     * @param bytes the number of bytes processed.
+     * @param start the value returned by {@link #start()}.
+     */
+    public static void record(CryptoMetric metric, long bytes, long start) {
+        if (ENABLED) {
+            listener.record(metric, bytes, Math.max(1L, System.nanoTime()
+                    - start));
+        }
+    }
+
+    /**
+     * Records the initialization of a cipher.
+     *
+     * @param transformation the transformation of the cipher.
+     * @param provider the provider of the cipher.
+     * @param start the value returned by {@link #start()}.
+     */
+    public static void recordInit(CipherTransformation transformation,
+            String provider, long start) {
+        if (ENABLED) {
+            listener.recordInit(transformation, provider, Math.max(1L,
+                    System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Counts an operation without timing it.
+     *
+     * @param metric the operation.
+     */
+    public static void count(CryptoMetric metric) {
+        if (ENABLED) {
+            listener.record(metric, 0L, 0L);
+        }
+    }
+
+    private static CryptoMetricsListener createListener() {
+        String klassName = Utils.getSystemProperty(
+                ConfigurationKeys.COMMONS_CRYPTO_METRICS_LISTENER_CLASS_KEY, null);
+        if (klassName != null) {
+            try {
+                Class<?> klass = ReflectionUtils.getClassByName(klassName);
+                return (CryptoMetricsListener) ReflectionUtils
+                        .newInstance(klass);
+            } catch (ClassCastException e) {
+                LOG.error("Class " + klassName
+                        + " is not a CryptoMetricsListener.");
+            } catch (ClassNotFoundException e) {
+                LOG.error("CryptoMetricsListener " + klassName
+                        + " not found.");
+            } catch (RuntimeException e) {
+                LOG.error("Failed to create CryptoMetricsListener "
+                        + klassName, e);
+            }
+        }
+
+        CryptoStatistics statistics = new CryptoStatistics();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    statistics, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            LOG.warn("Failed to register " + OBJECT_NAME, e);
+        }
+        return statistics;
+    }
+}
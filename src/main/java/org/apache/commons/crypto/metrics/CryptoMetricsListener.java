@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.metrics;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+
+/**
+ * The interface of the receiver of metrics. It is called on the hot paths of
+ * ciphers and streams from many threads, so implementations must be
+ * thread-safe and should not block.
+ */
+public interface CryptoMetricsListener {
+
+    /**
+     * Records an operation.
+     *
+     * @param metric the operation.
+     * @param bytes the number of bytes processed, 0 if not applicable.
+     * @param nanos the latency in nanoseconds, 0 if the operation is only
+     *        counted.
+     */
+    void record(CryptoMetric metric, long bytes, long nanos);
+
+    /**
+     * Records a {@link CryptoMetric#CIPHER_INIT} with the cipher it
+     * initialized.
+     *
+     * @param transformation the transformation of the cipher.
+     * @param provider the provider of the cipher, such as "OpenSSL" or the
+     *        name of the JCE provider.
+     * @param nanos the latency in nanoseconds.
+     */
+    void recordInit(CipherTransformation transformation, String provider,
+            long nanos);
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * The default {@link CryptoMetricsListener}. It keeps lock-free counters of
+ * operations, bytes and latency per {@link CryptoMetric}, and a latency
+ * histogram with power-of-two buckets, so a percentile is known within a
+ * factor of two at a fixed memory cost.
+ */
+public class CryptoStatistics implements CryptoMetricsListener,
+        CryptoStatisticsMBean {
+
+    /** The histogram buckets, bucket i counts latencies in [2^i, 2^(i+1)). */
+    private static final int BUCKETS = 64;
+
+    private static final CryptoMetric[] METRICS = CryptoMetric.values();
+
+    private final AtomicLongArray counts = new AtomicLongArray(METRICS.length);
+    private final AtomicLongArray bytes = new AtomicLongArray(METRICS.length);
+    private final AtomicLongArray nanos = new AtomicLongArray(METRICS.length);
+    private final AtomicLongArray histogram = new AtomicLongArray(
+            METRICS.length * BUCKETS);
+
+    /**
+     * Records an operation.
+     *
+     * @param metric the operation.
+     * @param bytes the number of bytes processed, 0 if not applicable.
+     * @param nanos the latency in nanoseconds, 0 if the operation is only
+     *        counted.
+     */
+    @Override
+    public void record(CryptoMetric metric, long bytes, long nanos) {
+        int i = metric.ordinal();
+        counts.incrementAndGet(i);
+        if (bytes > 0) {
+            this.bytes.addAndGet(i, bytes);
+        }
+        if (nanos > 0) {
+            this.nanos.addAndGet(i, nanos);
+            histogram.incrementAndGet(i * BUCKETS + 63
+                    - Long.numberOfLeadingZeros(nanos));
+        }
+    }
+
+    /**
+     * Records a {@link CryptoMetric#CIPHER_INIT}, the transformation and
+     * provider are not kept.
+     *
+     * @param transformation the transformation of the cipher.
+     * @param provider the provider of the cipher.
+     * @param nanos the latency in nanoseconds.
+     */
+    @Override
+    public void recordInit(CipherTransformation transformation,
+            String provider, long nanos) {
+        record(CryptoMetric.CIPHER_INIT, 0, nanos);
+    }
+
+    /**
+     * Gets the number of operations.
+     *
+     * @param metric the operation.
+     * @return the number of operations.
+     */
+    public long getCount(CryptoMetric metric) {
+        return counts.get(metric.ordinal());
+    }
+
+    /**
+     * Gets the number of bytes processed.
+     *
+     * @param metric the operation.
+     * @return the number of bytes processed.
+     */
+    public long getBytes(CryptoMetric metric) {
+        return bytes.get(metric.ordinal());
+    }
+
+    /**
+     * Gets the total latency.
+     *
+     * @param metric the operation.
+     * @return the total latency in nanoseconds.
+     */
+    public long getTotalNanos(CryptoMetric metric) {
+        return nanos.get(metric.ordinal());
+    }
+
+    /**
+     * Gets an upper bound of the latency percentile, the end of the histogram
+     * bucket holding it.
+     *
+     * @param metric the operation.
+     * @param percentile the percentile, between 0 and 100.
+     * @return the latency in nanoseconds, 0 if nothing was timed.
+     */
+    public long getPercentileNanos(CryptoMetric metric, double percentile) {
+        Utils.checkArgument(percentile >= 0 && percentile <= 100,
+                "Percentile must be between 0 and 100.");
+        int base = metric.ordinal() * BUCKETS;
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            total += histogram.get(base + b);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += histogram.get(base + b);
+            if (seen >= rank) {
+                // 2^63 - 1 for the last bucket used by positive values
+                return (1L << (b + 1)) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String[] getMetricNames() {
+        String[] names = new String[METRICS.length];
+        for (int i = 0; i < METRICS.length; i++) {
+            names[i] = METRICS[i].name();
+        }
+        return names;
+    }
+
+    @Override
+    public long getCount(String metric) {
+        return getCount(CryptoMetric.valueOf(metric));
+    }
+
+    @Override
+    public long getBytes(String metric) {
+        return getBytes(CryptoMetric.valueOf(metric));
+    }
+
+    @Override
+    public long getTotalNanos(String metric) {
+        return getTotalNanos(CryptoMetric.valueOf(metric));
+    }
+
+    @Override
+    public long getPercentileNanos(String metric, double percentile) {
+        return getPercentileNanos(CryptoMetric.valueOf(metric), percentile);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < METRICS.length; i++) {
+            counts.set(i, 0);
+            bytes.set(i, 0);
+            nanos.set(i, 0);
+        }
+        for (int i = 0; i < histogram.length(); i++) {
+            histogram.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.metrics;
+
+/**
+ * The JMX management interface of {@link CryptoStatistics}. Metrics are
+ * named by the constants of {@link CryptoMetric}.
+ */
+public interface CryptoStatisticsMBean {
+
+    /**
+     * Gets the names of the metrics.
+     *
+     * @return the names of the metrics.
+     */
+    String[] getMetricNames();
+
+    /**
+     * Gets the number of operations.
+     *
+     * @param metric the name of the metric.
+     * @return the number of operations.
+     */
+    long getCount(String metric);
+
+    /**
+     * Gets the number of bytes processed.
+     *
+     * @param metric the name of the metric.
+     * @return the number of bytes processed.
+     */
+    long getBytes(String metric);
+
+    /**
+     * Gets the total latency.
+     *
+     * @param metric the name of the metric.
+     * @return the total latency in nanoseconds.
+     */
+    long getTotalNanos(String metric);
+
+    /**
+     * Gets an upper bound of the latency percentile.
+     *
+     * @param metric the name of the metric.
+     * @param percentile the percentile, between 0 and 100.
+     * @return the latency in nanoseconds.
+     */
+    long getPercentileNanos(String metric, double percentile);
+
+    /**
+     * Resets all the metrics.
+     */
+    void reset();
+}
@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.metrics;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+
+/**
+ * A {@link CryptoMetricsListener} committing Java Flight Recorder events. The
+ * implementation requires Java 11 or later and is packaged under
+ * <code>META-INF/versions/11</code> of the multi-release jar; on older Java
+ * versions this class can't be constructed, so {@link CryptoMetrics} falls
+ * back to {@link CryptoStatistics}.
+ */
+public class JfrMetricsListener implements CryptoMetricsListener {
+
+    /**
+     * Constructs a {@link JfrMetricsListener}.
+     */
+    public JfrMetricsListener() {
+        throw new UnsupportedOperationException(
+                "JfrMetricsListener requires Java 11 or later");
+    }
+
+    @Override
+    public void record(CryptoMetric metric, long bytes, long nanos) {
+        // Never constructed
+    }
+
+    @Override
+    public void recordInit(CipherTransformation transformation,
+            String provider, long nanos) {
+        // Never constructed
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.netty;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * Runs the frames of a channel through one AES/CTR cipher. The cipher is only
+ * updated, never finished, so its counter carries on from frame to frame and
+ * the frames can be decrypted in the same order on the other side.
+ */
+class ByteBufCipher implements Closeable {
+    private final CryptoCipher cipher;
+    private final CryptoMetric metric;
+
+    /**
+     * Constructs a {@link ByteBufCipher}.
+     *
+     * @param mode {@link CryptoCipher#ENCRYPT_MODE} or
+     *        {@link CryptoCipher#DECRYPT_MODE}.
+     * @param cipher the AES/CTR/NoPadding cipher.
+     * @param key crypto key for the cipher.
+     * @param params the algorithm parameters.
+     * @throws IOException if the cipher can't be initialized.
+     */
+    ByteBufCipher(int mode, CryptoCipher cipher, Key key,
+            AlgorithmParameterSpec params) throws IOException {
+        Utils.checkArgument(
+                cipher.getTransformation() == CipherTransformation.AES_CTR_NOPADDING,
+                "AES/CTR/NoPadding is required.");
+        this.cipher = cipher;
+        this.metric = mode == CryptoCipher.ENCRYPT_MODE ? CryptoMetric.STREAM_ENCRYPT
+                : CryptoMetric.STREAM_DECRYPT;
+        try {
+            cipher.init(mode, key, params);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Encrypts or decrypts the readable bytes of the buffer. A direct buffer
+     * backed by one memory region and held by no one else is updated in
+     * place. Any other buffer, such as a duplicate or a buffer retained
+     * elsewhere, is copied into a direct buffer of the allocator and
+     * released. On failure the buffer is released too.
+     *
+     * @param alloc the allocator of the channel.
+     * @param buf the buffer, owned by this method.
+     * @return the buffer holding the result.
+     * @throws IOException if the cipher fails.
+     */
+    ByteBuf update(ByteBufAllocator alloc, ByteBuf buf) throws IOException {
+        int length = buf.readableBytes();
+        if (length == 0) {
+            return buf;
+        }
+        long start = CryptoMetrics.start();
+        ByteBuf target = buf;
+        try {
+            if (!isExclusive(buf)) {
+                target = alloc.directBuffer(length);
+                target.writeBytes(buf);
+                buf.release();
+            }
+            // Two views of the same memory: CTR can update in place
+            ByteBuffer input = target.nioBuffer(target.readerIndex(), length);
+            ByteBuffer output = target.nioBuffer(target.readerIndex(), length);
+            cipher.update(input, output);
+        } catch (GeneralSecurityException e) {
+            target.release();
+            throw new IOException(e);
+        } catch (RuntimeException e) {
+            target.release();
+            throw e;
+        }
+        CryptoMetrics.record(metric, length, start);
+        return target;
+    }
+
+    /**
+     * Checks whether the buffer can be updated in place: it's direct,
+     * writable, backed by one memory region and not shared. A derived
+     * buffer, a composite one or one retained by another holder shares its
+     * memory, and updating it would corrupt the other holders.
+     */
+    private static boolean isExclusive(ByteBuf buf) {
+        return buf.isDirect() && !buf.isReadOnly()
+                && buf.nioBufferCount() == 1 && buf.refCnt() == 1
+                && buf.unwrap() == null && !(buf instanceof CompositeByteBuf);
+    }
+
+    /**
+     * Closes the cipher.
+     *
+     * @throws IOException if the cipher can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        cipher.close();
+    }
+}
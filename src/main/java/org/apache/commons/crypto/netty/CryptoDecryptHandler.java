@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.netty;
+
+import java.io.IOException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Properties;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * Decrypts the {@link ByteBuf}s read from a channel, encrypted by
+ * {@link CryptoEncryptHandler}. Since CTR is a stream mode, the frames may be
+ * split or merged on the way as long as the bytes arrive in order. Direct
+ * buffers held by no one else are decrypted in place; others are copied once
+ * into a pooled direct buffer. A handler holds the state of one stream and
+ * can't be shared between channels.
+ */
+public class CryptoDecryptHandler extends ChannelInboundHandlerAdapter {
+    private final ByteBufCipher cipher;
+
+    /**
+     * Constructs a {@link CryptoDecryptHandler}.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @param key crypto key for the cipher.
+     * @param params the algorithm parameters.
+     * @throws IOException if the cipher can't be created or initialized.
+     */
+    public CryptoDecryptHandler(Properties props, Key key,
+            AlgorithmParameterSpec params) throws IOException {
+        this(Utils.getCipherInstance(CipherTransformation.AES_CTR_NOPADDING,
+                props), key, params);
+    }
+
+    /**
+     * Constructs a {@link CryptoDecryptHandler}.
+     *
+     * @param cipher the AES/CTR/NoPadding cipher, closed with the handler.
+     * @param key crypto key for the cipher.
+     * @param params the algorithm parameters.
+     * @throws IOException if the cipher can't be initialized.
+     */
+    public CryptoDecryptHandler(CryptoCipher cipher, Key key,
+            AlgorithmParameterSpec params) throws IOException {
+        this.cipher = new ByteBufCipher(CryptoCipher.DECRYPT_MODE, cipher,
+                key, params);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg)
+            throws Exception {
+        if (msg instanceof ByteBuf) {
+            ctx.fireChannelRead(cipher.update(ctx.alloc(), (ByteBuf) msg));
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        cipher.close();
+    }
+}
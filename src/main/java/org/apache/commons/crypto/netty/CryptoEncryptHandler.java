@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.netty;
+
+import java.io.IOException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Properties;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * Encrypts the {@link ByteBuf}s written to a channel with AES/CTR, as one
+ * stream across all frames, for {@link CryptoDecryptHandler} on the other
+ * side. Direct buffers held by no one else are encrypted in place; others
+ * are copied once into a pooled direct buffer. Any other message, such as
+ * a <code>FileRegion</code>, fails its write instead of going out in plain
+ * text. A handler holds the state of one stream and can't be shared between
+ * channels.
+ */
+public class CryptoEncryptHandler extends ChannelOutboundHandlerAdapter {
+    private final ByteBufCipher cipher;
+
+    /**
+     * Constructs a {@link CryptoEncryptHandler}.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @param key crypto key for the cipher.
+     * @param params the algorithm parameters.
+     * @throws IOException if the cipher can't be created or initialized.
+     */
+    public CryptoEncryptHandler(Properties props, Key key,
+            AlgorithmParameterSpec params) throws IOException {
+        this(Utils.getCipherInstance(CipherTransformation.AES_CTR_NOPADDING,
+                props), key, params);
+    }
+
+    /**
+     * Constructs a {@link CryptoEncryptHandler}.
+     *
+     * @param cipher the AES/CTR/NoPadding cipher, closed with the handler.
+     * @param key crypto key for the cipher.
+     * @param params the algorithm parameters.
+     * @throws IOException if the cipher can't be initialized.
+     */
+    public CryptoEncryptHandler(CryptoCipher cipher, Key key,
+            AlgorithmParameterSpec params) throws IOException {
+        this.cipher = new ByteBufCipher(CryptoCipher.ENCRYPT_MODE, cipher,
+                key, params);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg,
+            ChannelPromise promise) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ReferenceCountUtil.release(msg);
+            promise.setFailure(new UnsupportedOperationException(
+                    "Only ByteBuf can be encrypted: "
+                            + msg.getClass().getName()));
+            return;
+        }
+        ByteBuf encrypted;
+        try {
+            encrypted = cipher.update(ctx.alloc(), (ByteBuf) msg);
+        } catch (IOException e) {
+            promise.setFailure(e);
+            return;
+        }
+        ctx.write(encrypted, promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        cipher.close();
+    }
+}
@@ -52,8 +52,8 @@ public class CryptoRandomFactory {
         String cryptoRandomClasses = props
                 .getProperty(COMMONS_CRYPTO_SECURE_RANDOM_CLASSES_KEY);
         if (cryptoRandomClasses == null) {
-            cryptoRandomClasses = System
-                    .getProperty(COMMONS_CRYPTO_SECURE_RANDOM_CLASSES_KEY);
+            cryptoRandomClasses = Utils.getSystemProperty(
+                    COMMONS_CRYPTO_SECURE_RANDOM_CLASSES_KEY, null);
         }
 
         CryptoRandom random = null;
@@ -25,6 +25,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.apache.commons.crypto.conf.ConfigurationKeys;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
 
 /**
  * A CryptoRandom of Java implementation.
@@ -69,6 +71,8 @@ public class JavaCryptoRandom implements CryptoRandom {
      */
     @Override
     public void nextBytes(byte[] bytes) {
+        long start = CryptoMetrics.start();
         instance.nextBytes(bytes);
+        CryptoMetrics.record(CryptoMetric.RANDOM_BYTES, bytes.length, start);
     }
 }
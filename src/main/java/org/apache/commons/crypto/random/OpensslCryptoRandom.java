@@ -24,6 +24,8 @@ import java.util.Random;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
 import org.apache.commons.crypto.utils.NativeCodeLoader;
 import org.apache.commons.crypto.utils.Utils;
 
@@ -51,19 +53,26 @@ public class OpensslCryptoRandom extends Random implements CryptoRandom {
 
     /** If native SecureRandom unavailable, use java SecureRandom */
     private final JavaCryptoRandom fallback;
-    private static final boolean nativeEnabled;
+    private final boolean nativeEnabled;
 
-    static {
-        boolean opensslLoaded = false;
+    /**
+     * Initializes the OpenSSL random at the first use, not when the class is
+     * loaded.
+     */
+    private static final class Holder {
+        static final boolean nativeEnabled = init();
+    }
+
+    private static boolean init() {
         if (NativeCodeLoader.isNativeCodeLoaded()) {
             try {
                 OpensslCryptoRandomNative.initSR();
-                opensslLoaded = true;
+                return true;
             } catch (Throwable t) {
                 LOG.error("Failed to load Openssl CryptoRandom", t);
             }
         }
-        nativeEnabled = opensslLoaded;
+        return false;
     }
 
     /**
@@ -72,7 +81,7 @@ public class OpensslCryptoRandom extends Random implements CryptoRandom {
      * @return true if loading library successfully.
      */
     public static boolean isNativeCodeLoaded() {
-        return nativeEnabled;
+        return Holder.nativeEnabled;
     }
 
     /**
@@ -84,6 +93,7 @@ public class OpensslCryptoRandom extends Random implements CryptoRandom {
      */
     public OpensslCryptoRandom(Properties props)
             throws NoSuchAlgorithmException {
+        nativeEnabled = Holder.nativeEnabled;
         if (!nativeEnabled) {
             fallback = new JavaCryptoRandom(props);
         } else {
@@ -98,9 +108,13 @@ public class OpensslCryptoRandom extends Random implements CryptoRandom {
      */
     @Override
     public void nextBytes(byte[] bytes) {
+        long start = CryptoMetrics.start();
         if (!nativeEnabled || !OpensslCryptoRandomNative.nextRandBytes(bytes)) {
+            // The fallback records its own metrics
             fallback.nextBytes(bytes);
+            return;
         }
+        CryptoMetrics.record(CryptoMetric.RANDOM_BYTES, bytes.length, start);
     }
 
     /**
@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.random;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * OpenSSL secure random calling <code>RAND_bytes</code> through the Foreign
+ * Function &amp; Memory API. The implementation requires Java 22 or later and
+ * is packaged under <code>META-INF/versions/22</code> of the multi-release
+ * jar; on older Java versions this class always uses
+ * {@link JavaCryptoRandom}.
+ */
+public class OpensslFfmCryptoRandom extends Random implements CryptoRandom {
+    private static final long serialVersionUID = 2521473528740862214L;
+
+    private final JavaCryptoRandom fallback;
+
+    /**
+     * Constructs a {@link OpensslFfmCryptoRandom}.
+     *
+     * @param props the configuration properties.
+     * @throws NoSuchAlgorithmException if no Provider supports a
+     *         SecureRandomSpi implementation for the specified algorithm.
+     */
+    public OpensslFfmCryptoRandom(Properties props)
+            throws NoSuchAlgorithmException {
+        fallback = new JavaCryptoRandom(props);
+    }
+
+    /**
+     * Generates a user-specified number of random bytes. It's thread-safe.
+     *
+     * @param bytes the array to be filled in with random bytes.
+     */
+    @Override
+    public void nextBytes(byte[] bytes) {
+        fallback.nextBytes(bytes);
+    }
+
+    /**
+     * Overrides {@link Random#setSeed(long)}. For
+     * {@link OpensslFfmCryptoRandom}, we don't need to set seed.
+     *
+     * @param seed the initial seed.
+     */
+    @Override
+    public void setSeed(long seed) {
+        // Self-seeding.
+    }
+
+    /**
+     * Overrides Random#next(). Generates an integer containing the
+     * user-specified number of random bits(right justified, with leading
+     * zeros).
+     *
+     * @param numBits number of random bits to be generated, where 0
+     *        {@literal <=} <code>numBits</code> {@literal <=} 32.
+     * @return int an <code>int</code> containing the user-specified number of
+     *         random bits (right justified, with leading zeros).
+     */
+    @Override
+    final protected int next(int numBits) {
+        Utils.checkArgument(numBits >= 0 && numBits <= 32);
+        int numBytes = (numBits + 7) / 8;
+        byte b[] = new byte[numBytes];
+        int next = 0;
+
+        nextBytes(b);
+        for (int i = 0; i < numBytes; i++) {
+            next = (next << 8) + (b[i] & 0xFF);
+        }
+
+        return next >>> (numBytes * 8 - numBits);
+    }
+
+    /**
+     * Overrides {@link java.lang.AutoCloseable#close()}. Closes the fallback
+     * random.
+     */
+    @Override
+    public void close() {
+        fallback.close();
+    }
+}
@@ -22,7 +22,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
 import org.apache.commons.crypto.utils.IOUtils;
 import org.apache.commons.crypto.utils.Utils;
 import org.apache.commons.logging.Log;
@@ -47,6 +50,13 @@ public class OsCryptoRandom extends Random implements CryptoRandom {
 
     private int pos = reservoir.length;
 
+    /**
+     * Guards the reservoir and the stream. A lock rather than a monitor, so a
+     * virtual thread blocked on it or on the read of the device doesn't pin
+     * its carrier thread.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
     private void fillReservoir(int min) {
         if (pos >= reservoir.length - min) {
             try {
@@ -90,16 +100,23 @@ public class OsCryptoRandom extends Random implements CryptoRandom {
      * @param bytes the array to be filled in with random bytes.
      */
     @Override
-    synchronized public void nextBytes(byte[] bytes) {
+    public void nextBytes(byte[] bytes) {
+        long start = CryptoMetrics.start();
         int off = 0;
         int n = 0;
-        while (off < bytes.length) {
-            fillReservoir(0);
-            n = Math.min(bytes.length - off, reservoir.length - pos);
-            System.arraycopy(reservoir, pos, bytes, off, n);
-            off += n;
-            pos += n;
+        lock.lock();
+        try {
+            while (off < bytes.length) {
+                fillReservoir(0);
+                n = Math.min(bytes.length - off, reservoir.length - pos);
+                System.arraycopy(reservoir, pos, bytes, off, n);
+                off += n;
+                pos += n;
+            }
+        } finally {
+            lock.unlock();
         }
+        CryptoMetrics.record(CryptoMetric.RANDOM_BYTES, bytes.length, start);
     }
 
     /**
@@ -111,11 +128,16 @@ public class OsCryptoRandom extends Random implements CryptoRandom {
      *         sequence.
      */
     @Override
-    synchronized protected int next(int nbits) {
-        fillReservoir(4);
+    protected int next(int nbits) {
         int n = 0;
-        for (int i = 0; i < 4; i++) {
-            n = ((n << 8) | (reservoir[pos++] & 0xff));
+        lock.lock();
+        try {
+            fillReservoir(4);
+            for (int i = 0; i < 4; i++) {
+                n = ((n << 8) | (reservoir[pos++] & 0xff));
+            }
+        } finally {
+            lock.unlock();
         }
         return n & (0xffffffff >> (32 - nbits));
     }
@@ -124,10 +146,15 @@ public class OsCryptoRandom extends Random implements CryptoRandom {
      * Overrides {@link java.lang.AutoCloseable#close()}. Closes the OS stream.
      */
     @Override
-    synchronized public void close() {
-        if (stream != null) {
-            IOUtils.cleanup(LOG, stream);
-            stream = null;
+    public void close() {
+        lock.lock();
+        try {
+            if (stream != null) {
+                IOUtils.cleanup(LOG, stream);
+                stream = null;
+            }
+        } finally {
+            lock.unlock();
         }
     }
 }
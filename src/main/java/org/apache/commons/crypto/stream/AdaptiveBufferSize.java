@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream;
+
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * Decides the buffer size of an adaptive stream from the sizes of the reads
+ * or writes of the caller. It keeps a moving average of the transfer lengths:
+ * the size doubles, up to the maximum size, when the average reaches three
+ * quarters of it and halves, down to {@link Utils#MIN_BUFFER_SIZE}, when the
+ * average drops to a quarter of it. A few transfers are observed between two
+ * changes, and sizes stay multiples of the block size.
+ */
+class AdaptiveBufferSize {
+
+    /** The number of transfers observed before the size changes. */
+    static final int SAMPLES = 8;
+
+    private final int blockSize;
+    private final int minSize;
+    private final int maxSize;
+    private int size;
+    private long average;
+    private int samples;
+
+    /**
+     * Constructs a {@link AdaptiveBufferSize}.
+     *
+     * @param size the initial buffer size, a multiple of the block size.
+     * @param maxSize the maximum buffer size.
+     * @param blockSize the block size of the cipher.
+     */
+    AdaptiveBufferSize(int size, int maxSize, int blockSize) {
+        this.blockSize = blockSize;
+        this.size = size;
+        this.minSize = Math.min(size, roundUp(Utils.MIN_BUFFER_SIZE));
+        this.maxSize = Math.max(size, maxSize - maxSize % blockSize);
+        this.average = size / 2;
+    }
+
+    /**
+     * Records the length of a read or write.
+     *
+     * @param len the number of bytes the caller transferred.
+     * @return the buffer size to use from now on.
+     */
+    int update(int len) {
+        average += (len - average) / 4;
+        if (++samples < SAMPLES) {
+            return size;
+        }
+        if (average >= size - size / 4 && size < maxSize) {
+            size = (int) Math.min((long) size * 2, maxSize);
+            samples = 0;
+        } else if (average <= size / 4 && size > minSize) {
+            size = Math.max(roundUp(size / 2), minSize);
+            samples = 0;
+        }
+        return size;
+    }
+
+    private int roundUp(int n) {
+        return (n + blockSize - 1) / blockSize * blockSize;
+    }
+}
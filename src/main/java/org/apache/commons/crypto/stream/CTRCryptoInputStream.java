@@ -32,9 +32,10 @@ import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.crypto.cipher.CryptoCipher;
 import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
 import org.apache.commons.crypto.stream.input.ChannelInput;
 import org.apache.commons.crypto.stream.input.Input;
-import org.apache.commons.crypto.stream.input.StreamInput;
 import org.apache.commons.crypto.utils.Utils;
 
 /**
@@ -79,6 +80,13 @@ public class CTRCryptoInputStream extends CryptoInputStream {
      */
     private boolean cipherReset = false;
 
+    /**
+     * The stream position the cipher has to be reset to before the next
+     * decryption, or -1 if the cipher is up to date. Skip and seek only record
+     * the position, so that they cost no cipher initialization and no reads.
+     */
+    private long pendingCipherReset = -1;
+
     /**
      * Constructs a {@link CTRCryptoInputStream}.
      *
@@ -170,6 +178,7 @@ public class CTRCryptoInputStream extends CryptoInputStream {
         this(in, Utils.getCipherInstance(
                 CipherTransformation.AES_CTR_NOPADDING, props), Utils
                 .getBufferSize(props), key, iv, streamOffset);
+        cipherCreated = true;
     }
 
     /**
@@ -188,6 +197,7 @@ public class CTRCryptoInputStream extends CryptoInputStream {
         this(in, Utils.getCipherInstance(
                 CipherTransformation.AES_CTR_NOPADDING, props), Utils
                 .getBufferSize(props), key, iv, streamOffset);
+        cipherCreated = true;
     }
 
     /**
@@ -204,7 +214,7 @@ public class CTRCryptoInputStream extends CryptoInputStream {
     public CTRCryptoInputStream(InputStream in, CryptoCipher cipher,
             int bufferSize, byte[] key, byte[] iv, long streamOffset)
             throws IOException {
-        this(new StreamInput(in, bufferSize), cipher, bufferSize, key, iv,
+        this(createInput(in, bufferSize), cipher, bufferSize, key, iv,
                 streamOffset);
     }
 
@@ -300,6 +310,14 @@ public class CTRCryptoInputStream extends CryptoInputStream {
     @Override
     public int read(ByteBuffer buf) throws IOException {
         checkStream();
+        return readBuffer(buf);
+    }
+
+    /**
+     * Reads into the buffer, decrypting straight into it when possible.
+     */
+    private int readBuffer(ByteBuffer buf) throws IOException {
+        adaptBufferSize(buf.remaining());
         int unread = outBuffer.remaining();
         if (unread <= 0) { // Fill the unread decrypted data buffer firstly
             final int n = input.read(inBuffer);
@@ -308,9 +326,11 @@ public class CTRCryptoInputStream extends CryptoInputStream {
             }
 
             streamOffset += n; // Read n bytes
-            if (buf.isDirect() && buf.remaining() >= inBuffer.position()
+            if (buf.isDirect() == inBuffer.isDirect() && !buf.isReadOnly()
+                    && buf.remaining() >= inBuffer.position()
                     && padding == 0) {
-                // Use buf as the output buffer directly
+                // Use buf as the output buffer directly. Ciphers such as
+                // OpenSSL cannot mix a heap buffer with a direct one.
                 decryptInPlace(buf);
                 padding = postDecryption(streamOffset);
                 return n;
@@ -445,7 +465,7 @@ public class CTRCryptoInputStream extends CryptoInputStream {
      */
     protected void decryptInPlace(ByteBuffer buf) throws IOException {
         Utils.checkState(inBuffer.position() >= padding);
-        Utils.checkState(buf.isDirect());
+        Utils.checkState(buf.isDirect() == inBuffer.isDirect());
         Utils.checkState(buf.remaining() >= inBuffer.position());
         Utils.checkState(padding == 0);
 
@@ -555,6 +575,28 @@ public class CTRCryptoInputStream extends CryptoInputStream {
         // Will reset the cipher when reset the stream offset
     }
 
+    /**
+     * Overrides the {@link CryptoInputStream#isReleasable()}. The counter is
+     * computed from the stream offset, so the cipher can be given back.
+     *
+     * @return true.
+     */
+    @Override
+    protected boolean isReleasable() {
+        return true;
+    }
+
+    /**
+     * Overrides the {@link CryptoInputStream#restoreCipher()}. Resets the
+     * buffers and the cipher for the stream offset, the cipher lazily.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    protected void restoreCipher() throws IOException {
+        resetStreamOffset(streamOffset);
+    }
+
     /**
      * Calculates the counter and iv, resets the cipher.
      *
@@ -572,11 +614,13 @@ public class CTRCryptoInputStream extends CryptoInputStream {
             throw new IOException(e);
         }
         cipherReset = false;
+        pendingCipherReset = -1;
     }
 
     /**
      * Resets the underlying stream offset; clear {@link #inBuffer} and
      * {@link #outBuffer}. This Typically happens during {@link #skip(long)}.
+     * The cipher itself is reset lazily before the next decryption.
      *
      * @param offset the offset of the stream.
      * @throws IOException if an I/O error occurs.
@@ -586,7 +630,7 @@ public class CTRCryptoInputStream extends CryptoInputStream {
         inBuffer.clear();
         outBuffer.clear();
         outBuffer.limit(0);
-        resetCipher(offset);
+        pendingCipherReset = offset;
         padding = getPadding(offset);
         inBuffer.position(padding); // Set proper position for input data.
     }
@@ -598,6 +642,10 @@ public class CTRCryptoInputStream extends CryptoInputStream {
      * @throws IOException if an I/O error occurs.
      */
     protected void decryptBuffer(ByteBuffer out) throws IOException {
+        if (pendingCipherReset >= 0) {
+            resetCipher(pendingCipherReset);
+        }
+        long start = CryptoMetrics.start();
         int inputSize = inBuffer.remaining();
         try {
             int n = cipher.update(inBuffer, out);
@@ -617,5 +665,6 @@ public class CTRCryptoInputStream extends CryptoInputStream {
         } catch (BadPaddingException e) {
             throw new IOException(e);
         }
+        CryptoMetrics.record(CryptoMetric.STREAM_DECRYPT, inputSize, start);
     }
 }
@@ -32,10 +32,12 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.CryptoCipherUtils;
 import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
 import org.apache.commons.crypto.stream.output.ChannelOutput;
 import org.apache.commons.crypto.stream.output.Output;
-import org.apache.commons.crypto.stream.output.StreamOutput;
 import org.apache.commons.crypto.utils.Utils;
 
 /**
@@ -171,6 +173,7 @@ public class CTRCryptoOutputStream extends CryptoOutputStream {
         this(out, Utils.getCipherInstance(
                 CipherTransformation.AES_CTR_NOPADDING, props), Utils
                 .getBufferSize(props), key, iv, streamOffset);
+        cipherCreated = true;
     }
 
     /**
@@ -189,6 +192,7 @@ public class CTRCryptoOutputStream extends CryptoOutputStream {
         this(out, Utils.getCipherInstance(
                 CipherTransformation.AES_CTR_NOPADDING, props), Utils
                 .getBufferSize(props), key, iv, streamOffset);
+        cipherCreated = true;
     }
 
     /**
@@ -205,7 +209,7 @@ public class CTRCryptoOutputStream extends CryptoOutputStream {
     public CTRCryptoOutputStream(OutputStream out, CryptoCipher cipher,
             int bufferSize, byte[] key, byte[] iv, long streamOffset)
             throws IOException {
-        this(new StreamOutput(out, bufferSize), cipher, bufferSize, key, iv,
+        this(createOutput(out, bufferSize), cipher, bufferSize, key, iv,
                 streamOffset);
     }
 
@@ -253,8 +257,96 @@ public class CTRCryptoOutputStream extends CryptoOutputStream {
     }
 
     /**
-     * Does the encryption, input is {@link #inBuffer} and output is
-     * {@link #outBuffer}.
+     * Overrides the {@link CryptoOutputStream#write(byte[], int, int)}. Like
+     * <code>BufferedOutputStream</code>, a write of at least the buffer size
+     * isn't copied into {@link #inBuffer} and encrypted there: it's encrypted
+     * straight from the array into the array of {@link #inBuffer}. This needs
+     * a heap {@link #inBuffer}; direct buffers are fed to a native cipher, so
+     * the data is still copied into them.
+     *
+     * @param b the data.
+     * @param off the start offset in the data.
+     * @param len the number of bytes to write.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkStream();
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || off > b.length || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (len < getBufferSize() || !inBuffer.hasArray()) {
+            super.write(b, off, len);
+            return;
+        }
+
+        adaptBufferSize(len);
+        // Encrypt the buffered data first, the counter follows the stream
+        encrypt();
+        while (len >= getBufferSize() && padding == 0) {
+            final int n = Math.min(len, inBuffer.capacity());
+            encryptArray(b, off, n);
+            off += n;
+            len -= n;
+        }
+        if (len > 0) {
+            super.write(b, off, len);
+        }
+    }
+
+    /**
+     * Encrypts len bytes of b into the empty {@link #inBuffer} in a single
+     * update and writes them to the output.
+     */
+    private void encryptArray(byte[] b, int off, int len) throws IOException {
+        long start = CryptoMetrics.start();
+        inBuffer.clear();
+        final byte[] out = inBuffer.array();
+        final int outOffset = inBuffer.arrayOffset();
+        try {
+            int n = cipher.update(b, off, len, out, outOffset);
+            if (n < len) {
+                // As in encryptBuffer, doFinal resets the cipher context
+                n += cipher.doFinal(b, off + len, 0, out, outOffset + n);
+                cipherReset = true;
+            }
+            inBuffer.limit(n);
+        } catch (ShortBufferException e) {
+            throw new IOException(e);
+        } catch (BadPaddingException e) {
+            throw new IOException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new IOException(e);
+        }
+
+        final int written = output.write(inBuffer);
+        inBuffer.clear();
+        streamOffset += written;
+        CryptoMetrics.record(CryptoMetric.STREAM_ENCRYPT, written, start);
+        if (cipherReset) {
+            resetCipher();
+        }
+    }
+
+    /**
+     * Overrides the {@link CryptoOutputStream#isEncryptedInPlace()}. The
+     * cipher text of CTR has the length of the plain text, so it replaces it
+     * in {@link #inBuffer} if the cipher can update a buffer in place.
+     *
+     * @return true if
+     *         {@link CryptoCipherUtils#isUpdateInPlaceSupported(CryptoCipher)}.
+     */
+    @Override
+    protected boolean isEncryptedInPlace() {
+        return CryptoCipherUtils.isUpdateInPlaceSupported(cipher);
+    }
+
+    /**
+     * Does the encryption of {@link #inBuffer}, in place or into
+     * {@link #outBuffer} if the stream has one.
      *
      * @throws IOException if an I/O error occurs.
      */
@@ -266,23 +358,30 @@ public class CTRCryptoOutputStream extends CryptoOutputStream {
             return;
         }
 
+        long start = CryptoMetrics.start();
         inBuffer.flip();
-        outBuffer.clear();
-        encryptBuffer(outBuffer);
-        inBuffer.clear();
-        outBuffer.flip();
-
-        if (padding > 0) {
-            /*
-             * The plain text and cipher text have a 1:1 mapping, they start at
-             * the same position.
-             */
-            outBuffer.position(padding);
-            padding = 0;
+        final ByteBuffer out;
+        if (outBuffer == null) {
+            out = inBuffer;
+            encryptBuffer(out);
+        } else {
+            out = outBuffer;
+            out.clear();
+            encryptBuffer(out);
+            out.flip();
         }
 
-        final int len = output.write(outBuffer);
+        /*
+         * The plain text and cipher text have a 1:1 mapping, they start at
+         * the same position.
+         */
+        out.position(padding);
+        padding = 0;
+
+        final int len = output.write(out);
+        inBuffer.clear();
         streamOffset += len;
+        CryptoMetrics.record(CryptoMetric.STREAM_ENCRYPT, len, start);
         if (cipherReset) {
             /*
              * This code is generally not executed since the encryptor usually
@@ -315,6 +414,28 @@ public class CTRCryptoOutputStream extends CryptoOutputStream {
         // Will reset the cipher considering the stream offset
     }
 
+    /**
+     * Overrides the {@link CryptoOutputStream#isReleasable()}. The counter is
+     * computed from the stream offset, so the cipher can be given back.
+     *
+     * @return true.
+     */
+    @Override
+    protected boolean isReleasable() {
+        return true;
+    }
+
+    /**
+     * Overrides the {@link CryptoOutputStream#restoreCipher()}. Resets the
+     * cipher for the stream offset.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    protected void restoreCipher() throws IOException {
+        resetCipher();
+    }
+
     /**
      * Resets the {@link #cipher}: calculate counter and {@link #padding}.
      *
@@ -339,22 +460,26 @@ public class CTRCryptoOutputStream extends CryptoOutputStream {
     }
 
     /**
-     * Does the encryption if the ByteBuffer data.
+     * Does the encryption of the {@link #inBuffer} data, in place if out is
+     * {@link #inBuffer}.
      *
-     * @param out the output ByteBuffer.
+     * @param out the output buffer.
      * @throws IOException if an I/O error occurs.
      */
     private void encryptBuffer(ByteBuffer out) throws IOException {
         int inputSize = inBuffer.remaining();
         try {
-            int n = cipher.update(inBuffer, out);
+            int n = out == inBuffer ? CryptoCipherUtils.updateInPlace(cipher,
+                    inBuffer) : cipher.update(inBuffer, out);
             if (n < inputSize) {
                 /**
                  * Typically code will not get here. CryptoCipher#update will
-                 * consume all input data and put result in outBuffer.
+                 * consume all input data and put result in out.
                  * CryptoCipher#doFinal will reset the cipher context.
                  */
-                cipher.doFinal(inBuffer, out);
+                ByteBuffer consumed = inBuffer.duplicate();
+                consumed.position(consumed.limit());
+                cipher.doFinal(consumed, out);
                 cipherReset = true;
             }
         } catch (ShortBufferException e) {
@@ -17,10 +17,12 @@
  */
 package org.apache.commons.crypto.stream;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -33,10 +35,15 @@ import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 
 import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.CryptoCipherUtils;
 import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
 import org.apache.commons.crypto.stream.input.ChannelInput;
 import org.apache.commons.crypto.stream.input.Input;
 import org.apache.commons.crypto.stream.input.StreamInput;
+import org.apache.commons.crypto.utils.BufferPool;
+import org.apache.commons.crypto.utils.CipherPool;
 import org.apache.commons.crypto.utils.Utils;
 
 /**
@@ -50,11 +57,33 @@ public class CryptoInputStream extends InputStream implements
         ReadableByteChannel {
     private final byte[] oneByteBuf = new byte[1];
 
-    /** The CryptoCipher instance. */
-    final CryptoCipher cipher;
+    /**
+     * The CryptoCipher instance. If the stream created it, it's in the
+     * shared pool while the stream's resources are released and must not be
+     * used.
+     */
+    CryptoCipher cipher;
+
+    /**
+     * Whether the stream created the cipher through the factory. Only such a
+     * cipher is given back to the shared pool; a cipher of the caller is kept.
+     */
+    boolean cipherCreated;
 
     /** The buffer size. */
-    final int bufferSize;
+    int bufferSize;
+
+    /** Decides the buffer size if the stream adapts it, null otherwise. */
+    private final AdaptiveBufferSize adaptiveSize;
+
+    /** Whether the buffers are direct. */
+    private final boolean direct;
+
+    /** Whether the buffers came from the shared pool after a release. */
+    private boolean pooled;
+
+    /** Flag to mark whether the buffers and the cipher are released. */
+    private boolean released;
 
     /** Crypto key for the cipher. */
     final Key key;
@@ -101,6 +130,7 @@ public class CryptoInputStream extends InputStream implements
             AlgorithmParameterSpec params) throws IOException {
         this(in, Utils.getCipherInstance(transformation, props), Utils
                 .getBufferSize(props), key, params);
+        cipherCreated = true;
     }
 
     /**
@@ -119,6 +149,7 @@ public class CryptoInputStream extends InputStream implements
             AlgorithmParameterSpec params) throws IOException {
         this(in, Utils.getCipherInstance(transformation, props), Utils
                 .getBufferSize(props), key, params);
+        cipherCreated = true;
     }
 
     /**
@@ -134,7 +165,7 @@ public class CryptoInputStream extends InputStream implements
     public CryptoInputStream(InputStream in, CryptoCipher cipher,
             int bufferSize, Key key, AlgorithmParameterSpec params)
             throws IOException {
-        this(new StreamInput(in, bufferSize), cipher, bufferSize, key, params);
+        this(createInput(in, bufferSize), cipher, bufferSize, key, params);
     }
 
     /**
@@ -177,14 +208,57 @@ public class CryptoInputStream extends InputStream implements
             throw new IOException("Illegal parameters");
         }
 
-        inBuffer = ByteBuffer.allocateDirect(this.bufferSize);
-        outBuffer = ByteBuffer.allocateDirect(this.bufferSize
-                + cipher.getTransformation().getAlgorithmBlockSize());
+        /*
+         * Direct buffers only if the cipher prefers them. A stream input reads
+         * through a byte array, so it gets heap buffers in any case and reads
+         * into the buffer's own array instead of copying. The buffers may
+         * thus differ in type from the ones given to read(ByteBuffer), and
+         * a cipher call must never mix the two types.
+         */
+        direct = CryptoCipherUtils.isDirectBufferPreferred(cipher)
+                && !(input instanceof StreamInput);
+        final int blockSize = cipher.getTransformation()
+                .getAlgorithmBlockSize();
+        final Properties props = cipher.getProperties();
+        if (props != null && Utils.isBufferAdaptive(props)) {
+            // Buffers of an adaptive stream come from the shared pool
+            adaptiveSize = new AdaptiveBufferSize(this.bufferSize,
+                    Utils.getMaxBufferSize(props), blockSize);
+            inBuffer = BufferPool.acquire(this.bufferSize, direct);
+            outBuffer = BufferPool.acquire(this.bufferSize + blockSize, direct);
+        } else {
+            adaptiveSize = null;
+            inBuffer = Utils.allocateBuffer(this.bufferSize, direct);
+            outBuffer = Utils.allocateBuffer(this.bufferSize + blockSize,
+                    direct);
+        }
         outBuffer.limit(0);
 
         initCipher();
     }
 
+    /**
+     * Wraps the input stream as {@link Input}. A <code>FileInputStream</code>
+     * on a seekable file is read through its channel, straight into the
+     * stream's buffers; other streams are wrapped by {@link StreamInput}.
+     *
+     * @param in the input stream.
+     * @param bufferSize the bufferSize.
+     * @return the input reading from the stream.
+     */
+    static Input createInput(InputStream in, int bufferSize) {
+        if (in != null && in.getClass() == FileInputStream.class) {
+            FileChannel channel = ((FileInputStream) in).getChannel();
+            try {
+                channel.position();
+                return new ChannelInput(channel);
+            } catch (IOException e) {
+                // Not seekable, e.g. a pipe, keep reading it as a stream
+            }
+        }
+        return new StreamInput(in, bufferSize);
+    }
+
     /**
      * Overrides the {@link java.io.InputStream#read()}. Reads the next byte of
      * data from the input stream.
@@ -225,22 +299,20 @@ public class CryptoInputStream extends InputStream implements
             return 0;
         }
 
+        adaptBufferSize(len);
         int remaining = outBuffer.remaining();
-        if (remaining > 0) {
-            // Satisfy the read with the existing data
-            int n = Math.min(len, remaining);
-            outBuffer.get(b, off, n);
-            return n;
-        } else {
+        if (remaining <= 0) {
             // No data in the out buffer, try read new data and decrypt it
             int nd = decryptMore();
-            if (nd <= 0)
+            if (nd <= 0) {
                 return nd;
-
-            int n = Math.min(len, outBuffer.remaining());
-            outBuffer.get(b, off, n);
-            return n;
+            }
         }
+
+        // Satisfy the read with the decrypted data
+        int n = Math.min(len, outBuffer.remaining());
+        outBuffer.get(b, off, n);
+        return n;
     }
 
     /**
@@ -316,8 +388,12 @@ public class CryptoInputStream extends InputStream implements
         }
 
         input.close();
-        freeBuffers();
-        cipher.close();
+        if (!released) {
+            freeBuffers();
+        }
+        if (!released || !cipherCreated) {
+            cipher.close();
+        }
         super.close();
         closed = true;
     }
@@ -378,6 +454,7 @@ public class CryptoInputStream extends InputStream implements
     @Override
     public int read(ByteBuffer dst) throws IOException {
         checkStream();
+        adaptBufferSize(dst.remaining());
         int remaining = outBuffer.remaining();
         if (remaining <= 0) {
             // Decrypt more data
@@ -395,11 +472,11 @@ public class CryptoInputStream extends InputStream implements
             outBuffer.limit(outBuffer.position() + toRead);
             dst.put(outBuffer);
             outBuffer.limit(limit);
-            return toRead;
+            remaining = toRead;
         } else {
             dst.put(outBuffer);
-            return remaining;
         }
+        return remaining;
     }
 
     /**
@@ -411,6 +488,94 @@ public class CryptoInputStream extends InputStream implements
         return bufferSize;
     }
 
+    /**
+     * Returns whether the buffer size may change while streaming, when the
+     * stream is configured to adapt it. Streams whose buffer size is part of
+     * the data format return false.
+     *
+     * @return true if the buffers may be resized.
+     */
+    protected boolean isBufferResizable() {
+        return true;
+    }
+
+    /**
+     * Returns whether the stream can give its buffers and cipher back to the
+     * shared pools while idle, which needs the cipher state to be recomputed
+     * from the stream position. It's called by the constructor, so it must not
+     * depend on the state of the subclass.
+     *
+     * @return true if the stream can release its resources.
+     */
+    protected boolean isReleasable() {
+        return false;
+    }
+
+    /**
+     * Gives the buffers and the cipher of an idle stream back to the shared
+     * pools. They're taken back, and the cipher initialized for the stream
+     * position, when the stream is used again. A cipher given by the caller
+     * isn't pooled, the stream keeps it. Nothing is released while
+     * decrypted data is left to read, or if the stream isn't releasable. A
+     * stream never releases itself; a caller that knows it will stay idle for
+     * a while, such as a connection pool, calls this from the thread using
+     * the stream.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void release() throws IOException {
+        if (closed || released || !isReleasable() || outBuffer.hasRemaining()) {
+            return;
+        }
+        BufferPool.release(inBuffer);
+        BufferPool.release(outBuffer);
+        inBuffer = null;
+        outBuffer = null;
+        if (cipherCreated) {
+            CipherPool.release(cipher);
+        }
+        released = true;
+    }
+
+    /**
+     * Initializes the cipher taken back after {@link #release()}.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void restoreCipher() throws IOException {
+        initCipher();
+    }
+
+    /**
+     * Records the length of a read and resizes the buffers if the stream
+     * adapts its buffer size. The buffers are only resized once
+     * {@link #outBuffer} holds no more decrypted data; undecrypted data in
+     * {@link #inBuffer}, such as the padding of CTR streams, is kept.
+     *
+     * @param len the number of bytes the caller reads.
+     */
+    protected void adaptBufferSize(int len) {
+        if (adaptiveSize == null || !isBufferResizable()) {
+            return;
+        }
+        final int size = adaptiveSize.update(len);
+        if (size == bufferSize || outBuffer.hasRemaining()) {
+            return;
+        }
+        final boolean direct = inBuffer.isDirect();
+        ByteBuffer newInBuffer = BufferPool.acquire(size, direct);
+        inBuffer.flip();
+        newInBuffer.put(inBuffer);
+        ByteBuffer newOutBuffer = BufferPool.acquire(size
+                + cipher.getTransformation().getAlgorithmBlockSize(), direct);
+        newOutBuffer.limit(0);
+        BufferPool.release(inBuffer);
+        BufferPool.release(outBuffer);
+        inBuffer = newInBuffer;
+        outBuffer = newOutBuffer;
+        bufferSize = size;
+    }
+
     /**
      * Gets the key.
      *
@@ -505,6 +670,7 @@ public class CryptoInputStream extends InputStream implements
      * @throws IOException if an I/O error occurs.
      */
     protected void decrypt() throws IOException {
+        long start = CryptoMetrics.start();
         // Prepare the input buffer and clear the out buffer
         inBuffer.flip();
         outBuffer.clear();
@@ -518,6 +684,8 @@ public class CryptoInputStream extends InputStream implements
         // Clear the input buffer and prepare out buffer
         inBuffer.clear();
         outBuffer.flip();
+        CryptoMetrics.record(CryptoMetric.STREAM_DECRYPT,
+                outBuffer.remaining(), start);
     }
 
     /**
@@ -526,6 +694,7 @@ public class CryptoInputStream extends InputStream implements
      * @throws IOException if an I/O error occurs.
      */
     protected void decryptFinal() throws IOException {
+        long start = CryptoMetrics.start();
         // Prepare the input buffer and clear the out buffer
         inBuffer.flip();
         outBuffer.clear();
@@ -544,10 +713,13 @@ public class CryptoInputStream extends InputStream implements
         // Clear the input buffer and prepare out buffer
         inBuffer.clear();
         outBuffer.flip();
+        CryptoMetrics.record(CryptoMetric.STREAM_DECRYPT,
+                outBuffer.remaining(), start);
     }
 
     /**
-     * Checks whether the stream is closed.
+     * Checks whether the stream is closed, and takes back the resources
+     * released while it was idle.
      *
      * @throws IOException if an I/O error occurs.
      */
@@ -555,11 +727,32 @@ public class CryptoInputStream extends InputStream implements
         if (closed) {
             throw new IOException("Stream closed");
         }
+        if (released) {
+            released = false;
+            pooled = true;
+            if (cipherCreated) {
+                cipher = CipherPool.acquire(cipher);
+            }
+            inBuffer = BufferPool.acquire(bufferSize, direct);
+            outBuffer = BufferPool.acquire(bufferSize
+                    + cipher.getTransformation().getAlgorithmBlockSize(),
+                    direct);
+            outBuffer.limit(0);
+            restoreCipher();
+        }
     }
 
-    /** Forcibly free the direct buffers. */
+    /**
+     * Forcibly free the direct buffers, or return them to the shared pool if
+     * the stream adapts or releases them.
+     */
     protected void freeBuffers() {
-        Utils.freeDirectBuffer(inBuffer);
-        Utils.freeDirectBuffer(outBuffer);
+        if (adaptiveSize != null || pooled) {
+            BufferPool.release(inBuffer);
+            BufferPool.release(outBuffer);
+        } else {
+            Utils.freeDirectBuffer(inBuffer);
+            Utils.freeDirectBuffer(outBuffer);
+        }
     }
 }
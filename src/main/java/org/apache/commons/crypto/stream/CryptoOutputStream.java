@@ -18,6 +18,7 @@
 
 package org.apache.commons.crypto.stream;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
@@ -35,10 +36,15 @@ import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 
 import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.CryptoCipherUtils;
 import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
 import org.apache.commons.crypto.stream.output.ChannelOutput;
 import org.apache.commons.crypto.stream.output.Output;
 import org.apache.commons.crypto.stream.output.StreamOutput;
+import org.apache.commons.crypto.utils.BufferPool;
+import org.apache.commons.crypto.utils.CipherPool;
 import org.apache.commons.crypto.utils.Utils;
 
 /**
@@ -54,11 +60,33 @@ public class CryptoOutputStream extends OutputStream implements
     /** The output. */
     Output output;
 
-    /** the CryptoCipher instance */
-    final CryptoCipher cipher;
+    /**
+     * the CryptoCipher instance. If the stream created it, it's in the
+     * shared pool while the stream's resources are released and must not be
+     * used.
+     */
+    CryptoCipher cipher;
+
+    /**
+     * Whether the stream created the cipher through the factory. Only such a
+     * cipher is given back to the shared pool; a cipher of the caller is kept.
+     */
+    boolean cipherCreated;
 
     /** The buffer size. */
-    final int bufferSize;
+    int bufferSize;
+
+    /** Decides the buffer size if the stream adapts it, null otherwise. */
+    private final AdaptiveBufferSize adaptiveSize;
+
+    /** Whether the buffers are direct. */
+    private final boolean direct;
+
+    /** Whether the buffers came from the shared pool after a release. */
+    private boolean pooled;
+
+    /** Flag to mark whether the buffers and the cipher are released. */
+    private boolean released;
 
     /** Crypto key for the cipher. */
     final Key key;
@@ -77,7 +105,7 @@ public class CryptoOutputStream extends OutputStream implements
 
     /**
      * Encrypted data buffer. The data starts at outBuffer.position() and ends
-     * at outBuffer.limit().
+     * at outBuffer.limit(). It's null if the stream encrypts in place.
      */
     ByteBuffer outBuffer;
 
@@ -98,7 +126,7 @@ public class CryptoOutputStream extends OutputStream implements
             AlgorithmParameterSpec params) throws IOException {
         this(out, Utils.getCipherInstance(transformation, props), Utils
                 .getBufferSize(props), key, params);
-
+        cipherCreated = true;
     }
 
     /**
@@ -117,7 +145,7 @@ public class CryptoOutputStream extends OutputStream implements
             AlgorithmParameterSpec params) throws IOException {
         this(out, Utils.getCipherInstance(transformation, props), Utils
                 .getBufferSize(props), key, params);
-
+        cipherCreated = true;
     }
 
     /**
@@ -133,7 +161,7 @@ public class CryptoOutputStream extends OutputStream implements
     public CryptoOutputStream(OutputStream out, CryptoCipher cipher,
             int bufferSize, Key key, AlgorithmParameterSpec params)
             throws IOException {
-        this(new StreamOutput(out, bufferSize), cipher, bufferSize, key, params);
+        this(createOutput(out, bufferSize), cipher, bufferSize, key, params);
     }
 
     /**
@@ -179,13 +207,54 @@ public class CryptoOutputStream extends OutputStream implements
             throw new IOException("Illegal parameters");
         }
 
-        inBuffer = ByteBuffer.allocateDirect(this.bufferSize);
-        outBuffer = ByteBuffer.allocateDirect(this.bufferSize
-                + cipher.getTransformation().getAlgorithmBlockSize());
+        /*
+         * Direct buffers only if the cipher prefers them. A stream output
+         * writes through a byte array, so it gets heap buffers in any case and
+         * writes from the buffer's own array instead of copying.
+         */
+        direct = CryptoCipherUtils.isDirectBufferPreferred(cipher)
+                && !(output instanceof StreamOutput);
+        final int blockSize = cipher.getTransformation()
+                .getAlgorithmBlockSize();
+        final Properties props = cipher.getProperties();
+        if (props != null && Utils.isBufferAdaptive(props)) {
+            // Buffers of an adaptive stream come from the shared pool
+            adaptiveSize = new AdaptiveBufferSize(this.bufferSize,
+                    Utils.getMaxBufferSize(props), blockSize);
+            inBuffer = BufferPool.acquire(this.bufferSize, direct);
+            if (!isEncryptedInPlace()) {
+                outBuffer = BufferPool.acquire(this.bufferSize + blockSize,
+                        direct);
+            }
+        } else {
+            adaptiveSize = null;
+            inBuffer = Utils.allocateBuffer(this.bufferSize, direct);
+            if (!isEncryptedInPlace()) {
+                outBuffer = Utils.allocateBuffer(this.bufferSize + blockSize,
+                        direct);
+            }
+        }
 
         initCipher();
     }
 
+    /**
+     * Wraps the output stream as {@link Output}. A
+     * <code>FileOutputStream</code> is written through its channel, straight
+     * from the stream's buffers; other streams are wrapped by
+     * {@link StreamOutput}.
+     *
+     * @param out the output stream.
+     * @param bufferSize the bufferSize.
+     * @return the output writing to the stream.
+     */
+    static Output createOutput(OutputStream out, int bufferSize) {
+        if (out != null && out.getClass() == FileOutputStream.class) {
+            return new ChannelOutput(((FileOutputStream) out).getChannel());
+        }
+        return new StreamOutput(out, bufferSize);
+    }
+
     /**
      * Overrides the {@link java.io.OutputStream#write(byte[])}. Writes the
      * specified byte to this output stream.
@@ -219,6 +288,7 @@ public class CryptoOutputStream extends OutputStream implements
             throw new IndexOutOfBoundsException();
         }
 
+        adaptBufferSize(len);
         while (len > 0) {
             final int remaining = inBuffer.remaining();
             if (len < remaining) {
@@ -261,10 +331,16 @@ public class CryptoOutputStream extends OutputStream implements
         }
 
         try {
-            encryptFinal();
+            if (!released) {
+                encryptFinal();
+            }
             output.close();
-            freeBuffers();
-            cipher.close();
+            if (!released) {
+                freeBuffers();
+            }
+            if (!released || !cipherCreated) {
+                cipher.close();
+            }
             super.close();
         } finally {
             closed = true;
@@ -295,6 +371,7 @@ public class CryptoOutputStream extends OutputStream implements
     public int write(ByteBuffer src) throws IOException {
         checkStream();
         final int len = src.remaining();
+        adaptBufferSize(len);
         int remaining = len;
         while (remaining > 0) {
             final int space = inBuffer.remaining();
@@ -342,7 +419,7 @@ public class CryptoOutputStream extends OutputStream implements
      * @throws IOException if an I/O error occurs.
      */
     protected void encrypt() throws IOException {
-
+        long start = CryptoMetrics.start();
         inBuffer.flip();
         outBuffer.clear();
 
@@ -356,7 +433,8 @@ public class CryptoOutputStream extends OutputStream implements
         outBuffer.flip();
 
         // write to output
-        output.write(outBuffer);
+        int n = output.write(outBuffer);
+        CryptoMetrics.record(CryptoMetric.STREAM_ENCRYPT, n, start);
     }
 
     /**
@@ -365,6 +443,7 @@ public class CryptoOutputStream extends OutputStream implements
      * @throws IOException if an I/O error occurs.
      */
     protected void encryptFinal() throws IOException {
+        long start = CryptoMetrics.start();
         inBuffer.flip();
         outBuffer.clear();
 
@@ -382,25 +461,160 @@ public class CryptoOutputStream extends OutputStream implements
         outBuffer.flip();
 
         // write to output
-        output.write(outBuffer);
+        int n = output.write(outBuffer);
+        CryptoMetrics.record(CryptoMetric.STREAM_ENCRYPT, n, start);
+    }
+
+    /**
+     * Returns whether the buffer size may change while streaming, when the
+     * stream is configured to adapt it. Streams whose buffer size is part of
+     * the data format return false.
+     *
+     * @return true if the buffers may be resized.
+     */
+    protected boolean isBufferResizable() {
+        return true;
+    }
+
+    /**
+     * Returns whether the stream encrypts {@link #inBuffer} in place, in which
+     * case no {@link #outBuffer} is allocated. It's called by the constructor
+     * once {@link #cipher} is set, so it must not depend on the state of the
+     * subclass.
+     *
+     * @return true if the stream has no outBuffer.
+     */
+    protected boolean isEncryptedInPlace() {
+        return false;
+    }
+
+    /**
+     * Returns whether the stream can give its buffers and cipher back to the
+     * shared pools while idle, which needs the cipher state to be recomputed
+     * from the stream position. It's called by the constructor, so it must not
+     * depend on the state of the subclass.
+     *
+     * @return true if the stream can release its resources.
+     */
+    protected boolean isReleasable() {
+        return false;
     }
 
+    /**
+     * Flushes an idle stream and gives its buffers and cipher back to the
+     * shared pools. They're taken back, and the cipher initialized for the
+     * stream position, when the stream is used again. A cipher given by the
+     * caller isn't pooled, the stream keeps it. Nothing is released if the
+     * stream isn't releasable. A stream never releases itself; a caller
+     * that knows it will stay idle for a while, such as a connection pool,
+     * calls this from the thread using the stream.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void release() throws IOException {
+        if (closed || released || !isReleasable()) {
+            return;
+        }
+        flush();
+        BufferPool.release(inBuffer);
+        BufferPool.release(outBuffer);
+        inBuffer = null;
+        outBuffer = null;
+        if (cipherCreated) {
+            CipherPool.release(cipher);
+        }
+        released = true;
+    }
+
+    /**
+     * Initializes the cipher taken back after {@link #release()}.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void restoreCipher() throws IOException {
+        initCipher();
+    }
+
+    /**
+     * Records the length of a write and resizes the buffers if the stream
+     * adapts its buffer size. Data in {@link #inBuffer} is kept; if it doesn't
+     * fit the smaller buffer, it's encrypted first, like on flush.
+     *
+     * @param len the number of bytes the caller writes.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void adaptBufferSize(int len) throws IOException {
+        if (adaptiveSize == null || !isBufferResizable()) {
+            return;
+        }
+        final int size = adaptiveSize.update(len);
+        if (size == bufferSize) {
+            return;
+        }
+        if (inBuffer.position() > size) {
+            encrypt();
+        }
+        final boolean direct = inBuffer.isDirect();
+        ByteBuffer newInBuffer = BufferPool.acquire(size, direct);
+        inBuffer.flip();
+        newInBuffer.put(inBuffer);
+        BufferPool.release(inBuffer);
+        inBuffer = newInBuffer;
+        if (outBuffer != null) {
+            BufferPool.release(outBuffer);
+            outBuffer = BufferPool.acquire(size
+                    + cipher.getTransformation().getAlgorithmBlockSize(),
+                    direct);
+        }
+        bufferSize = size;
+    }
+
+    /**
+     * Checks whether the stream is closed, and takes back the resources
+     * released while it was idle.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
     protected void checkStream() throws IOException {
         if (closed) {
             throw new IOException("Stream closed");
         }
+        if (released) {
+            released = false;
+            pooled = true;
+            if (cipherCreated) {
+                cipher = CipherPool.acquire(cipher);
+            }
+            inBuffer = BufferPool.acquire(bufferSize, direct);
+            if (!isEncryptedInPlace()) {
+                outBuffer = BufferPool.acquire(bufferSize
+                        + cipher.getTransformation().getAlgorithmBlockSize(),
+                        direct);
+            }
+            restoreCipher();
+        }
     }
 
-    /** Forcibly free the direct buffers. */
+    /**
+     * Forcibly free the direct buffers, or return them to the shared pool if
+     * the stream adapts or releases them.
+     */
     protected void freeBuffers() {
-        Utils.freeDirectBuffer(inBuffer);
-        Utils.freeDirectBuffer(outBuffer);
+        if (adaptiveSize != null || pooled) {
+            BufferPool.release(inBuffer);
+            BufferPool.release(outBuffer);
+        } else {
+            Utils.freeDirectBuffer(inBuffer);
+            if (outBuffer != null) {
+                Utils.freeDirectBuffer(outBuffer);
+            }
+        }
     }
 
     /**
      * Gets the outBuffer.
      *
-     * @return the outBuffer.
+     * @return the outBuffer, null if the stream encrypts in place.
      */
     protected ByteBuffer getOutBuffer() {
         return outBuffer;
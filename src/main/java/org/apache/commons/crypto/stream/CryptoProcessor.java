@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream;
+
+import java.io.IOException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Properties;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+
+/**
+ * A <code>java.util.concurrent.Flow.Processor</code> encrypting or decrypting
+ * a stream of buffers. The implementation requires Java 11 or later and is
+ * packaged under <code>META-INF/versions/11</code> of the multi-release jar;
+ * on older Java versions this class can't be constructed.
+ */
+public class CryptoProcessor {
+    private static final String UNSUPPORTED = "CryptoProcessor requires Java 11 or later";
+
+    /**
+     * Constructs a {@link CryptoProcessor}.
+     *
+     * @param mode {@link CryptoCipher#ENCRYPT_MODE} or
+     *        {@link CryptoCipher#DECRYPT_MODE}.
+     * @param transformation the cipher transformation.
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @param key crypto key for the cipher.
+     * @param params the algorithm parameters.
+     * @throws IOException if the cipher can't be created or initialized.
+     */
+    public CryptoProcessor(int mode, CipherTransformation transformation,
+            Properties props, Key key, AlgorithmParameterSpec params)
+            throws IOException {
+        throw new UnsupportedOperationException(UNSUPPORTED);
+    }
+
+    /**
+     * Constructs a {@link CryptoProcessor}.
+     *
+     * @param mode {@link CryptoCipher#ENCRYPT_MODE} or
+     *        {@link CryptoCipher#DECRYPT_MODE}.
+     * @param cipher the CryptoCipher instance, closed by the processor.
+     * @param bufferSize the size of the direct buffers of the cipher.
+     * @param key crypto key for the cipher.
+     * @param params the algorithm parameters.
+     * @throws IOException if the cipher can't be initialized.
+     */
+    public CryptoProcessor(int mode, CryptoCipher cipher, int bufferSize,
+            Key key, AlgorithmParameterSpec params) throws IOException {
+        throw new UnsupportedOperationException(UNSUPPORTED);
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.CryptoCipherUtils;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
+import org.apache.commons.crypto.utils.BufferPool;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * Moves data between channels through an AES/CTR cipher without going through
+ * a stream. The data is read into one pooled buffer of the maximum stream
+ * buffer size, encrypted or decrypted in place and written from the same
+ * buffer, so it's copied by the channels only. The transfer is as if the data
+ * was written to a {@link CTRCryptoOutputStream}, or read from a
+ * {@link CTRCryptoInputStream}, with the same key and iv. The cipher is
+ * initialized by the transfer and isn't closed.
+ */
+public final class CryptoTransfer {
+
+    private CryptoTransfer() {
+    }
+
+    /**
+     * Encrypts all the data of a channel into another channel.
+     *
+     * @param in the channel to read the plain text from.
+     * @param out the channel to write the cipher text to.
+     * @param cipher the AES/CTR/NoPadding cipher.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @return the number of bytes transferred.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static long encrypt(ReadableByteChannel in,
+            WritableByteChannel out, CryptoCipher cipher, byte[] key, byte[] iv)
+            throws IOException {
+        return transfer(CryptoCipher.ENCRYPT_MODE, in, null, 0,
+                Long.MAX_VALUE, out, cipher, key, iv);
+    }
+
+    /**
+     * Decrypts all the data of a channel into another channel.
+     *
+     * @param in the channel to read the cipher text from.
+     * @param out the channel to write the plain text to.
+     * @param cipher the AES/CTR/NoPadding cipher.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @return the number of bytes transferred.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static long decrypt(ReadableByteChannel in,
+            WritableByteChannel out, CryptoCipher cipher, byte[] key, byte[] iv)
+            throws IOException {
+        return transfer(CryptoCipher.DECRYPT_MODE, in, null, 0,
+                Long.MAX_VALUE, out, cipher, key, iv);
+    }
+
+    /**
+     * The encrypted counterpart of
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)}: writes
+     * a region of a file, encrypted as it is at that position of the whole
+     * encrypted file. As CTR decryption is the same operation, this also
+     * decrypts a region of an encrypted file. The position of the file channel
+     * isn't changed.
+     *
+     * @param in the file to read from.
+     * @param position the position of the region in the file.
+     * @param count the maximum number of bytes to transfer.
+     * @param out the channel to write to.
+     * @param cipher the AES/CTR/NoPadding cipher.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @return the number of bytes transferred, less than count if the end of
+     *         the file is reached.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static long transferTo(FileChannel in, long position, long count,
+            WritableByteChannel out, CryptoCipher cipher, byte[] key, byte[] iv)
+            throws IOException {
+        Utils.checkArgument(position >= 0, "Negative position: " + position);
+        Utils.checkArgument(count >= 0, "Negative count: " + count);
+        return transfer(CryptoCipher.ENCRYPT_MODE, in, in, position, count,
+                out, cipher, key, iv);
+    }
+
+    /**
+     * Transfers up to count bytes. The cipher is initialized again for each
+     * buffer, at the counter of its stream offset, and finished by doFinal, so
+     * no state is carried between buffers. Like the streams, the bytes before
+     * the stream offset in its block are padding and aren't written.
+     *
+     * @param file the file to read at the stream offset, or null to read in
+     *        from its position.
+     */
+    private static long transfer(int mode, ReadableByteChannel in,
+            FileChannel file, long streamOffset, long count,
+            WritableByteChannel out, CryptoCipher cipher, byte[] key, byte[] iv)
+            throws IOException {
+        Utils.checkStreamCipher(cipher);
+        final int blockSize = cipher.getTransformation()
+                .getAlgorithmBlockSize();
+        final int bufferSize = Utils.checkBufferSize(cipher,
+                Utils.getMaxBufferSize(cipher.getProperties()));
+        final CryptoMetric metric = mode == CryptoCipher.ENCRYPT_MODE ? CryptoMetric.STREAM_ENCRYPT
+                : CryptoMetric.STREAM_DECRYPT;
+        final SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+        final byte[] counterIV = new byte[iv.length];
+
+        ByteBuffer buffer = BufferPool.acquire(bufferSize,
+                CryptoCipherUtils.isDirectBufferPreferred(cipher));
+        long transferred = 0;
+        try {
+            boolean eof = false;
+            while (!eof && transferred < count) {
+                final int padding = (int) (streamOffset % blockSize);
+                buffer.clear();
+                buffer.position(padding);
+                buffer.limit(padding
+                        + (int) Math.min(bufferSize - padding, count
+                                - transferred));
+                while (buffer.hasRemaining()) {
+                    int n = file != null ? file.read(buffer, streamOffset
+                            + buffer.position() - padding) : in.read(buffer);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                final int len = buffer.position() - padding;
+                if (len == 0) {
+                    break;
+                }
+
+                long start = CryptoMetrics.start();
+                buffer.flip();
+                // Two views of the same memory: CTR can update in place
+                ByteBuffer output = buffer.duplicate();
+                Utils.calculateIV(iv, streamOffset / blockSize, counterIV);
+                try {
+                    cipher.init(mode, keySpec, new IvParameterSpec(counterIV));
+                    cipher.doFinal(buffer, output);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException(e);
+                }
+                CryptoMetrics.record(metric, len, start);
+
+                output.flip();
+                output.position(padding);
+                while (output.hasRemaining()) {
+                    out.write(output);
+                }
+                streamOffset += len;
+                transferred += len;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+        return transferred;
+    }
+}
@@ -23,8 +23,6 @@ import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.util.Properties;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -32,8 +30,12 @@ import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 
 import org.apache.commons.crypto.cipher.CryptoCipher;
-import org.apache.commons.crypto.cipher.CryptoCipherFactory;
+import org.apache.commons.crypto.cipher.CryptoCipherUtils;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
 import org.apache.commons.crypto.stream.input.Input;
+import org.apache.commons.crypto.utils.BufferPool;
+import org.apache.commons.crypto.utils.CipherPool;
 import org.apache.commons.crypto.utils.IOUtils;
 import org.apache.commons.crypto.utils.Utils;
 
@@ -46,16 +48,6 @@ import static org.apache.commons.crypto.cipher.CipherTransformation.AES_CTR_NOPA
  */
 public class PositionedCryptoInputStream extends CTRCryptoInputStream {
 
-    /**
-     * DirectBuffer pool
-     */
-    private final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
-
-    /**
-     * CryptoCipher pool
-     */
-    private final Queue<CipherState> cipherPool = new ConcurrentLinkedQueue<CipherState>();
-
     /**
      * Constructs a {@link PositionedCryptoInputStream}.
      *
@@ -71,6 +63,7 @@ public class PositionedCryptoInputStream extends CTRCryptoInputStream {
             byte[] iv, long streamOffset) throws IOException {
         this(in, Utils.getCipherInstance(AES_CTR_NOPADDING, props), Utils
                 .getBufferSize(props), key, iv, streamOffset);
+        cipherCreated = true;
     }
 
     /**
@@ -183,8 +176,8 @@ public class PositionedCryptoInputStream extends CTRCryptoInputStream {
                 padding = postDecryption(state, inBuffer, position + n, iv);
             }
         } finally {
-            returnBuffer(inBuffer);
-            returnBuffer(outBuffer);
+            BufferPool.release(inBuffer);
+            BufferPool.release(outBuffer);
             returnCipherState(state);
         }
     }
@@ -217,6 +210,7 @@ public class PositionedCryptoInputStream extends CTRCryptoInputStream {
 
     private void decryptBuffer(CipherState state, ByteBuffer inBuffer,
             ByteBuffer outBuffer) throws IOException {
+        long start = CryptoMetrics.start();
         int inputSize = inBuffer.remaining();
         try {
             int n = state.getCipher().update(inBuffer, outBuffer);
@@ -236,6 +230,7 @@ public class PositionedCryptoInputStream extends CTRCryptoInputStream {
         } catch (BadPaddingException e) {
             throw new IOException(e);
         }
+        CryptoMetrics.record(CryptoMetric.STREAM_DECRYPT, inputSize, start);
     }
 
     /**
@@ -275,72 +270,53 @@ public class PositionedCryptoInputStream extends CTRCryptoInputStream {
         state.reset(false);
     }
 
-    /** Get CryptoCipher from pool */
-    private CipherState getCipherState() throws IOException {
-        CipherState state = cipherPool.poll();
-        if (state == null) {
-            CryptoCipher cipher;
-            try {
-                cipher = CryptoCipherFactory.getInstance(getCipher()
-                        .getTransformation(), getCipher().getProperties());
-            } catch (GeneralSecurityException e) {
-                throw new IOException(e);
-            }
-            state = new CipherState(cipher);
-        }
-
-        return state;
-    }
-
-    /** Return CryptoCipher to pool */
-    private void returnCipherState(CipherState state) {
-        if (state != null) {
-            cipherPool.add(state);
-        }
-    }
-
-    /** Get direct buffer from pool */
-    private ByteBuffer getBuffer() {
-        ByteBuffer buffer = bufferPool.poll();
-        if (buffer == null) {
-            buffer = ByteBuffer.allocateDirect(getBufferSize());
-        }
-
-        return buffer;
-    }
-
-    /** Return direct buffer to pool */
-    private void returnBuffer(ByteBuffer buf) {
-        if (buf != null) {
-            buf.clear();
-            bufferPool.add(buf);
-        }
+    /**
+     * Overrides the {@link CryptoInputStream#isBufferResizable()}. The buffers
+     * of positioned reads are pooled with the buffer size, so it never
+     * changes.
+     *
+     * @return false.
+     */
+    @Override
+    protected boolean isBufferResizable() {
+        return false;
     }
 
     /**
-     * Overrides the {@link CryptoInputStream#close()}. Closes this input stream
-     * and releases any system resources associated with the stream.
+     * Overrides the {@link CryptoInputStream#isReleasable()}. Positioned
+     * reads run concurrently with the other methods and read the stream
+     * cipher, so the buffers and cipher of the stream are never released.
      *
-     * @throws IOException if an I/O error occurs.
+     * @return false.
      */
     @Override
-    public void close() throws IOException {
-        if (!isOpen()) {
-            return;
-        }
+    protected boolean isReleasable() {
+        return false;
+    }
 
-        cleanBufferPool();
-        super.close();
+    /** Get CryptoCipher from the shared pool */
+    private CipherState getCipherState() throws IOException {
+        try {
+            return new CipherState(CipherPool.acquire(getCipher()
+                    .getTransformation(), getCipher().getProperties()));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
     }
 
-    /** Clean direct buffer pool */
-    private void cleanBufferPool() {
-        ByteBuffer buf;
-        while ((buf = bufferPool.poll()) != null) {
-            Utils.freeDirectBuffer(buf);
+    /** Return CryptoCipher to the shared pool */
+    private void returnCipherState(CipherState state) {
+        if (state != null) {
+            CipherPool.release(state.getCipher());
         }
     }
 
+    /** Get buffer of the type the cipher prefers from the shared pool */
+    private ByteBuffer getBuffer() {
+        return BufferPool.acquire(getBufferSize(),
+                CryptoCipherUtils.isDirectBufferPreferred(getCipher()));
+    }
+
     private class CipherState {
         private CryptoCipher cipher;
         private boolean reset;
@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.util.Properties;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.CryptoCipherUtils;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
+import org.apache.commons.crypto.stream.output.PositionedOutput;
+import org.apache.commons.crypto.utils.BufferPool;
+import org.apache.commons.crypto.utils.CipherPool;
+import org.apache.commons.crypto.utils.IOUtils;
+import org.apache.commons.crypto.utils.Utils;
+
+import static org.apache.commons.crypto.cipher.CipherTransformation.AES_CTR_NOPADDING;
+
+/**
+ * PositionedCryptoOutputStream provides the capability to encrypt data at
+ * random positions of the stream, the counterpart of
+ * {@link PositionedCryptoInputStream}. Positioned writes of disjoint regions
+ * can run in parallel; they need a {@link PositionedOutput}, such as a
+ * <code>FileChannelOutput</code>. This needs a stream cipher mode such as AES
+ * CTR mode.
+ */
+public class PositionedCryptoOutputStream extends CTRCryptoOutputStream {
+
+    /** The output, for positioned writes. */
+    private final PositionedOutput positionedOutput;
+
+    /**
+     * Constructs a {@link PositionedCryptoOutputStream}.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @param out the output data.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @param streamOffset the start offset in the data.
+     * @throws IOException if an I/O error occurs.
+     */
+    public PositionedCryptoOutputStream(Properties props, PositionedOutput out,
+            byte[] key, byte[] iv, long streamOffset) throws IOException {
+        this(out, Utils.getCipherInstance(AES_CTR_NOPADDING, props), Utils
+                .getBufferSize(props), key, iv, streamOffset);
+        cipherCreated = true;
+    }
+
+    /**
+     * Constructs a {@link PositionedCryptoOutputStream}.
+     *
+     * @param output the output data.
+     * @param cipher the CryptoCipher instance.
+     * @param bufferSize the bufferSize.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @param streamOffset the start offset in the data.
+     * @throws IOException if an I/O error occurs.
+     */
+    public PositionedCryptoOutputStream(PositionedOutput output,
+            CryptoCipher cipher, int bufferSize, byte[] key, byte[] iv,
+            long streamOffset) throws IOException {
+        super(output, cipher, bufferSize, key, iv, streamOffset);
+        this.positionedOutput = output;
+    }
+
+    /**
+     * Encrypts and writes the bytes at a given position within the stream.
+     * This does not change the current offset of the stream, and is
+     * thread-safe.
+     *
+     * @param position the offset from the start of the stream.
+     * @param b the data.
+     * @param off the start offset in the data.
+     * @param len the number of bytes to write.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void write(long position, byte[] b, int off, int len)
+            throws IOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || off > b.length || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        write(position, ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * Encrypts and writes the remaining bytes of the buffer at a given
+     * position within the stream. This does not change the current offset of
+     * the stream, and is thread-safe.
+     *
+     * @param position the offset from the start of the stream.
+     * @param src The buffer from which bytes are to be retrieved.
+     * @return the number of bytes written, all the remaining bytes.
+     * @throws IOException if an I/O error occurs.
+     */
+    public int write(long position, ByteBuffer src) throws IOException {
+        Utils.checkArgument(position >= 0, "Negative position: " + position);
+        checkStream();
+        final int len = src.remaining();
+        final boolean direct = CryptoCipherUtils
+                .isDirectBufferPreferred(getCipher());
+        ByteBuffer buffer = BufferPool.acquire(getBufferSize(), direct);
+        ByteBuffer out = null;
+        CryptoCipher cipher = null;
+        boolean reusable = false;
+        try {
+            cipher = getCipherFromPool();
+            out = CryptoCipherUtils.isUpdateInPlaceSupported(cipher) ? buffer
+                    : BufferPool.acquire(getBufferSize(), direct);
+            while (src.hasRemaining()) {
+                final int padding = getPadding(position);
+                buffer.clear();
+                buffer.position(padding);
+                final int n = Math.min(buffer.remaining(), src.remaining());
+                final int limit = src.limit();
+                src.limit(src.position() + n);
+                buffer.put(src);
+                src.limit(limit);
+
+                long start = CryptoMetrics.start();
+                buffer.flip();
+                encrypt(cipher, position, buffer, out);
+                CryptoMetrics.record(CryptoMetric.STREAM_ENCRYPT, n, start);
+
+                // The plain text and cipher text start at the same position
+                out.position(padding);
+                long target = position;
+                while (out.hasRemaining()) {
+                    target += positionedOutput.write(target, out);
+                }
+                position += n;
+            }
+            reusable = true;
+        } finally {
+            BufferPool.release(buffer);
+            if (out != buffer) {
+                BufferPool.release(out);
+            }
+            if (reusable) {
+                CipherPool.release(cipher);
+            } else {
+                IOUtils.cleanup(null, cipher);
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Encrypts the buffer with the counter of the position, in place if out
+     * is the buffer.
+     *
+     * @param cipher the cipher, initialized by this method.
+     * @param position the position of the first byte after the padding.
+     * @param buffer the padding and the data.
+     * @param out the output buffer, flipped for writing.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void encrypt(CryptoCipher cipher, long position, ByteBuffer buffer,
+            ByteBuffer out) throws IOException {
+        final long counter = position
+                / cipher.getTransformation().getAlgorithmBlockSize();
+        byte[] iv = initIV.clone();
+        Utils.calculateIV(initIV, counter, iv);
+        try {
+            cipher.init(CryptoCipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+            int inputSize = buffer.remaining();
+            if (out != buffer) {
+                out.clear();
+            }
+            int n = out == buffer ? CryptoCipherUtils.updateInPlace(cipher,
+                    buffer) : cipher.update(buffer, out);
+            if (n < inputSize) {
+                // The cipher is initialized for every write, so it can finish
+                ByteBuffer consumed = buffer.duplicate();
+                consumed.position(consumed.limit());
+                cipher.doFinal(consumed, out);
+            }
+            if (out != buffer) {
+                out.flip();
+            }
+        } catch (InvalidKeyException e) {
+            throw new IOException(e);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new IOException(e);
+        } catch (ShortBufferException e) {
+            throw new IOException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new IOException(e);
+        } catch (BadPaddingException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private int getPadding(long position) {
+        return (int) (position % getCipher().getTransformation()
+                .getAlgorithmBlockSize());
+    }
+
+    /**
+     * Overrides the {@link CryptoOutputStream#isBufferResizable()}. The
+     * buffers of positioned writes are pooled with the buffer size, so it
+     * never changes.
+     *
+     * @return false.
+     */
+    @Override
+    protected boolean isBufferResizable() {
+        return false;
+    }
+
+    /**
+     * Overrides the {@link CryptoOutputStream#isReleasable()}. Positioned
+     * writes run concurrently with the other methods and read the stream
+     * cipher, so the buffers and cipher of the stream are never released.
+     *
+     * @return false.
+     */
+    @Override
+    protected boolean isReleasable() {
+        return false;
+    }
+
+    /** Get CryptoCipher from the shared pool */
+    private CryptoCipher getCipherFromPool() throws IOException {
+        try {
+            return CipherPool.acquire(getCipher().getTransformation(),
+                    getCipher().getProperties());
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
+import org.apache.commons.crypto.stream.input.ChannelInput;
+import org.apache.commons.crypto.stream.input.Input;
+import org.apache.commons.crypto.utils.Utils;
+
+import static org.apache.commons.crypto.stream.SegmentedCryptoOutputStream.TAG_LENGTH;
+
+/**
+ * <p>
+ * SegmentedCryptoInputStream decrypts data written by
+ * {@link SegmentedCryptoOutputStream}. Every segment is verified before any of
+ * its data is returned, so a caller never sees unauthenticated plain text and
+ * does not need to buffer the whole stream. A modified, reordered, dropped or
+ * truncated segment makes the read fail with an IOException. It is not
+ * thread-safe.
+ * </p>
+ * <p>
+ * When the input supports seek, {@link #seek(long)} jumps to any segment
+ * without reading the segments before it.
+ * </p>
+ */
+public class SegmentedCryptoInputStream extends CryptoInputStream {
+    /**
+     * The initial IV.
+     */
+    private final byte[] initIV;
+
+    /**
+     * Initialization vector of the current segment.
+     */
+    private final byte[] iv;
+
+    private final int segmentSize;
+
+    private final Mac mac;
+
+    /**
+     * Index of the next segment to read.
+     */
+    private long segmentIndex = 0;
+
+    /**
+     * Number of decrypted bytes to discard from the next segment, set by
+     * {@link #seek(long)}.
+     */
+    private int segmentSkip = 0;
+
+    /**
+     * Flag to mark whether the last segment has been read.
+     */
+    private boolean lastSegmentDone = false;
+
+    /**
+     * Constructs a {@link SegmentedCryptoInputStream}.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @param in the input stream.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @throws IOException if an I/O error occurs.
+     */
+    public SegmentedCryptoInputStream(Properties props, InputStream in,
+            byte[] key, byte[] iv) throws IOException {
+        this(in, Utils.getCipherInstance(
+                CipherTransformation.AES_CTR_NOPADDING, props), Utils
+                .getSegmentSize(props), key, iv);
+        cipherCreated = true;
+    }
+
+    /**
+     * Constructs a {@link SegmentedCryptoInputStream}.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @param in the ReadableByteChannel instance.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @throws IOException if an I/O error occurs.
+     */
+    public SegmentedCryptoInputStream(Properties props, ReadableByteChannel in,
+            byte[] key, byte[] iv) throws IOException {
+        this(in, Utils.getCipherInstance(
+                CipherTransformation.AES_CTR_NOPADDING, props), Utils
+                .getSegmentSize(props), key, iv);
+        cipherCreated = true;
+    }
+
+    /**
+     * Constructs a {@link SegmentedCryptoInputStream}.
+     *
+     * @param in the input stream.
+     * @param cipher the CryptoCipher instance.
+     * @param segmentSize the segment size used to write the stream.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @throws IOException if an I/O error occurs.
+     */
+    public SegmentedCryptoInputStream(InputStream in, CryptoCipher cipher,
+            int segmentSize, byte[] key, byte[] iv) throws IOException {
+        this(createInput(in, segmentSize), cipher, segmentSize, key, iv);
+    }
+
+    /**
+     * Constructs a {@link SegmentedCryptoInputStream}.
+     *
+     * @param in the ReadableByteChannel instance.
+     * @param cipher the CryptoCipher instance.
+     * @param segmentSize the segment size used to write the stream.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @throws IOException if an I/O error occurs.
+     */
+    public SegmentedCryptoInputStream(ReadableByteChannel in,
+            CryptoCipher cipher, int segmentSize, byte[] key, byte[] iv)
+            throws IOException {
+        this(new ChannelInput(in), cipher, segmentSize, key, iv);
+    }
+
+    /**
+     * Constructs a {@link SegmentedCryptoInputStream}.
+     *
+     * @param input the input data.
+     * @param cipher the CryptoCipher instance.
+     * @param segmentSize the segment size used to write the stream.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @throws IOException if an I/O error occurs.
+     */
+    public SegmentedCryptoInputStream(Input input, CryptoCipher cipher,
+            int segmentSize, byte[] key, byte[] iv) throws IOException {
+        // The input buffer holds a whole segment and its tag
+        super(input, cipher, Utils.checkSegmentSize(cipher, segmentSize)
+                + TAG_LENGTH, new SecretKeySpec(key, "AES"),
+                new IvParameterSpec(iv));
+        Utils.checkStreamCipher(cipher);
+        this.segmentSize = segmentSize;
+        this.initIV = iv.clone();
+        this.iv = iv.clone();
+        this.mac = Utils.getMacInstance(Utils.deriveMacKey(key,
+                SegmentedCryptoOutputStream.MAC_KEY_LABEL));
+    }
+
+    /**
+     * Seeks the stream to a specific position relative to start of the under
+     * layer stream. Only the segment which contains the position is read.
+     *
+     * @param position the given position in the data.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void seek(long position) throws IOException {
+        Utils.checkArgument(position >= 0, "Cannot seek to negative offset.");
+        checkStream();
+
+        final long index = position / segmentSize;
+        input.seek(index * (segmentSize + TAG_LENGTH));
+        segmentIndex = index;
+        segmentSkip = (int) (position % segmentSize);
+        lastSegmentDone = false;
+        inBuffer.clear();
+        outBuffer.clear();
+        outBuffer.limit(0);
+    }
+
+    /**
+     * Gets the segment size.
+     *
+     * @return the segment size.
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Overrides the {@link CryptoInputStream#initCipher()}. The cipher is
+     * initialized for every segment.
+     */
+    @Override
+    protected void initCipher() {
+        // Do nothing for initCipher
+        // Will reset the cipher for every segment
+    }
+
+    /**
+     * Overrides the {@link CryptoInputStream#isBufferResizable()}. The segment
+     * size is part of the data format, so it never changes.
+     *
+     * @return false.
+     */
+    @Override
+    protected boolean isBufferResizable() {
+        return false;
+    }
+
+    /**
+     * Overrides the {@link CryptoInputStream#decryptMore()}. Reads a whole
+     * segment, verifies its tag and decrypts it.
+     *
+     * @return The number of decrypted data. -1 if end of the decrypted stream.
+     * @throws IOException if an I/O error occurs or the segment fails
+     *         verification.
+     */
+    @Override
+    protected int decryptMore() throws IOException {
+        while (!lastSegmentDone) {
+            boolean last = false;
+            while (inBuffer.hasRemaining()) {
+                int n = input.read(inBuffer);
+                if (n < 0) {
+                    // A short segment is the last one
+                    last = true;
+                    break;
+                } else if (n == 0) {
+                    // No data is read, but the stream is not end yet
+                    return 0;
+                }
+            }
+
+            decryptSegment(last);
+            if (outBuffer.hasRemaining()) {
+                return outBuffer.remaining();
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Verifies and decrypts the segment in {@link #inBuffer}. Upon return,
+     * inBuffer is cleared; the decrypted data starts at outBuffer.position()
+     * and ends at outBuffer.limit().
+     */
+    private void decryptSegment(boolean last) throws IOException {
+        if (inBuffer.position() < TAG_LENGTH) {
+            throw new IOException("Segment " + segmentIndex + " is truncated");
+        }
+        long start = CryptoMetrics.start();
+        inBuffer.flip();
+        outBuffer.clear();
+
+        // Verify the tag before decrypting anything
+        final int tagOffset = inBuffer.limit() - TAG_LENGTH;
+        byte[] tag = new byte[TAG_LENGTH];
+        inBuffer.position(tagOffset);
+        inBuffer.get(tag);
+        inBuffer.position(0);
+        inBuffer.limit(tagOffset);
+
+        SegmentedCryptoOutputStream.updateMac(mac, initIV, segmentIndex, last);
+        mac.update(inBuffer.duplicate());
+        if (!MessageDigest.isEqual(tag, mac.doFinal())) {
+            throw new IOException("Segment " + segmentIndex
+                    + " failed verification");
+        }
+
+        resetCipher(segmentIndex);
+        try {
+            cipher.doFinal(inBuffer, outBuffer);
+        } catch (ShortBufferException e) {
+            throw new IOException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new IOException(e);
+        } catch (BadPaddingException e) {
+            throw new IOException(e);
+        }
+
+        inBuffer.clear();
+        outBuffer.flip();
+        if (segmentSkip > 0) {
+            outBuffer.position(Math.min(segmentSkip, outBuffer.limit()));
+            segmentSkip = 0;
+        }
+        segmentIndex++;
+        lastSegmentDone = last;
+        CryptoMetrics.record(CryptoMetric.STREAM_DECRYPT,
+                outBuffer.remaining(), start);
+    }
+
+    /** Calculates the iv of the segment, resets the cipher. */
+    private void resetCipher(long index) throws IOException {
+        final long counter = index * segmentSize
+                / cipher.getTransformation().getAlgorithmBlockSize();
+        Utils.calculateIV(initIV, counter, iv);
+        try {
+            cipher.init(CryptoCipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+        } catch (InvalidKeyException e) {
+            throw new IOException(e);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.util.Properties;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
+import org.apache.commons.crypto.stream.output.ChannelOutput;
+import org.apache.commons.crypto.stream.output.Output;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * <p>
+ * SegmentedCryptoOutputStream encrypts and authenticates data in fixed-size
+ * segments, so that {@link SegmentedCryptoInputStream} can verify and release
+ * every segment as soon as it arrives instead of at the end of the stream. It
+ * is not thread-safe.
+ * </p>
+ * <p>
+ * Every segment is encrypted with AES/CTR/NoPadding and followed by a
+ * HMAC-SHA256 tag (encrypt-then-MAC). Similar to the STREAM construction, the
+ * nonce of segment i is derived from the base IV and i: the counter of
+ * segment i starts at base + i * segmentSize / (algorithm blocksize). The tag
+ * is HMAC-SHA256(iv || i || last || cipher text), where last marks the final
+ * segment, so segments can be neither reordered nor dropped and truncation of
+ * the stream is detected. All segments but the last one hold exactly
+ * segmentSize bytes of data; the last one holds less, possibly nothing. The
+ * HMAC key is derived from the cipher key.
+ * </p>
+ */
+public class SegmentedCryptoOutputStream extends CryptoOutputStream {
+    /**
+     * The length of the tag which follows every segment.
+     */
+    public static final int TAG_LENGTH = 32;
+
+    /**
+     * The label of the HMAC key derived from the cipher key.
+     */
+    static final String MAC_KEY_LABEL = "commons-crypto segmented stream";
+
+    /**
+     * The initial IV.
+     */
+    private final byte[] initIV;
+
+    /**
+     * Initialization vector of the current segment.
+     */
+    private final byte[] iv;
+
+    private final Mac mac;
+
+    /**
+     * Index of the next segment to write.
+     */
+    private long segmentIndex = 0;
+
+    /**
+     * Constructs a {@link SegmentedCryptoOutputStream}.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @param out the output stream.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @throws IOException if an I/O error occurs.
+     */
+    public SegmentedCryptoOutputStream(Properties props, OutputStream out,
+            byte[] key, byte[] iv) throws IOException {
+        this(out, Utils.getCipherInstance(
+                CipherTransformation.AES_CTR_NOPADDING, props), Utils
+                .getSegmentSize(props), key, iv);
+        cipherCreated = true;
+    }
+
+    /**
+     * Constructs a {@link SegmentedCryptoOutputStream}.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @param out the WritableByteChannel instance.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @throws IOException if an I/O error occurs.
+     */
+    public SegmentedCryptoOutputStream(Properties props,
+            WritableByteChannel out, byte[] key, byte[] iv) throws IOException {
+        this(out, Utils.getCipherInstance(
+                CipherTransformation.AES_CTR_NOPADDING, props), Utils
+                .getSegmentSize(props), key, iv);
+        cipherCreated = true;
+    }
+
+    /**
+     * Constructs a {@link SegmentedCryptoOutputStream}.
+     *
+     * @param out the output stream.
+     * @param cipher the CryptoCipher instance.
+     * @param segmentSize the segment size, a multiple of the block size.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @throws IOException if an I/O error occurs.
+     */
+    public SegmentedCryptoOutputStream(OutputStream out, CryptoCipher cipher,
+            int segmentSize, byte[] key, byte[] iv) throws IOException {
+        this(createOutput(out, segmentSize), cipher, segmentSize, key, iv);
+    }
+
+    /**
+     * Constructs a {@link SegmentedCryptoOutputStream}.
+     *
+     * @param channel the WritableByteChannel instance.
+     * @param cipher the CryptoCipher instance.
+     * @param segmentSize the segment size, a multiple of the block size.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @throws IOException if an I/O error occurs.
+     */
+    public SegmentedCryptoOutputStream(WritableByteChannel channel,
+            CryptoCipher cipher, int segmentSize, byte[] key, byte[] iv)
+            throws IOException {
+        this(new ChannelOutput(channel), cipher, segmentSize, key, iv);
+    }
+
+    /**
+     * Constructs a {@link SegmentedCryptoOutputStream}.
+     *
+     * @param output the output stream.
+     * @param cipher the CryptoCipher instance.
+     * @param segmentSize the segment size, a multiple of the block size.
+     * @param key crypto key for the cipher.
+     * @param iv Initialization vector for the cipher.
+     * @throws IOException if an I/O error occurs.
+     */
+    public SegmentedCryptoOutputStream(Output output, CryptoCipher cipher,
+            int segmentSize, byte[] key, byte[] iv) throws IOException {
+        super(output, cipher, Utils.checkSegmentSize(cipher, segmentSize),
+                new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        Utils.checkStreamCipher(cipher);
+        this.initIV = iv.clone();
+        this.iv = iv.clone();
+        this.mac = Utils.getMacInstance(Utils.deriveMacKey(key, MAC_KEY_LABEL));
+    }
+
+    /**
+     * Overrides the {@link CryptoOutputStream#initCipher()}. The cipher is
+     * initialized for every segment.
+     */
+    @Override
+    protected void initCipher() {
+        // Do nothing for initCipher
+        // Will reset the cipher for every segment
+    }
+
+    /**
+     * Overrides the {@link CryptoOutputStream#isBufferResizable()}. The segment
+     * size is part of the data format, so it never changes.
+     *
+     * @return false.
+     */
+    @Override
+    protected boolean isBufferResizable() {
+        return false;
+    }
+
+    /**
+     * Overrides the {@link CryptoOutputStream#encrypt()}. Only a full
+     * {@link #inBuffer} is written as a segment, so {@link #flush()} does not
+     * cut the stream into shorter segments.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    protected void encrypt() throws IOException {
+        if (inBuffer.hasRemaining()) {
+            return;
+        }
+        encryptSegment(false);
+    }
+
+    /**
+     * Overrides the {@link CryptoOutputStream#encryptFinal()}. Writes the
+     * remaining data as the last segment.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    protected void encryptFinal() throws IOException {
+        encryptSegment(true);
+    }
+
+    /**
+     * Encrypts {@link #inBuffer} as the next segment and writes it with its
+     * tag.
+     */
+    private void encryptSegment(boolean last) throws IOException {
+        long start = CryptoMetrics.start();
+        inBuffer.flip();
+        outBuffer.clear();
+
+        resetCipher(segmentIndex);
+        try {
+            cipher.doFinal(inBuffer, outBuffer);
+        } catch (ShortBufferException e) {
+            throw new IOException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new IOException(e);
+        } catch (BadPaddingException e) {
+            throw new IOException(e);
+        }
+
+        inBuffer.clear();
+        outBuffer.flip();
+
+        updateMac(mac, initIV, segmentIndex, last);
+        mac.update(outBuffer.duplicate());
+        segmentIndex++;
+
+        // write to output
+        int n = output.write(outBuffer);
+        output.write(ByteBuffer.wrap(mac.doFinal()));
+        CryptoMetrics.record(CryptoMetric.STREAM_ENCRYPT, n, start);
+    }
+
+    /** Calculates the iv of the segment, resets the cipher. */
+    private void resetCipher(long index) throws IOException {
+        final long counter = index * getBufferSize()
+                / cipher.getTransformation().getAlgorithmBlockSize();
+        Utils.calculateIV(initIV, counter, iv);
+        try {
+            cipher.init(CryptoCipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+        } catch (InvalidKeyException e) {
+            throw new IOException(e);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Feeds the authenticated segment metadata into the mac: the initial IV,
+     * the segment index and whether it is the last segment.
+     *
+     * @param mac the Mac instance.
+     * @param initIV the initial IV of the stream.
+     * @param index the segment index.
+     * @param last whether the segment is the last one.
+     */
+    static void updateMac(Mac mac, byte[] initIV, long index, boolean last) {
+        ByteBuffer meta = ByteBuffer.allocate(9);
+        meta.putLong(index);
+        meta.put((byte) (last ? 1 : 0));
+        meta.flip();
+
+        mac.update(initIV);
+        mac.update(meta);
+    }
+}
@@ -19,12 +19,15 @@ package org.apache.commons.crypto.stream.input;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 
 /**
  * The ChannelInput class takes a <code>ReadableByteChannel</code> object and
  * wraps it as <code>Input</code> object acceptable by
- * <code>CryptoInputStream</code>.
+ * <code>CryptoInputStream</code>. When the channel is a
+ * <code>FileChannel</code>, positioned read, seek, skip and available use the
+ * position and size of the file.
  */
 public class ChannelInput implements Input {
     private static final int SKIP_BUFFER_SIZE = 2048;
@@ -32,6 +35,9 @@ public class ChannelInput implements Input {
     private ByteBuffer buf;
     private final ReadableByteChannel channel;
 
+    /** The channel if it's a FileChannel, null otherwise. */
+    private final FileChannel fileChannel;
+
     /**
      * Constructs the
      * {@link org.apache.commons.crypto.stream.input.ChannelInput}.
@@ -40,6 +46,8 @@ public class ChannelInput implements Input {
      */
     public ChannelInput(ReadableByteChannel channel) {
         this.channel = channel;
+        this.fileChannel = channel instanceof FileChannel ? (FileChannel) channel
+                : null;
     }
 
     /**
@@ -76,6 +84,14 @@ public class ChannelInput implements Input {
             return 0;
         }
 
+        if (fileChannel != null) {
+            long position = fileChannel.position();
+            long newPosition = Math.max(position,
+                    Math.min(fileChannel.size(), position + n));
+            fileChannel.position(newPosition);
+            return newPosition - position;
+        }
+
         int size = (int) Math.min(SKIP_BUFFER_SIZE, remaining);
         ByteBuffer skipBuffer = getSkipBuf();
         while (remaining > 0) {
@@ -106,6 +122,10 @@ public class ChannelInput implements Input {
      */
     @Override
     public int available() throws IOException {
+        if (fileChannel != null) {
+            long remaining = fileChannel.size() - fileChannel.position();
+            return (int) Math.max(0, Math.min(remaining, Integer.MAX_VALUE));
+        }
         return 0;
     }
 
@@ -129,6 +149,11 @@ public class ChannelInput implements Input {
     @Override
     public int read(long position, byte[] buffer, int offset, int length)
             throws IOException {
+        if (fileChannel != null) {
+            // Doesn't move the position of the channel, safe for concurrent use
+            return fileChannel.read(ByteBuffer.wrap(buffer, offset, length),
+                    position);
+        }
         throw new UnsupportedOperationException(
                 "Positioned read is not supported by this implementation");
     }
@@ -144,6 +169,10 @@ public class ChannelInput implements Input {
      */
     @Override
     public void seek(long position) throws IOException {
+        if (fileChannel != null) {
+            fileChannel.position(position);
+            return;
+        }
         throw new UnsupportedOperationException(
                 "Seek is not supported by this implementation");
     }
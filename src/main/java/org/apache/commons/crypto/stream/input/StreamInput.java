@@ -56,6 +56,9 @@ public class StreamInput implements Input {
      */
     @Override
     public int read(ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+            return readToArray(dst);
+        }
         int remaining = dst.remaining();
         int read = 0;
         while (remaining > 0) {
@@ -74,6 +77,31 @@ public class StreamInput implements Input {
         return read;
     }
 
+    /**
+     * Reads straight into the array backing the buffer, without going through
+     * the intermediate buffer.
+     */
+    private int readToArray(ByteBuffer dst) throws IOException {
+        final byte[] array = dst.array();
+        int remaining = dst.remaining();
+        int read = 0;
+        while (remaining > 0) {
+            final int n = in.read(array, dst.arrayOffset() + dst.position(),
+                    remaining);
+            if (n == -1) {
+                if (read == 0) {
+                    read = -1;
+                }
+                break;
+            } else if (n > 0) {
+                dst.position(dst.position() + n);
+                read += n;
+                remaining -= n;
+            }
+        }
+        return read;
+    }
+
     /**
      * Overrides the
      * {@link org.apache.commons.crypto.stream.input.Input#skip(long)}. Skips
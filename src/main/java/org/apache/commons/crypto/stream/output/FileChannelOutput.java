@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream.output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The FileChannelOutput class takes a <code>FileChannel</code> object and
+ * wraps it as <code>PositionedOutput</code> object, which writes at positions
+ * in the file.
+ */
+public class FileChannelOutput extends ChannelOutput implements
+        PositionedOutput {
+
+    private final FileChannel channel;
+
+    /**
+     * Constructs a
+     * {@link org.apache.commons.crypto.stream.output.FileChannelOutput}.
+     *
+     * @param channel the FileChannel object.
+     */
+    public FileChannelOutput(FileChannel channel) {
+        super(channel);
+        this.channel = channel;
+    }
+
+    /**
+     * Overrides the
+     * {@link org.apache.commons.crypto.stream.output.PositionedOutput#write(long, ByteBuffer)}
+     * . Writes a sequence of bytes to this output from the given buffer, at
+     * the given position.
+     *
+     * @param position the position within the output.
+     * @param src The buffer from which bytes are to be retrieved.
+     * @return The number of bytes written, possibly zero.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public int write(long position, ByteBuffer src) throws IOException {
+        // Doesn't move the position of the channel, safe for concurrent use
+        return channel.write(src, position);
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream.output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The PositionedOutput interface extends {@link Output} with writes at a given
+ * position, the counterpart of the positioned read of
+ * <code>Input</code>. It's the output of
+ * <code>PositionedCryptoOutputStream</code>.
+ */
+public interface PositionedOutput extends Output {
+
+    /**
+     * Writes a sequence of bytes to this output from the given buffer, at the
+     * given position. This does not change the current position of the output
+     * and is thread-safe. Like {@link #write(ByteBuffer)}, fewer bytes than
+     * remain in the buffer may be written.
+     *
+     * @param position the position within the output.
+     * @param src The buffer from which bytes are to be retrieved.
+     * @return The number of bytes written, possibly zero.
+     * @throws IOException if an I/O error occurs.
+     */
+    int write(long position, ByteBuffer src) throws IOException;
+}
@@ -57,6 +57,11 @@ public class StreamOutput implements Output {
     @Override
     public int write(ByteBuffer src) throws IOException {
         final int len = src.remaining();
+        if (src.hasArray()) {
+            out.write(src.array(), src.arrayOffset() + src.position(), len);
+            src.position(src.limit());
+            return len;
+        }
 
         int remaining = len;
         while (remaining > 0) {
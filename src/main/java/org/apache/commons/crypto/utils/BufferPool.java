@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
+
+/**
+ * A pool of buffers shared by all streams. Buffers are pooled by capacity and
+ * by kind, direct or heap, so a stream changing its buffer size takes the
+ * buffers another stream released instead of allocating new ones. Released
+ * buffers are zeroed, as they held plain text or key stream.
+ */
+public final class BufferPool {
+
+    /** The maximum number of idle buffers pooled per capacity and kind. */
+    private static final int MAX_POOLED_BUFFERS = Runtime.getRuntime()
+            .availableProcessors() * 2;
+
+    /** The zeros written over a direct buffer, a chunk at a time. */
+    private static final byte[] ZEROS = new byte[4096];
+
+    private static final ConcurrentMap<Integer, Bucket> DIRECT_BUCKETS = new ConcurrentHashMap<Integer, Bucket>();
+
+    private static final ConcurrentMap<Integer, Bucket> HEAP_BUCKETS = new ConcurrentHashMap<Integer, Bucket>();
+
+    private BufferPool() {
+    }
+
+    /**
+     * Takes a cleared buffer of the given capacity from the pool, or
+     * allocates one if there is none.
+     *
+     * @param capacity the capacity of the buffer.
+     * @param direct whether to take a direct buffer.
+     * @return the buffer, its position is 0 and its limit its capacity.
+     */
+    public static ByteBuffer acquire(int capacity, boolean direct) {
+        Bucket bucket = (direct ? DIRECT_BUCKETS : HEAP_BUCKETS)
+                .get(capacity);
+        ByteBuffer buffer = bucket == null ? null : bucket.poll();
+        if (buffer != null) {
+            CryptoMetrics.count(CryptoMetric.BUFFER_POOL_HIT);
+            return buffer;
+        }
+        CryptoMetrics.count(CryptoMetric.BUFFER_POOL_MISS);
+        return Utils.allocateBuffer(capacity, direct);
+    }
+
+    /**
+     * Zeroes a buffer taken by {@link #acquire(int, boolean)} and returns it
+     * to the pool. If the pool is full, a direct buffer is freed instead. The
+     * buffer must not be used after it's released.
+     *
+     * @param buffer the buffer, may be null.
+     */
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        zero(buffer);
+        ConcurrentMap<Integer, Bucket> buckets = buffer.isDirect() ? DIRECT_BUCKETS
+                : HEAP_BUCKETS;
+        Integer capacity = Integer.valueOf(buffer.capacity());
+        Bucket bucket = buckets.get(capacity);
+        if (bucket == null) {
+            Bucket created = new Bucket();
+            bucket = buckets.putIfAbsent(capacity, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        if (!bucket.offer(buffer)) {
+            Utils.freeDirectBuffer(buffer);
+        }
+    }
+
+    /**
+     * Overwrites the whole buffer with zeros and clears it.
+     *
+     * @param buffer the buffer.
+     */
+    private static void zero(ByteBuffer buffer) {
+        buffer.clear();
+        if (buffer.hasArray()) {
+            final int offset = buffer.arrayOffset();
+            Arrays.fill(buffer.array(), offset, offset + buffer.capacity(),
+                    (byte) 0);
+            return;
+        }
+        while (buffer.hasRemaining()) {
+            buffer.put(ZEROS, 0, Math.min(ZEROS.length, buffer.remaining()));
+        }
+        buffer.clear();
+    }
+
+    private static class Bucket {
+        private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        ByteBuffer poll() {
+            ByteBuffer buffer = buffers.poll();
+            if (buffer != null) {
+                size.decrementAndGet();
+            }
+            return buffer;
+        }
+
+        boolean offer(ByteBuffer buffer) {
+            if (size.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+                buffers.add(buffer);
+                return true;
+            }
+            size.decrementAndGet();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.utils;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.CryptoCipherFactory;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
+
+/**
+ * A pool of idle ciphers shared by the streams and the one-shot helpers.
+ * Ciphers are pooled by class, transformation and properties, so a caller
+ * takes back a cipher equivalent to the one it released. Pooled ciphers must
+ * be initialized again before use.
+ */
+public final class CipherPool {
+
+    /** The maximum number of idle ciphers pooled per kind. */
+    private static final int MAX_POOLED_CIPHERS = Runtime.getRuntime()
+            .availableProcessors() * 2;
+
+    /** The properties of the kinds given without properties. */
+    private static final Properties NO_PROPERTIES = new Properties();
+
+    private static final ConcurrentMap<List<Object>, Bucket> BUCKETS = new ConcurrentHashMap<List<Object>, Bucket>();
+
+    /**
+     * The classes the factory created for a transformation and properties,
+     * to find the kind of the ciphers without creating one.
+     */
+    private static final ConcurrentMap<List<Object>, Class<?>> FACTORY_CLASSES = new ConcurrentHashMap<List<Object>, Class<?>>();
+
+    private CipherPool() {
+    }
+
+    /**
+     * Takes a cipher like the given one from the pool, or creates one of the
+     * same class, transformation and properties.
+     *
+     * @param like the cipher to take an equivalent of.
+     * @return the cipher, to be initialized before use.
+     */
+    public static CryptoCipher acquire(CryptoCipher like) {
+        CryptoCipher cipher = poll(kindOf(like.getClass(),
+                like.getTransformation(), like.getProperties()));
+        if (cipher != null) {
+            return cipher;
+        }
+        return ReflectionUtils.newInstance(like.getClass(),
+                copyOf(like.getProperties()), like.getTransformation());
+    }
+
+    /**
+     * Takes a cipher the {@link CryptoCipherFactory} would create from the
+     * pool, or creates one with the factory.
+     *
+     * @param transformation the cipher transformation.
+     * @param props the configuration properties, may be null.
+     * @return the cipher, to be initialized before use.
+     * @throws GeneralSecurityException if the cipher can't be created.
+     */
+    public static CryptoCipher acquire(CipherTransformation transformation,
+            Properties props) throws GeneralSecurityException {
+        Class<?> klass = FACTORY_CLASSES.get(Arrays.<Object> asList(
+                transformation, propertiesOf(props)));
+        CryptoCipher cipher = klass == null ? null : poll(kindOf(klass,
+                transformation, props));
+        if (cipher != null) {
+            return cipher;
+        }
+        if (klass == null) {
+            CryptoMetrics.count(CryptoMetric.CIPHER_POOL_MISS);
+        }
+        cipher = CryptoCipherFactory.getInstance(transformation, props);
+        if (klass == null) {
+            FACTORY_CLASSES.putIfAbsent(Arrays.<Object> asList(transformation,
+                    copyOf(props)), cipher.getClass());
+        }
+        return cipher;
+    }
+
+    /**
+     * Returns a cipher to the pool, or closes it if the pool is full. The
+     * cipher must not be used after it's released; a cipher that failed
+     * should be closed instead.
+     *
+     * @param cipher the cipher, may be null.
+     */
+    public static void release(CryptoCipher cipher) {
+        if (cipher == null) {
+            return;
+        }
+        Bucket bucket = BUCKETS.get(kindOf(cipher.getClass(),
+                cipher.getTransformation(), cipher.getProperties()));
+        if (bucket == null) {
+            Bucket created = new Bucket();
+            bucket = BUCKETS.putIfAbsent(Arrays.<Object> asList(
+                    cipher.getClass(), cipher.getTransformation(),
+                    copyOf(cipher.getProperties())), created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        if (!bucket.offer(cipher)) {
+            IOUtils.cleanup(null, cipher);
+        }
+    }
+
+    /**
+     * Takes a cipher of the given kind from the pool, counting the hit or
+     * miss.
+     */
+    private static CryptoCipher poll(List<Object> kind) {
+        Bucket bucket = BUCKETS.get(kind);
+        CryptoCipher cipher = bucket == null ? null : bucket.poll();
+        CryptoMetrics.count(cipher != null ? CryptoMetric.CIPHER_POOL_HIT
+                : CryptoMetric.CIPHER_POOL_MISS);
+        return cipher;
+    }
+
+    /**
+     * Gets the kind of a cipher to look up a bucket. The properties aren't
+     * copied; the keys stored in the maps hold a copy instead, so that a
+     * change of the caller's properties doesn't change them.
+     */
+    private static List<Object> kindOf(Class<?> klass,
+            CipherTransformation transformation, Properties props) {
+        return Arrays.<Object> asList(klass, transformation,
+                propertiesOf(props));
+    }
+
+    private static Properties propertiesOf(Properties props) {
+        return props == null ? NO_PROPERTIES : props;
+    }
+
+    private static Properties copyOf(Properties props) {
+        Properties copy = new Properties();
+        if (props != null) {
+            copy.putAll(props);
+        }
+        return copy;
+    }
+
+    private static class Bucket {
+        private final Queue<CryptoCipher> ciphers = new ConcurrentLinkedQueue<CryptoCipher>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        CryptoCipher poll() {
+            CryptoCipher cipher = ciphers.poll();
+            if (cipher != null) {
+                size.decrementAndGet();
+            }
+            return cipher;
+        }
+
+        boolean offer(CryptoCipher cipher) {
+            if (size.incrementAndGet() <= MAX_POOLED_CIPHERS) {
+                ciphers.add(cipher);
+                return true;
+            }
+            size.decrementAndGet();
+            return false;
+        }
+    }
+}
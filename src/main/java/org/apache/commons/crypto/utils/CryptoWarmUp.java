@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Properties;
+
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.Openssl;
+import org.apache.commons.crypto.random.CryptoRandom;
+import org.apache.commons.crypto.random.CryptoRandomFactory;
+import org.apache.commons.crypto.random.OpensslCryptoRandom;
+
+/**
+ * Runs the lazy initialization of the crypto stack ahead of its first use:
+ * the configuration file, the native library, OpenSSL, the configured cipher
+ * and random classes. Calling it at startup, or in the training run of an
+ * AppCDS archive, moves that cost out of the first request.
+ */
+public final class CryptoWarmUp {
+
+    private CryptoWarmUp() {
+    }
+
+    /**
+     * Initializes the crypto stack with the default configuration.
+     *
+     * @throws IOException if the cipher or random can't be created.
+     */
+    public static void warmUp() throws IOException {
+        warmUp(new Properties());
+    }
+
+    /**
+     * Initializes the crypto stack for the given configuration, encrypting
+     * one block with the configured AES/CTR cipher and reading bytes from
+     * the configured random.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @throws IOException if the cipher or random can't be created.
+     */
+    public static void warmUp(Properties props) throws IOException {
+        if (NativeCodeLoader.isNativeCodeLoaded()) {
+            Openssl.getLoadingFailureReason();
+            OpensslCryptoRandom.isNativeCodeLoaded();
+        }
+
+        CipherTransformation transformation = CipherTransformation.AES_CTR_NOPADDING;
+        int blockSize = transformation.getAlgorithmBlockSize();
+        CryptoCipher cipher = Utils.getCipherInstance(transformation, props);
+        ByteBuffer inBuffer = ByteBuffer.allocateDirect(blockSize);
+        ByteBuffer outBuffer = ByteBuffer.allocateDirect(blockSize);
+        try {
+            cipher.init(CryptoCipher.ENCRYPT_MODE, new SecretKeySpec(
+                    new byte[16], "AES"), new IvParameterSpec(
+                    new byte[blockSize]));
+            cipher.update(inBuffer, outBuffer);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        } finally {
+            cipher.close();
+            Utils.freeDirectBuffer(inBuffer);
+            Utils.freeDirectBuffer(outBuffer);
+        }
+
+        CryptoRandom random;
+        try {
+            random = CryptoRandomFactory.getCryptoRandom(props);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        try {
+            random.nextBytes(new byte[blockSize]);
+        } finally {
+            random.close();
+        }
+    }
+}
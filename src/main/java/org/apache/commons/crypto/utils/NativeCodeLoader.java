@@ -18,18 +18,25 @@
 package org.apache.commons.crypto.utils;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Properties;
 import java.util.UUID;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
+
 /**
  * A helper to load the native code i.e. libcommons-crypto.so. This handles the
  * fallback to either the bundled libcommons-crypto-Linux-i386-32.so or the
@@ -39,17 +46,25 @@ public class NativeCodeLoader {
 
     private static final Log LOG = LogFactory.getLog(NativeCodeLoader.class);
 
-    private final static boolean nativeCodeLoaded;
-
     private NativeCodeLoader() {
     }
 
-    static {
+    /**
+     * Loads the native library at the first call of
+     * {@link #isNativeCodeLoaded()}, so {@link #loadInBackground()} can start
+     * it without waiting.
+     */
+    private static final class Holder {
+        static final boolean nativeCodeLoaded = load();
+    }
+
+    private static boolean load() {
         // Try to load native library and set fallback flag appropriately
         if (LOG.isDebugEnabled()) {
             LOG.debug("Trying to load the custom-built native-commons-crypto library...");
         }
 
+        long start = CryptoMetrics.start();
         boolean nativeLoaded = false;
         try {
             File nativeLibFile = findNativeLibrary();
@@ -62,6 +77,7 @@ public class NativeCodeLoader {
             }
             LOG.debug("Loaded the native library");
             nativeLoaded = true;
+            CryptoMetrics.record(CryptoMetric.NATIVE_LOAD, 0, start);
         } catch (Throwable t) {
             // Ignore failure to load
             if (LOG.isDebugEnabled()) {
@@ -71,11 +87,27 @@ public class NativeCodeLoader {
             }
         }
 
-        nativeCodeLoaded = nativeLoaded;
-        if (!nativeCodeLoaded) {
+        if (!nativeLoaded) {
             LOG.warn("Unable to load native library for the platform... "
                     + "using builtin-java classes where applicable");
         }
+        return nativeLoaded;
+    }
+
+    /**
+     * Starts extracting and loading the native library on a daemon thread,
+     * so that it overlaps with the start of the application. The first
+     * caller of {@link #isNativeCodeLoaded()} waits only for what is left.
+     */
+    public static void loadInBackground() {
+        Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                isNativeCodeLoaded();
+            }
+        }, "commons-crypto-native-loader");
+        loader.setDaemon(true);
+        loader.start();
     }
 
     static File findNativeLibrary() {
@@ -121,11 +153,126 @@ public class NativeCodeLoader {
         // commons-crypto.tempdir or java.io.tmpdir
         String tempFolder = new File(Utils.getTmpDir()).getAbsolutePath();
 
+        // Reuse or extract a native library in the cache directory
+        String cacheFolder = Utils.getLibCacheDir();
+        if (cacheFolder != null) {
+            File cachedLibFile = extractCachedLibraryFile(nativeLibraryPath,
+                    nativeLibraryName, new File(cacheFolder));
+            if (cachedLibFile != null) {
+                return cachedLibFile;
+            }
+        }
+
         // Extract and load a native library inside the jar file
         return extractLibraryFile(nativeLibraryPath, nativeLibraryName,
                 tempFolder);
     }
 
+    /**
+     * Extracts the specified library file to the cache folder under a name
+     * holding the SHA-256 of its content. A file of that name left by an
+     * earlier JVM is compared with the library and reused without being
+     * written again. A new file is written aside and renamed, so concurrent
+     * JVMs never load a partly written library.
+     *
+     * @param libFolderForCurrentOS the library folder inside the jar.
+     * @param libraryFileName the library name.
+     * @param cacheFolder the cache folder.
+     * @return the library file, null if it can't be cached.
+     */
+    static File extractCachedLibraryFile(String libFolderForCurrentOS,
+            String libraryFileName, File cacheFolder) {
+        try {
+            byte[] content = readResource(libFolderForCurrentOS + "/"
+                    + libraryFileName);
+            String cachedLibFileName = String.format(
+                    "commons-crypto-%s-%s-%s", getVersion(),
+                    sha256Hex(content), libraryFileName);
+            File cachedLibFile = new File(cacheFolder, cachedLibFileName);
+            if (isCachedLibraryFile(cachedLibFile, content)) {
+                return cachedLibFile;
+            }
+
+            if (!cacheFolder.isDirectory() && !cacheFolder.mkdirs()
+                    && !cacheFolder.isDirectory()) {
+                LOG.warn("Unable to create cache folder " + cacheFolder);
+                return null;
+            }
+            File tempLibFile = new File(cacheFolder, cachedLibFileName + "."
+                    + UUID.randomUUID() + ".tmp");
+            try {
+                FileOutputStream writer = new FileOutputStream(tempLibFile);
+                try {
+                    writer.write(content);
+                } finally {
+                    writer.close();
+                }
+                if (!tempLibFile.setReadable(true)
+                        || !tempLibFile.setExecutable(true)) {
+                    return null;
+                }
+                // Another JVM may have renamed its copy first, either one is
+                // fine as long as the content is the library.
+                tempLibFile.renameTo(cachedLibFile);
+            } finally {
+                if (tempLibFile.exists() && !tempLibFile.delete()) {
+                    tempLibFile.deleteOnExit();
+                }
+            }
+            return isCachedLibraryFile(cachedLibFile, content) ? cachedLibFile
+                    : null;
+        } catch (IOException e) {
+            LOG.warn("Unable to cache native library in " + cacheFolder, e);
+            return null;
+        }
+    }
+
+    private static boolean isCachedLibraryFile(File file, byte[] content)
+            throws IOException {
+        if (!file.isFile() || file.length() != content.length) {
+            return false;
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            return contentsEquals(new ByteArrayInputStream(content), in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readResource(String path) throws IOException {
+        InputStream in = NativeCodeLoader.class.getResourceAsStream(path);
+        if (in == null) {
+            throw new IOException("Resource not found: " + path);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String sha256Hex(byte[] content) throws IOException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+                    content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
     /**
      * Extracts the specified library file to the target folder.
      *
@@ -281,6 +428,6 @@ public class NativeCodeLoader {
      * @return <code>true</code> if native is loaded, else <code>false</code>.
      */
     public static boolean isNativeCodeLoaded() {
-        return nativeCodeLoaded;
+        return Holder.nativeCodeLoaded;
     }
 }
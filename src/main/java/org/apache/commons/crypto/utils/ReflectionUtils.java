@@ -136,7 +136,7 @@ public class ReflectionUtils {
      *         <code>defaultValue</code>.
      */
     public static Class<?> getClass(String name, Class<?> defaultValue) {
-        String valueString = System.getProperty(name);
+        String valueString = Utils.getSystemProperty(name, null);
         if (valueString == null) {
             return defaultValue;
         }
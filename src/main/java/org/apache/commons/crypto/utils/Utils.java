@@ -19,6 +19,8 @@ package org.apache.commons.crypto.utils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
@@ -26,13 +28,22 @@ import java.util.Enumeration;
 import java.util.List;
 import java.util.Properties;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
 import org.apache.commons.crypto.cipher.CryptoCipher;
 import org.apache.commons.crypto.cipher.CryptoCipherFactory;
 import org.apache.commons.crypto.cipher.CipherTransformation;
 import org.apache.commons.crypto.conf.ConfigurationKeys;
 
+import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_STREAM_BUFFER_ADAPTIVE_DEFAULT;
+import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_STREAM_BUFFER_ADAPTIVE_KEY;
+import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_STREAM_BUFFER_MAX_SIZE_DEFAULT;
+import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_STREAM_BUFFER_MAX_SIZE_KEY;
 import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_STREAM_BUFFER_SIZE_DEFAULT;
 import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_STREAM_BUFFER_SIZE_KEY;
+import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_STREAM_SEGMENT_SIZE_DEFAULT;
+import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_STREAM_SEGMENT_SIZE_KEY;
 import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_CIPHER_CLASSES_DEFAULT;
 import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_CIPHER_CLASSES_KEY;
 import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_CIPHER_JCE_PROVIDER_KEY;
@@ -42,12 +53,17 @@ import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_SE
 import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_SECURE_RANDOM_DEVICE_FILE_PATH_KEY;
 import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_SYSTEM_PROPERTIES_FILE;
 import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_LIB_TEMPDIR_KEY;
+import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_LIB_CACHEDIR_KEY;
+import static org.apache.commons.crypto.conf.ConfigurationKeys.COMMONS_CRYPTO_OPENSSL_LIBRARY_KEY;
 
 /**
  * General utility methods.
  */
 public class Utils {
-    private static final int MIN_BUFFER_SIZE = 512;
+    /** The minimum buffer size of streams. */
+    public static final int MIN_BUFFER_SIZE = 512;
+
+    private static final String HMAC_SHA256 = "HmacSHA256";
 
     protected static final CipherTransformation AES_CTR_NOPADDING = CipherTransformation.AES_CTR_NOPADDING;
 
@@ -60,11 +76,63 @@ public class Utils {
     private static final int AES_BLOCK_SIZE = AES_CTR_NOPADDING
             .getAlgorithmBlockSize();
 
+    /** Thread#isVirtual() of Java 21, null on earlier versions. */
+    private static final Method IS_VIRTUAL = getIsVirtualMethod();
+
     private Utils() {
     }
 
-    static {
-        loadSystemProperties();
+    private static Method getIsVirtualMethod() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up Unsafe#invokeCleaner(ByteBuffer) of Java 9 and later at the
+     * first freed buffer, not when Utils is initialized. Direct buffers are
+     * freed through it now that their cleaner is no longer accessible.
+     */
+    private static final class CleanerHolder {
+        /** The Unsafe instance, null on Java 8 and earlier. */
+        static final Object UNSAFE;
+
+        /** Unsafe#invokeCleaner(ByteBuffer), null on Java 8 and earlier. */
+        static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner",
+                        ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafe = theUnsafe.get(null);
+            } catch (Exception e) {
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = unsafe != null ? invokeCleaner : null;
+        }
+    }
+
+    /**
+     * Loads the configuration file at the first read of a system property,
+     * not when Utils is initialized, so that classes archived or initialized
+     * ahead of time don't capture the build environment.
+     */
+    private static final class SystemPropertiesHolder {
+        static {
+            loadSystemProperties();
+        }
+
+        static String getProperty(String key, String defaultValue) {
+            return System.getProperty(key, defaultValue);
+        }
     }
 
     /**
@@ -99,12 +167,48 @@ public class Utils {
         }
     }
 
+    /**
+     * Gets a system property, after the properties of the configuration file
+     * {@link ConfigurationKeys#COMMONS_CRYPTO_SYSTEM_PROPERTIES_FILE} are
+     * loaded.
+     *
+     * @param key the name of the system property.
+     * @param defaultValue the default value.
+     * @return the value of the system property, or the default value.
+     */
+    public static String getSystemProperty(String key, String defaultValue) {
+        return SystemPropertiesHolder.getProperty(key, defaultValue);
+    }
+
+    /**
+     * Allocates a direct or a heap buffer.
+     *
+     * @param capacity the capacity of the buffer.
+     * @param direct whether to allocate a direct buffer.
+     * @return the new buffer.
+     */
+    public static ByteBuffer allocateBuffer(int capacity, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer
+                .allocate(capacity);
+    }
+
     /**
      * Forcibly free the direct buffer.
      *
      * @param buffer the bytebuffer to be freed.
      */
     public static void freeDirectBuffer(ByteBuffer buffer) {
+        if (CleanerHolder.INVOKE_CLEANER != null) {
+            if (buffer.isDirect()) {
+                try {
+                    CleanerHolder.INVOKE_CLEANER.invoke(CleanerHolder.UNSAFE,
+                            buffer);
+                } catch (Exception e) {
+                    // A slice or duplicate, freed with the buffer it views
+                }
+            }
+            return;
+        }
         if (buffer instanceof sun.nio.ch.DirectBuffer) {
             final sun.misc.Cleaner bufferCleaner = ((sun.nio.ch.DirectBuffer) buffer)
                     .cleaner();
@@ -123,8 +227,8 @@ public class Utils {
         String bufferSizeStr = props
                 .getProperty(COMMONS_CRYPTO_STREAM_BUFFER_SIZE_KEY);
         if (bufferSizeStr == null || bufferSizeStr.isEmpty()) {
-            bufferSizeStr = System
-                    .getProperty(COMMONS_CRYPTO_STREAM_BUFFER_SIZE_KEY);
+            bufferSizeStr = getSystemProperty(
+                    COMMONS_CRYPTO_STREAM_BUFFER_SIZE_KEY, null);
         }
         if (bufferSizeStr == null || bufferSizeStr.isEmpty()) {
             return COMMONS_CRYPTO_STREAM_BUFFER_SIZE_DEFAULT;
@@ -133,6 +237,69 @@ public class Utils {
         }
     }
 
+    /**
+     * Reads whether streams adapt their buffer size.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @return true if streams adapt their buffer size.
+     * */
+    public static boolean isBufferAdaptive(Properties props) {
+        String adaptiveStr = props
+                .getProperty(COMMONS_CRYPTO_STREAM_BUFFER_ADAPTIVE_KEY);
+        if (adaptiveStr == null || adaptiveStr.isEmpty()) {
+            adaptiveStr = getSystemProperty(
+                    COMMONS_CRYPTO_STREAM_BUFFER_ADAPTIVE_KEY, null);
+        }
+        if (adaptiveStr == null || adaptiveStr.isEmpty()) {
+            return COMMONS_CRYPTO_STREAM_BUFFER_ADAPTIVE_DEFAULT;
+        } else {
+            return Boolean.parseBoolean(adaptiveStr);
+        }
+    }
+
+    /**
+     * Reads the maximum buffer size of adaptive streams.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @return the maximum buffer size.
+     * */
+    public static int getMaxBufferSize(Properties props) {
+        String maxSizeStr = props
+                .getProperty(COMMONS_CRYPTO_STREAM_BUFFER_MAX_SIZE_KEY);
+        if (maxSizeStr == null || maxSizeStr.isEmpty()) {
+            maxSizeStr = getSystemProperty(
+                    COMMONS_CRYPTO_STREAM_BUFFER_MAX_SIZE_KEY, null);
+        }
+        if (maxSizeStr == null || maxSizeStr.isEmpty()) {
+            return COMMONS_CRYPTO_STREAM_BUFFER_MAX_SIZE_DEFAULT;
+        } else {
+            return Integer.parseInt(maxSizeStr);
+        }
+    }
+
+    /**
+     * Reads crypto segment size of the segmented stream.
+     *
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @return the segment size.
+     * */
+    public static int getSegmentSize(Properties props) {
+        String segmentSizeStr = props
+                .getProperty(COMMONS_CRYPTO_STREAM_SEGMENT_SIZE_KEY);
+        if (segmentSizeStr == null || segmentSizeStr.isEmpty()) {
+            segmentSizeStr = getSystemProperty(
+                    COMMONS_CRYPTO_STREAM_SEGMENT_SIZE_KEY, null);
+        }
+        if (segmentSizeStr == null || segmentSizeStr.isEmpty()) {
+            return COMMONS_CRYPTO_STREAM_SEGMENT_SIZE_DEFAULT;
+        } else {
+            return Integer.parseInt(segmentSizeStr);
+        }
+    }
+
     /**
      * Gets the cipher class.
      *
@@ -144,7 +311,7 @@ public class Utils {
         final String configName = COMMONS_CRYPTO_CIPHER_CLASSES_KEY;
         String cipherClassString = props.getProperty(configName) != null ? props
                 .getProperty(configName, COMMONS_CRYPTO_CIPHER_CLASSES_DEFAULT)
-                : System.getProperty(configName,
+                : getSystemProperty(configName,
                         COMMONS_CRYPTO_CIPHER_CLASSES_DEFAULT);
         if (cipherClassString.isEmpty()) {
             cipherClassString = COMMONS_CRYPTO_CIPHER_CLASSES_DEFAULT;
@@ -161,8 +328,9 @@ public class Utils {
      */
     public static String getJCEProvider(Properties props) {
         return props.getProperty(COMMONS_CRYPTO_CIPHER_JCE_PROVIDER_KEY) != null ? props
-                .getProperty(COMMONS_CRYPTO_CIPHER_JCE_PROVIDER_KEY) : System
-                .getProperty(COMMONS_CRYPTO_CIPHER_JCE_PROVIDER_KEY);
+                .getProperty(COMMONS_CRYPTO_CIPHER_JCE_PROVIDER_KEY)
+                : getSystemProperty(COMMONS_CRYPTO_CIPHER_JCE_PROVIDER_KEY,
+                        null);
     }
 
     /**
@@ -176,7 +344,7 @@ public class Utils {
         String devPath = props
                 .getProperty(COMMONS_CRYPTO_SECURE_RANDOM_DEVICE_FILE_PATH_KEY);
         if (devPath == null) {
-            devPath = System.getProperty(
+            devPath = getSystemProperty(
                     COMMONS_CRYPTO_SECURE_RANDOM_DEVICE_FILE_PATH_KEY,
                     COMMONS_CRYPTO_SECURE_RANDOM_DEVICE_FILE_PATH_DEFAULT);
         }
@@ -189,7 +357,7 @@ public class Utils {
      * @return the path of native library.
      */
     public static String getLibPath() {
-        return System.getProperty(COMMONS_CRYPTO_LIB_PATH_KEY);
+        return getSystemProperty(COMMONS_CRYPTO_LIB_PATH_KEY, null);
     }
 
     /**
@@ -198,7 +366,7 @@ public class Utils {
      * @return the file name of native library.
      */
     public static String getLibName() {
-        return System.getProperty(COMMONS_CRYPTO_LIB_NAME_KEY);
+        return getSystemProperty(COMMONS_CRYPTO_LIB_NAME_KEY, null);
     }
 
     /**
@@ -207,10 +375,41 @@ public class Utils {
      * @return the temp directory.
      */
     public static String getTmpDir() {
-        return System.getProperty(COMMONS_CRYPTO_LIB_TEMPDIR_KEY,
+        return getSystemProperty(COMMONS_CRYPTO_LIB_TEMPDIR_KEY,
                 System.getProperty("java.io.tmpdir"));
     }
 
+    /**
+     * Gets the persistent directory for extracting crypto library.
+     *
+     * @return the cache directory, null if the library is extracted into the
+     *         temp directory on each start.
+     */
+    public static String getLibCacheDir() {
+        return getSystemProperty(COMMONS_CRYPTO_LIB_CACHEDIR_KEY, null);
+    }
+
+    /**
+     * Gets the name of the OpenSSL crypto library, the same library the JNI
+     * code loads by default.
+     *
+     * @return the library name or path based on system properties.
+     */
+    public static String getOpensslLibraryName() {
+        String name = getSystemProperty(COMMONS_CRYPTO_OPENSSL_LIBRARY_KEY,
+                null);
+        if (name != null && !name.isEmpty()) {
+            return name;
+        }
+        String os = OSInfo.getOSName();
+        if ("Windows".equals(os)) {
+            return "libcrypto.dll";
+        } else if ("Mac".equals(os)) {
+            return "libcrypto.dylib";
+        }
+        return "libcrypto.so";
+    }
+
     /**
      * Checks whether the cipher is supported streaming.
      *
@@ -238,6 +437,24 @@ public class Utils {
                 % cipher.getTransformation().getAlgorithmBlockSize();
     }
 
+    /**
+     * Checks the segment size of the segmented stream. Unlike the buffer size
+     * it is part of the data format, so it is not floored but it must be a
+     * multiple of the algorithm block size.
+     *
+     * @param cipher the {@link CryptoCipher} instance.
+     * @param segmentSize the segment size.
+     * @return the segment size.
+     */
+    public static int checkSegmentSize(CryptoCipher cipher, int segmentSize) {
+        checkArgument(segmentSize >= MIN_BUFFER_SIZE,
+                "Minimum value of segment size is " + MIN_BUFFER_SIZE + ".");
+        checkArgument(segmentSize
+                % cipher.getTransformation().getAlgorithmBlockSize() == 0,
+                "Segment size must be a multiple of the block size.");
+        return segmentSize;
+    }
+
     /**
      * <p>
      * This method is only for Counter (CTR) mode. Generally the CryptoCipher
@@ -279,6 +496,45 @@ public class Utils {
         }
     }
 
+    /**
+     * Derives a HMAC-SHA256 key from the cipher key, so that the same key
+     * material is never used directly for both encryption and authentication.
+     * The derived key is HMAC-SHA256(key, label).
+     *
+     * @param key the cipher key.
+     * @param label the label which separates the usages of the derived key.
+     * @return the derived HMAC-SHA256 key.
+     * @throws IOException if HMAC-SHA256 is not available.
+     */
+    public static SecretKeySpec deriveMacKey(byte[] key, String label)
+            throws IOException {
+        try {
+            Mac mac = Mac.getInstance(HMAC_SHA256);
+            mac.init(new SecretKeySpec(key, HMAC_SHA256));
+            return new SecretKeySpec(mac.doFinal(label.getBytes("UTF-8")),
+                    HMAC_SHA256);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Creates a HMAC-SHA256 instance initialized with the given key.
+     *
+     * @param macKey the HMAC-SHA256 key.
+     * @return the Mac instance.
+     * @throws IOException if HMAC-SHA256 is not available.
+     */
+    public static Mac getMacInstance(SecretKeySpec macKey) throws IOException {
+        try {
+            Mac mac = Mac.getInstance(HMAC_SHA256);
+            mac.init(macKey);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
     /**
      * Helper method to create a CryptoCipher instance and throws only
      * IOException.
@@ -357,6 +613,23 @@ public class Utils {
         }
     }
 
+    /**
+     * Checks whether the current thread is a virtual thread.
+     *
+     * @return true if the current thread is a virtual thread of Java 21 or
+     *         later.
+     */
+    public static boolean isVirtualThread() {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (Boolean) IS_VIRTUAL.invoke(Thread.currentThread());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     /**
      * Splits class names sequence into substrings, Trim each substring into an
      * entry,and returns an list of the entries.
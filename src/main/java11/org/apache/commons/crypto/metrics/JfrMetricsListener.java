@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+
+/**
+ * A {@link CryptoMetricsListener} committing Java Flight Recorder events, so
+ * the time spent in ciphers shows up in recordings instead of opaque native
+ * frames. Enable it with
+ * <code>-Dcommons.crypto.metrics.enabled=true
+ * -Dcommons.crypto.metrics.listener.class=org.apache.commons.crypto.metrics.JfrMetricsListener</code>.
+ * Each event type is checked with {@link Event#isEnabled()} before anything
+ * is filled in. Pool hits are not recorded.
+ * <p>
+ * Events are committed once the operation is done, so the operation time is
+ * in the <code>latency</code> field rather than the event duration.
+ * </p>
+ */
+public class JfrMetricsListener implements CryptoMetricsListener {
+
+    /**
+     * Constructs a {@link JfrMetricsListener}.
+     */
+    public JfrMetricsListener() {
+    }
+
+    @Override
+    public void record(CryptoMetric metric, long bytes, long nanos) {
+        switch (metric) {
+        case CIPHER_UPDATE:
+        case CIPHER_DO_FINAL:
+            CipherOperationEvent cipherEvent = new CipherOperationEvent();
+            if (cipherEvent.isEnabled()) {
+                cipherEvent.operation = metric.name();
+                cipherEvent.bytes = bytes;
+                cipherEvent.latency = nanos;
+                cipherEvent.commit();
+            }
+            break;
+        case STREAM_ENCRYPT:
+        case STREAM_DECRYPT:
+            StreamOperationEvent streamEvent = new StreamOperationEvent();
+            if (streamEvent.isEnabled()) {
+                streamEvent.operation = metric.name();
+                streamEvent.bytes = bytes;
+                streamEvent.latency = nanos;
+                streamEvent.commit();
+            }
+            break;
+        case RANDOM_BYTES:
+            RandomBytesEvent randomEvent = new RandomBytesEvent();
+            if (randomEvent.isEnabled()) {
+                randomEvent.bytes = bytes;
+                randomEvent.latency = nanos;
+                randomEvent.commit();
+            }
+            break;
+        case BUFFER_POOL_MISS:
+        case CIPHER_POOL_MISS:
+            PoolMissEvent poolEvent = new PoolMissEvent();
+            if (poolEvent.isEnabled()) {
+                poolEvent.pool = metric == CryptoMetric.BUFFER_POOL_MISS
+                        ? "buffer" : "cipher";
+                poolEvent.commit();
+            }
+            break;
+        case NATIVE_LOAD:
+            NativeLoadEvent loadEvent = new NativeLoadEvent();
+            if (loadEvent.isEnabled()) {
+                loadEvent.latency = nanos;
+                loadEvent.commit();
+            }
+            break;
+        default:
+            // CIPHER_INIT comes through recordInit, pool hits are too
+            // frequent to be worth an event.
+            break;
+        }
+    }
+
+    @Override
+    public void recordInit(CipherTransformation transformation,
+            String provider, long nanos) {
+        CipherInitEvent event = new CipherInitEvent();
+        if (event.isEnabled()) {
+            event.transformation = transformation.getName();
+            event.provider = provider;
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    @Name("org.apache.commons.crypto.CipherInit")
+    @Label("Cipher Init")
+    @Category("Commons Crypto")
+    @StackTrace(false)
+    static class CipherInitEvent extends Event {
+        @Label("Transformation")
+        String transformation;
+
+        @Label("Provider")
+        String provider;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("org.apache.commons.crypto.CipherOperation")
+    @Label("Cipher Operation")
+    @Description("A cipher update or doFinal call")
+    @Category("Commons Crypto")
+    @StackTrace(false)
+    static class CipherOperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("org.apache.commons.crypto.StreamOperation")
+    @Label("Stream Operation")
+    @Description("Encrypting or decrypting a buffer of a crypto stream")
+    @Category("Commons Crypto")
+    @StackTrace(false)
+    static class StreamOperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("org.apache.commons.crypto.RandomBytes")
+    @Label("Random Bytes")
+    @Category("Commons Crypto")
+    @StackTrace(false)
+    static class RandomBytesEvent extends Event {
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("org.apache.commons.crypto.PoolMiss")
+    @Label("Pool Miss")
+    @Description("A buffer or cipher created because its pool was empty")
+    @Category("Commons Crypto")
+    static class PoolMissEvent extends Event {
+        @Label("Pool")
+        String pool;
+    }
+
+    @Name("org.apache.commons.crypto.NativeLoad")
+    @Label("Native Library Load")
+    @Category("Commons Crypto")
+    static class NativeLoadEvent extends Event {
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+}
@@ -0,0 +1,386 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Properties;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.CryptoCipherUtils;
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
+import org.apache.commons.crypto.utils.IOUtils;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * A {@link Flow.Processor} encrypting or decrypting a stream of buffers. Each
+ * buffer received from upstream is run through {@link CryptoCipher#update}
+ * on the direct buffers of the processor and emitted as one heap buffer, so
+ * encryption runs inline on the thread delivering the data. The final block
+ * is emitted when upstream completes.
+ * <p>
+ * Demand is passed through: a request of n buffers from the subscriber
+ * requests n buffers from upstream, plus one more for each buffer whose
+ * update produced no output, e.g. less than a block in CBC mode. The
+ * processor accepts a single subscriber and closes the cipher when the
+ * stream completes, fails or is cancelled.
+ * </p>
+ */
+public class CryptoProcessor implements Flow.Processor<ByteBuffer, ByteBuffer> {
+
+    private final CryptoCipher cipher;
+    private final int mode;
+    private final int bufferSize;
+
+    /** The direct buffers of the cipher, freed once the stream is done. */
+    private final ByteBuffer inBuffer;
+    private final ByteBuffer outBuffer;
+
+    /** Buffers requested by the subscriber and not delivered yet. */
+    private final AtomicLong demand = new AtomicLong();
+
+    /**
+     * Guards the subscriptions, the cipher and its buffers, and the final
+     * block.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super ByteBuffer> subscriber;
+    private ByteBuffer finalBuffer;
+    private boolean upstreamDone;
+    private boolean done;
+
+    /**
+     * Constructs a {@link CryptoProcessor}.
+     *
+     * @param mode {@link CryptoCipher#ENCRYPT_MODE} or
+     *        {@link CryptoCipher#DECRYPT_MODE}.
+     * @param transformation the cipher transformation.
+     * @param props The <code>Properties</code> class represents a set of
+     *        properties.
+     * @param key crypto key for the cipher.
+     * @param params the algorithm parameters.
+     * @throws IOException if the cipher can't be created or initialized.
+     */
+    public CryptoProcessor(int mode, CipherTransformation transformation,
+            Properties props, Key key, AlgorithmParameterSpec params)
+            throws IOException {
+        this(mode, Utils.getCipherInstance(transformation, props),
+                Utils.getBufferSize(props), key, params);
+    }
+
+    /**
+     * Constructs a {@link CryptoProcessor}.
+     *
+     * @param mode {@link CryptoCipher#ENCRYPT_MODE} or
+     *        {@link CryptoCipher#DECRYPT_MODE}.
+     * @param cipher the CryptoCipher instance, closed by the processor.
+     * @param bufferSize the size of the direct buffers of the cipher.
+     * @param key crypto key for the cipher.
+     * @param params the algorithm parameters.
+     * @throws IOException if the cipher can't be initialized.
+     */
+    public CryptoProcessor(int mode, CryptoCipher cipher, int bufferSize,
+            Key key, AlgorithmParameterSpec params) throws IOException {
+        Utils.checkArgument(mode == CryptoCipher.ENCRYPT_MODE
+                || mode == CryptoCipher.DECRYPT_MODE, "Invalid mode: " + mode);
+        this.cipher = cipher;
+        this.mode = mode;
+        this.bufferSize = Utils.checkBufferSize(cipher, bufferSize);
+        try {
+            cipher.init(mode, key, params);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        boolean direct = CryptoCipherUtils.isDirectBufferPreferred(cipher);
+        inBuffer = Utils.allocateBuffer(this.bufferSize, direct);
+        outBuffer = Utils.allocateBuffer(this.bufferSize
+                + cipher.getTransformation().getAlgorithmBlockSize(), direct);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        Utils.checkNotNull(subscriber);
+        lock.lock();
+        try {
+            if (this.subscriber != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException(
+                        "CryptoProcessor accepts a single subscriber"));
+                return;
+            }
+            this.subscriber = subscriber;
+        } finally {
+            lock.unlock();
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                CryptoProcessor.this.request(n);
+            }
+
+            @Override
+            public void cancel() {
+                CryptoProcessor.this.cancel();
+            }
+        });
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        long pending;
+        lock.lock();
+        try {
+            if (upstream != null || done) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            pending = demand.get();
+        } finally {
+            lock.unlock();
+        }
+        if (pending > 0) {
+            subscription.request(pending);
+        }
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+        ByteBuffer result;
+        lock.lock();
+        try {
+            if (done) {
+                return;
+            }
+            // Under the lock so a concurrent cancel can't free the buffers
+            result = update(item);
+        } catch (IOException e) {
+            upstream.cancel();
+            fail(e);
+            return;
+        } finally {
+            lock.unlock();
+        }
+        if (result.hasRemaining()) {
+            demand.decrementAndGet();
+            subscriber.onNext(result);
+        } else {
+            // Nothing to emit yet, ask upstream for the buffer not delivered
+            upstream.request(1);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        lock.lock();
+        try {
+            if (done) {
+                return;
+            }
+            finalBuffer = doFinal();
+            upstreamDone = true;
+            emitFinal();
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void request(long n) {
+        if (n <= 0) {
+            // Not cancel(), which would end the stream without the error
+            Flow.Subscription subscription;
+            lock.lock();
+            try {
+                subscription = done ? null : upstream;
+            } finally {
+                lock.unlock();
+            }
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            fail(new IllegalArgumentException(
+                    "Non-positive subscription request: " + n));
+            return;
+        }
+        Flow.Subscription subscription = null;
+        lock.lock();
+        try {
+            if (done) {
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, next));
+            if (upstreamDone) {
+                emitFinal();
+            } else {
+                subscription = upstream;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (subscription != null) {
+            subscription.request(n);
+        }
+    }
+
+    private void cancel() {
+        Flow.Subscription subscription;
+        lock.lock();
+        try {
+            if (done) {
+                return;
+            }
+            done = true;
+            subscription = upstream;
+            release();
+        } finally {
+            lock.unlock();
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    /** Emits the final block once there is demand for it, then completes. */
+    private void emitFinal() {
+        if (done) {
+            return;
+        }
+        if (finalBuffer.hasRemaining()) {
+            if (demand.get() == 0) {
+                return;
+            }
+            demand.decrementAndGet();
+            subscriber.onNext(finalBuffer);
+        }
+        done = true;
+        release();
+        subscriber.onComplete();
+    }
+
+    private void fail(Throwable throwable) {
+        lock.lock();
+        try {
+            if (done) {
+                return;
+            }
+            done = true;
+            release();
+        } finally {
+            lock.unlock();
+        }
+        subscriber.onError(throwable);
+    }
+
+    private ByteBuffer update(ByteBuffer item) throws IOException {
+        long start = CryptoMetrics.start();
+        int inputSize = item.remaining();
+        ByteBuffer result = ByteBuffer.allocate(inputSize
+                + cipher.getTransformation().getAlgorithmBlockSize());
+        try {
+            while (item.hasRemaining()) {
+                int n = Math.min(item.remaining(), bufferSize);
+                ByteBuffer chunk = item.duplicate();
+                chunk.limit(chunk.position() + n);
+                inBuffer.clear();
+                inBuffer.put(chunk);
+                item.position(item.position() + n);
+                inBuffer.flip();
+                outBuffer.clear();
+                cipher.update(inBuffer, outBuffer);
+                outBuffer.flip();
+                result = ensureCapacity(result, outBuffer.remaining());
+                result.put(outBuffer);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        result.flip();
+        record(inputSize, start);
+        return result;
+    }
+
+    private ByteBuffer doFinal() throws IOException {
+        long start = CryptoMetrics.start();
+        inBuffer.clear();
+        inBuffer.flip();
+        outBuffer.clear();
+        try {
+            cipher.doFinal(inBuffer, outBuffer);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        outBuffer.flip();
+        ByteBuffer result = ByteBuffer.allocate(outBuffer.remaining());
+        result.put(outBuffer);
+        result.flip();
+        record(0, start);
+        return result;
+    }
+
+    private void record(int bytes, long start) {
+        CryptoMetrics.record(mode == CryptoCipher.ENCRYPT_MODE
+                ? CryptoMetric.STREAM_ENCRYPT : CryptoMetric.STREAM_DECRYPT,
+                bytes, start);
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(buffer.position() + needed);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private void release() {
+        IOUtils.cleanup(null, cipher);
+        Utils.freeDirectBuffer(inBuffer);
+        Utils.freeDirectBuffer(outBuffer);
+    }
+}
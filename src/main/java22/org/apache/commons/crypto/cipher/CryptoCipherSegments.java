@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.cipher;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Encrypts or decrypts {@link MemorySegment}s with a {@link CryptoCipher}.
+ * Unlike the <code>ByteBuffer</code> and <code>byte[]</code> methods of
+ * {@link CryptoCipher}, a single call is not limited to 2GB.
+ * {@link OpensslCipher} works on the native addresses of native segments
+ * directly and {@link OpensslFfmCipher} passes the segments to OpenSSL as
+ * they are. Other ciphers get the segments as <code>ByteBuffer</code> views,
+ * chunk by chunk. This class is available on Java 22 or later.
+ */
+public final class CryptoCipherSegments {
+
+    /** The chunk size for ciphers without segment support, a block multiple. */
+    private static final int CHUNK_SIZE = 1 << 30;
+
+    /**
+     * Heap segments are copied through a native buffer of this size for
+     * {@link OpensslCipher}.
+     */
+    private static final int COPY_CHUNK_SIZE = 64 * 1024;
+
+    /** Room for the block a padding cipher may hold back or release. */
+    private static final int BLOCK_SLACK = 32;
+
+    /**
+     * The private constructor of {@link CryptoCipherSegments}.
+     */
+    private CryptoCipherSegments() {
+    }
+
+    /**
+     * Continues a multiple-part encryption/decryption operation. The data is
+     * encrypted or decrypted, depending on how the cipher was initialized.
+     * The input and output may be the same segment for in-place operation.
+     *
+     * @param cipher the initialized cipher.
+     * @param input the input segment, read as a whole.
+     * @param output the output segment, written from its start.
+     * @return the number of bytes stored in output.
+     * @throws ShortBufferException if there is insufficient space in the
+     *         output segment.
+     */
+    public static long update(CryptoCipher cipher, MemorySegment input,
+            MemorySegment output) throws ShortBufferException {
+        if (cipher instanceof OpensslFfmCipher) {
+            return ((OpensslFfmCipher) cipher).update(input, output);
+        }
+        if (cipher instanceof OpensslCipher) {
+            OpensslCipher openssl = (OpensslCipher) cipher;
+            if (input.isNative() && output.isNative()) {
+                return openssl.update(input.address(), input.byteSize(),
+                        output.address(), output.byteSize());
+            }
+            return updateCopy(openssl, input, output);
+        }
+        return updateBuffers(cipher, input, output);
+    }
+
+    /**
+     * Encrypts or decrypts data in a single-part operation, or finishes a
+     * multiple-part operation.
+     *
+     * @param cipher the initialized cipher.
+     * @param input the input segment, read as a whole.
+     * @param output the output segment, written from its start.
+     * @return the number of bytes stored in output.
+     * @throws ShortBufferException if the given output segment is too small to
+     *         hold the result.
+     * @throws IllegalBlockSizeException if this cipher is a block cipher, no
+     *         padding has been requested (only in encryption mode), and the
+     *         total input length of the data processed by this cipher is not
+     *         a multiple of block size; or if this encryption algorithm is
+     *         unable to process the input data provided.
+     * @throws BadPaddingException if this cipher is in decryption mode, and
+     *         (un)padding has been requested, but the decrypted data is not
+     *         bounded by the appropriate padding bytes.
+     */
+    public static long doFinal(CryptoCipher cipher, MemorySegment input,
+            MemorySegment output) throws ShortBufferException,
+            IllegalBlockSizeException, BadPaddingException {
+        long n = update(cipher, input, output);
+        MemorySegment rest = output.asSlice(n);
+        if (cipher instanceof OpensslFfmCipher) {
+            return n + ((OpensslFfmCipher) cipher).doFinal(rest);
+        }
+        if (cipher instanceof OpensslCipher) {
+            OpensslCipher openssl = (OpensslCipher) cipher;
+            if (rest.isNative()) {
+                return n + openssl.doFinal(rest.address(), rest.byteSize());
+            }
+            byte[] last = new byte[BLOCK_SLACK];
+            int m = openssl.doFinal(last, 0, 0, last, 0);
+            if (m > rest.byteSize()) {
+                throw new ShortBufferException(
+                        "Output buffer is not sufficient.");
+            }
+            MemorySegment.copy(MemorySegment.ofArray(last), 0, rest, 0, m);
+            return n + m;
+        }
+        return n + cipher.doFinal(ByteBuffer.allocate(0), asBuffer(rest));
+    }
+
+    private static long updateBuffers(CryptoCipher cipher,
+            MemorySegment input, MemorySegment output)
+            throws ShortBufferException {
+        long inputLength = input.byteSize();
+        long done = 0;
+        long written = 0;
+        while (done < inputLength) {
+            int length = (int) Math.min(CHUNK_SIZE, inputLength - done);
+            written += cipher.update(input.asSlice(done, length)
+                    .asByteBuffer(), asBuffer(output.asSlice(written)));
+            done += length;
+        }
+        return written;
+    }
+
+    /**
+     * {@link OpensslCipher} only takes direct buffers and native addresses,
+     * so a heap segment is copied through a native buffer.
+     */
+    private static long updateCopy(OpensslCipher cipher, MemorySegment input,
+            MemorySegment output) throws ShortBufferException {
+        long inputLength = input.byteSize();
+        long done = 0;
+        long written = 0;
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment buffer = arena.allocate(COPY_CHUNK_SIZE
+                    + BLOCK_SLACK);
+            while (done < inputLength) {
+                int length = (int) Math.min(COPY_CHUNK_SIZE,
+                        inputLength - done);
+                MemorySegment.copy(input, done, buffer, 0, length);
+                long n = cipher.update(buffer.address(), length,
+                        buffer.address(), buffer.byteSize());
+                if (written + n > output.byteSize()) {
+                    throw new ShortBufferException(
+                            "Output buffer is not sufficient.");
+                }
+                MemorySegment.copy(buffer, 0, output, written, n);
+                written += n;
+                done += length;
+            }
+        }
+        return written;
+    }
+
+    /** Views at most 2GB of the segment as a ByteBuffer. */
+    private static ByteBuffer asBuffer(MemorySegment segment) {
+        return segment.asSlice(0, Math.min(segment.byteSize(),
+                Integer.MAX_VALUE)).asByteBuffer();
+    }
+}
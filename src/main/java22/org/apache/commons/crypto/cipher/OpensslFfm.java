@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.cipher;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.util.Optional;
+
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * Downcall handles into the OpenSSL crypto library, used by
+ * {@link OpensslFfmCipher} in place of the JNI code in {@link OpensslNative}.
+ */
+final class OpensslFfm {
+
+    /**
+     * Critical downcalls can't be interrupted by the GC, so heap arrays are
+     * passed in chunks of this size, as the JNI code does.
+     */
+    static final int CRITICAL_CHUNK_SIZE = 64 * 1024;
+
+    private static String loadingFailureReason;
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final SymbolLookup CRYPTO = lookup();
+
+    /** EVP_CIPHER_CTX *EVP_CIPHER_CTX_new(void) */
+    static final MethodHandle EVP_CIPHER_CTX_new = downcall(
+            "EVP_CIPHER_CTX_new", FunctionDescriptor.of(ADDRESS));
+
+    /** void EVP_CIPHER_CTX_free(EVP_CIPHER_CTX *ctx) */
+    static final MethodHandle EVP_CIPHER_CTX_free = downcall(
+            "EVP_CIPHER_CTX_free", FunctionDescriptor.ofVoid(ADDRESS));
+
+    /** int EVP_CIPHER_CTX_set_padding(EVP_CIPHER_CTX *ctx, int padding) */
+    static final MethodHandle EVP_CIPHER_CTX_set_padding = downcall(
+            "EVP_CIPHER_CTX_set_padding",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT));
+
+    /**
+     * int EVP_CipherInit_ex(EVP_CIPHER_CTX *ctx, const EVP_CIPHER *type,
+     * ENGINE *impl, const unsigned char *key, const unsigned char *iv,
+     * int enc)
+     */
+    static final MethodHandle EVP_CipherInit_ex = downcall(
+            "EVP_CipherInit_ex", FunctionDescriptor.of(JAVA_INT, ADDRESS,
+                    ADDRESS, ADDRESS, ADDRESS, ADDRESS, JAVA_INT));
+
+    /**
+     * int EVP_CipherUpdate(EVP_CIPHER_CTX *ctx, unsigned char *out,
+     * int *outl, const unsigned char *in, int inl)
+     */
+    static final MethodHandle EVP_CipherUpdate = downcall("EVP_CipherUpdate",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS,
+                    ADDRESS, JAVA_INT));
+
+    /** {@link #EVP_CipherUpdate} accepting heap segments. */
+    static final MethodHandle EVP_CipherUpdate_critical = downcall(
+            "EVP_CipherUpdate", FunctionDescriptor.of(JAVA_INT, ADDRESS,
+                    ADDRESS, ADDRESS, ADDRESS, JAVA_INT),
+            Linker.Option.critical(true));
+
+    /**
+     * int EVP_CipherFinal_ex(EVP_CIPHER_CTX *ctx, unsigned char *outm,
+     * int *outl)
+     */
+    static final MethodHandle EVP_CipherFinal_ex = downcall(
+            "EVP_CipherFinal_ex",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS));
+
+    private static final MethodHandle EVP_aes_128_ctr = evpCipher("EVP_aes_128_ctr");
+    private static final MethodHandle EVP_aes_192_ctr = evpCipher("EVP_aes_192_ctr");
+    private static final MethodHandle EVP_aes_256_ctr = evpCipher("EVP_aes_256_ctr");
+    private static final MethodHandle EVP_aes_128_cbc = evpCipher("EVP_aes_128_cbc");
+    private static final MethodHandle EVP_aes_192_cbc = evpCipher("EVP_aes_192_cbc");
+    private static final MethodHandle EVP_aes_256_cbc = evpCipher("EVP_aes_256_cbc");
+
+    /**
+     * The private constructor of {@link OpensslFfm}.
+     */
+    private OpensslFfm() {
+    }
+
+    /**
+     * Gets the failure reason when loading the OpenSSL crypto library.
+     *
+     * @return the failure reason, null if loading succeeded.
+     */
+    static String getLoadingFailureReason() {
+        return loadingFailureReason;
+    }
+
+    /**
+     * Gets the EVP_CIPHER of AES for the mode and key length.
+     *
+     * @param ctr true for CTR mode, false for CBC mode.
+     * @param keyLength the key length in bytes.
+     * @return the EVP_CIPHER pointer.
+     */
+    static MemorySegment getAesCipher(boolean ctr, int keyLength) {
+        MethodHandle handle;
+        switch (keyLength) {
+        case 16:
+            handle = ctr ? EVP_aes_128_ctr : EVP_aes_128_cbc;
+            break;
+        case 24:
+            handle = ctr ? EVP_aes_192_ctr : EVP_aes_192_cbc;
+            break;
+        case 32:
+            handle = ctr ? EVP_aes_256_ctr : EVP_aes_256_cbc;
+            break;
+        default:
+            return null;
+        }
+        try {
+            return (MemorySegment) handle.invokeExact();
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    /**
+     * Rethrows the throwable of a downcall, which is never a checked
+     * exception.
+     *
+     * @param t the throwable.
+     * @return never returns, declared so callers can write
+     *         <code>throw propagate(t)</code>.
+     */
+    static RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException(t);
+    }
+
+    private static SymbolLookup lookup() {
+        String name = Utils.getOpensslLibraryName();
+        try {
+            return SymbolLookup.libraryLookup(name, Arena.global());
+        } catch (Throwable t) {
+            loadingFailureReason = "Cannot load " + name + " (" + t + ")";
+            return null;
+        }
+    }
+
+    private static MethodHandle evpCipher(String name) {
+        return downcall(name, FunctionDescriptor.of(ADDRESS));
+    }
+
+    private static MethodHandle downcall(String name,
+            FunctionDescriptor descriptor, Linker.Option... options) {
+        if (CRYPTO == null) {
+            return null;
+        }
+        Optional<MemorySegment> symbol = CRYPTO.find(name);
+        if (symbol.isEmpty()) {
+            if (loadingFailureReason == null) {
+                loadingFailureReason = "Cannot find " + name + " in "
+                        + Utils.getOpensslLibraryName();
+            }
+            return null;
+        }
+        return LINKER.downcallHandle(symbol.get(), descriptor, options);
+    }
+}
@@ -0,0 +1,460 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.cipher;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Properties;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * Implements the CryptoCipher by calling OpenSSL through the Foreign Function
+ * &amp; Memory API instead of JNI. No native library of this project is
+ * needed, only the OpenSSL crypto library named by
+ * {@link org.apache.commons.crypto.conf.ConfigurationKeys#COMMONS_CRYPTO_OPENSSL_LIBRARY_KEY}.
+ * Run with <code>--enable-native-access=ALL-UNNAMED</code> (or the module
+ * name) to avoid the restricted method warning.
+ */
+public class OpensslFfmCipher implements CryptoCipher {
+    private static final int AES_BLOCK_SIZE = 16;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Properties props;
+    private final CipherTransformation transformation;
+    private final boolean ctr;
+    private final boolean padding;
+
+    private final MemorySegment context;
+    private final Cleaner.Cleanable cleanable;
+    /** Receives the output length of update and final. */
+    private final MemorySegment outLength;
+    /** The IV from the last init, to reset the context after doFinal. */
+    private final MemorySegment iv;
+    /** Receives the last block of EVP_CipherFinal_ex. */
+    private final MemorySegment finalBlock;
+    private boolean encrypt;
+    private boolean closed;
+
+    /**
+     * Constructs a {@link CryptoCipher} calling OpenSSL through the Foreign
+     * Function &amp; Memory API.
+     *
+     * @param props properties for OpenSSL cipher
+     * @param transformation transformation for OpenSSL cipher
+     * @throws GeneralSecurityException if OpenSSL cipher initialize failed
+     */
+    public OpensslFfmCipher(Properties props,
+            CipherTransformation transformation)
+            throws GeneralSecurityException {
+        this.props = props;
+        this.transformation = transformation;
+
+        String loadingFailureReason = OpensslFfm.getLoadingFailureReason();
+        if (loadingFailureReason != null) {
+            throw new RuntimeException(loadingFailureReason);
+        }
+
+        switch (transformation) {
+        case AES_CTR_NOPADDING:
+            ctr = true;
+            padding = false;
+            break;
+        case AES_CBC_NOPADDING:
+            ctr = false;
+            padding = false;
+            break;
+        case AES_CBC_PKCS5PADDING:
+            ctr = false;
+            padding = true;
+            break;
+        default:
+            throw new RuntimeException("Unsupported transformation: "
+                    + transformation.getName());
+        }
+
+        try {
+            context = (MemorySegment) OpensslFfm.EVP_CIPHER_CTX_new
+                    .invokeExact();
+        } catch (Throwable t) {
+            throw OpensslFfm.propagate(t);
+        }
+        if (context.equals(MemorySegment.NULL)) {
+            throw new OutOfMemoryError("Failed to allocate EVP_CIPHER_CTX");
+        }
+        cleanable = CLEANER.register(this, new ContextFree(context));
+
+        Arena arena = Arena.ofAuto();
+        outLength = arena.allocate(JAVA_INT);
+        iv = arena.allocate(AES_BLOCK_SIZE);
+        finalBlock = arena.allocate(AES_BLOCK_SIZE);
+    }
+
+    /**
+     * Gets the CipherTransformation for the openssl cipher.
+     *
+     * @return the CipherTransformation for this cipher
+     */
+    @Override
+    public CipherTransformation getTransformation() {
+        return transformation;
+    }
+
+    /**
+     * Gets the properties for the openssl cipher.
+     *
+     * @return the properties for this cipher.
+     */
+    @Override
+    public Properties getProperties() {
+        return props;
+    }
+
+    /**
+     * Returns whether this cipher works best on direct buffers, see
+     * {@link CryptoCipherUtils#isDirectBufferPreferred(CryptoCipher)}. Direct
+     * buffers are preferred, they are native segments already.
+     *
+     * @return true.
+     */
+    public boolean isDirectBufferPreferred() {
+        return true;
+    }
+
+    /**
+     * Initializes the cipher with mode, key and iv.
+     *
+     * @param mode {@link #ENCRYPT_MODE} or {@link #DECRYPT_MODE}
+     * @param key crypto key for the cipher
+     * @param params the algorithm parameters
+     * @throws InvalidKeyException If key length is invalid
+     * @throws InvalidAlgorithmParameterException if IV length is wrong
+     */
+    @Override
+    public void init(int mode, Key key, AlgorithmParameterSpec params)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+        Utils.checkNotNull(key);
+        Utils.checkNotNull(params);
+        checkState();
+
+        byte[] ivBytes;
+        if (params instanceof IvParameterSpec) {
+            ivBytes = ((IvParameterSpec) params).getIV();
+        } else {
+            // other AlgorithmParameterSpec such as GCMParameterSpec is not
+            // supported now.
+            throw new InvalidAlgorithmParameterException("Illegal parameters");
+        }
+        if (ivBytes.length != AES_BLOCK_SIZE) {
+            throw new InvalidAlgorithmParameterException(
+                    "Wrong IV length: must be 16 bytes long");
+        }
+        byte[] keyBytes = key.getEncoded();
+        MemorySegment evpCipher = OpensslFfm.getAesCipher(ctr,
+                keyBytes.length);
+        if (evpCipher == null) {
+            throw new InvalidKeyException("Invalid AES key length: "
+                    + keyBytes.length + " bytes");
+        }
+
+        long start = CryptoMetrics.start();
+        encrypt = mode == ENCRYPT_MODE;
+        iv.copyFrom(MemorySegment.ofArray(ivBytes));
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment keySegment = arena.allocate(keyBytes.length);
+            keySegment.copyFrom(MemorySegment.ofArray(keyBytes));
+            int rc = (int) OpensslFfm.EVP_CipherInit_ex.invokeExact(context,
+                    evpCipher, MemorySegment.NULL, keySegment, iv,
+                    encrypt ? 1 : 0);
+            keySegment.fill((byte) 0);
+            if (rc == 0) {
+                throw new InvalidKeyException("Error in EVP_CipherInit_ex.");
+            }
+            rc = (int) OpensslFfm.EVP_CIPHER_CTX_set_padding.invokeExact(
+                    context, padding ? 1 : 0);
+        } catch (InvalidKeyException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw OpensslFfm.propagate(t);
+        }
+        CryptoMetrics.recordInit(transformation, "OpenSSL", start);
+    }
+
+    /**
+     * Continues a multiple-part encryption/decryption operation. The data is
+     * encrypted or decrypted, depending on how this cipher was initialized.
+     *
+     * @param inBuffer the input ByteBuffer
+     * @param outBuffer the output ByteBuffer
+     * @return int number of bytes stored in <code>output</code>
+     * @throws ShortBufferException if there is insufficient space in the
+     *         output buffer
+     */
+    @Override
+    public int update(ByteBuffer inBuffer, ByteBuffer outBuffer)
+            throws ShortBufferException {
+        long start = CryptoMetrics.start();
+        int n = (int) update(MemorySegment.ofBuffer(inBuffer),
+                MemorySegment.ofBuffer(outBuffer));
+        inBuffer.position(inBuffer.limit());
+        outBuffer.position(outBuffer.position() + n);
+        CryptoMetrics.record(CryptoMetric.CIPHER_UPDATE, n, start);
+        return n;
+    }
+
+    /**
+     * Continues a multiple-part encryption/decryption operation on the
+     * remaining bytes of the buffer, storing the result over them, see
+     * {@link CryptoCipherUtils#updateInPlace(CryptoCipher, ByteBuffer)}.
+     * OpenSSL updates in place when the input and output are the same memory.
+     *
+     * @param buffer the ByteBuffer
+     * @return int number of bytes stored in <code>buffer</code>
+     * @throws ShortBufferException if the output is longer than the input
+     */
+    public int updateInPlace(ByteBuffer buffer) throws ShortBufferException {
+        long start = CryptoMetrics.start();
+        MemorySegment segment = MemorySegment.ofBuffer(buffer);
+        int n = (int) update(segment, segment);
+        buffer.position(buffer.position() + n);
+        CryptoMetrics.record(CryptoMetric.CIPHER_UPDATE, n, start);
+        return n;
+    }
+
+    /**
+     * Continues a multiple-part encryption/decryption operation. The data is
+     * encrypted or decrypted, depending on how this cipher was initialized.
+     *
+     * @param input the input byte array
+     * @param inputOffset the offset in input where the input starts
+     * @param inputLen the input length
+     * @param output the byte array for the result
+     * @param outputOffset the offset in output where the result is stored
+     * @return the number of bytes stored in output
+     * @throws ShortBufferException if there is insufficient space in the
+     *         output byte array
+     */
+    @Override
+    public int update(byte[] input, int inputOffset, int inputLen,
+            byte[] output, int outputOffset) throws ShortBufferException {
+        long start = CryptoMetrics.start();
+        int n = (int) update(
+                MemorySegment.ofArray(input).asSlice(inputOffset, inputLen),
+                MemorySegment.ofArray(output).asSlice(outputOffset));
+        CryptoMetrics.record(CryptoMetric.CIPHER_UPDATE, n, start);
+        return n;
+    }
+
+    /**
+     * Encrypts or decrypts data in a single-part operation, or finishes a
+     * multiple-part operation.
+     *
+     * @param inBuffer the input ByteBuffer
+     * @param outBuffer the output ByteBuffer
+     * @return int number of bytes stored in <code>output</code>
+     * @throws BadPaddingException if this cipher is in decryption mode, and
+     *         (un)padding has been requested, but the decrypted data is not
+     *         bounded by the appropriate padding bytes
+     * @throws IllegalBlockSizeException if this cipher is a block cipher, no
+     *         padding has been requested (only in encryption mode), and the
+     *         total input length of the data processed by this cipher is not
+     *         a multiple of block size; or if this encryption algorithm is
+     *         unable to process the input data provided.
+     * @throws ShortBufferException if the given output buffer is too small to
+     *         hold the result
+     */
+    @Override
+    public int doFinal(ByteBuffer inBuffer, ByteBuffer outBuffer)
+            throws ShortBufferException, IllegalBlockSizeException,
+            BadPaddingException {
+        long start = CryptoMetrics.start();
+        int n = (int) update(MemorySegment.ofBuffer(inBuffer),
+                MemorySegment.ofBuffer(outBuffer));
+        inBuffer.position(inBuffer.limit());
+        outBuffer.position(outBuffer.position() + n);
+        int m = doFinal(MemorySegment.ofBuffer(outBuffer));
+        outBuffer.position(outBuffer.position() + m);
+        CryptoMetrics.record(CryptoMetric.CIPHER_DO_FINAL, n + m, start);
+        return n + m;
+    }
+
+    /**
+     * Encrypts or decrypts data in a single-part operation, or finishes a
+     * multiple-part operation.
+     *
+     * @param input the input byte array
+     * @param inputOffset the offset in input where the input starts
+     * @param inputLen the input length
+     * @param output the byte array for the result
+     * @param outputOffset the offset in output where the result is stored
+     * @return the number of bytes stored in output
+     * @throws ShortBufferException if the given output byte array is too small
+     *         to hold the result
+     * @throws BadPaddingException if this cipher is in decryption mode, and
+     *         (un)padding has been requested, but the decrypted data is not
+     *         bounded by the appropriate padding bytes
+     * @throws IllegalBlockSizeException if this cipher is a block cipher, no
+     *         padding has been requested (only in encryption mode), and the
+     *         total input length of the data processed by this cipher is not
+     *         a multiple of block size; or if this encryption algorithm is
+     *         unable to process the input data provided.
+     */
+    @Override
+    public int doFinal(byte[] input, int inputOffset, int inputLen,
+            byte[] output, int outputOffset) throws ShortBufferException,
+            IllegalBlockSizeException, BadPaddingException {
+        long start = CryptoMetrics.start();
+        int n = (int) update(
+                MemorySegment.ofArray(input).asSlice(inputOffset, inputLen),
+                MemorySegment.ofArray(output).asSlice(outputOffset));
+        n += doFinal(MemorySegment.ofArray(output).asSlice(outputOffset + n));
+        CryptoMetrics.record(CryptoMetric.CIPHER_DO_FINAL, n, start);
+        return n;
+    }
+
+    /**
+     * Closes the OpenSSL cipher. Clean the OpenSSL native context.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        cleanable.clean();
+    }
+
+    /**
+     * Runs EVP_CipherUpdate over the whole input. Heap segments go through the
+     * critical downcall in chunks so a large array doesn't hold off the GC.
+     */
+    long update(MemorySegment in, MemorySegment out)
+            throws ShortBufferException {
+        checkState();
+        long inLength = in.byteSize();
+        checkUpdateOutput(inLength, out.byteSize());
+        boolean heap = !in.isNative() || !out.isNative();
+        long chunk = heap ? OpensslFfm.CRITICAL_CHUNK_SIZE
+                : Integer.MAX_VALUE - AES_BLOCK_SIZE;
+        long done = 0;
+        long written = 0;
+        try {
+            while (done < inLength) {
+                int length = (int) Math.min(chunk, inLength - done);
+                MemorySegment input = in.asSlice(done, length);
+                MemorySegment output = out.asSlice(written);
+                int rc = heap ? (int) OpensslFfm.EVP_CipherUpdate_critical
+                        .invokeExact(context, output, outLength, input, length)
+                        : (int) OpensslFfm.EVP_CipherUpdate.invokeExact(
+                                context, output, outLength, input, length);
+                if (rc == 0) {
+                    throw new IllegalStateException(
+                            "Error in EVP_CipherUpdate.");
+                }
+                written += outLength.get(JAVA_INT, 0);
+                done += length;
+            }
+        } catch (Throwable t) {
+            throw OpensslFfm.propagate(t);
+        }
+        return written;
+    }
+
+    /**
+     * Runs EVP_CipherFinal_ex, then resets the context to the key and IV of
+     * the last init, as {@link javax.crypto.Cipher#doFinal} does.
+     */
+    int doFinal(MemorySegment out) throws ShortBufferException,
+            IllegalBlockSizeException, BadPaddingException {
+        checkState();
+        int rc;
+        int n;
+        try {
+            rc = (int) OpensslFfm.EVP_CipherFinal_ex.invokeExact(context,
+                    finalBlock, outLength);
+            n = outLength.get(JAVA_INT, 0);
+            int reset = (int) OpensslFfm.EVP_CipherInit_ex.invokeExact(
+                    context, MemorySegment.NULL, MemorySegment.NULL,
+                    MemorySegment.NULL, iv, -1);
+            if (reset == 0) {
+                throw new IllegalStateException("Error in EVP_CipherInit_ex.");
+            }
+        } catch (Throwable t) {
+            throw OpensslFfm.propagate(t);
+        }
+        if (rc == 0) {
+            if (!encrypt && padding) {
+                throw new BadPaddingException("Error in EVP_CipherFinal_ex.");
+            }
+            throw new IllegalBlockSizeException(
+                    "Error in EVP_CipherFinal_ex.");
+        }
+        if (out.byteSize() < n) {
+            throw new ShortBufferException("Output buffer is not sufficient.");
+        }
+        MemorySegment.copy(finalBlock, 0, out, 0, n);
+        return n;
+    }
+
+    private void checkState() {
+        Utils.checkState(!closed);
+    }
+
+    private void checkUpdateOutput(long inLength, long outLength)
+            throws ShortBufferException {
+        long needed = inLength;
+        if (padding) {
+            // A block cipher with padding may hold back or release one block.
+            needed += encrypt ? AES_BLOCK_SIZE - 1 : AES_BLOCK_SIZE;
+        }
+        if (outLength < needed) {
+            throw new ShortBufferException("Output buffer is not sufficient.");
+        }
+    }
+
+    /** Frees the native context, at close or once the cipher is unreachable. */
+    private static final class ContextFree implements Runnable {
+        private final MemorySegment context;
+
+        ContextFree(MemorySegment context) {
+            this.context = context;
+        }
+
+        @Override
+        public void run() {
+            try {
+                OpensslFfm.EVP_CIPHER_CTX_free.invokeExact(context);
+            } catch (Throwable t) {
+                throw OpensslFfm.propagate(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.random;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.apache.commons.crypto.metrics.CryptoMetric;
+import org.apache.commons.crypto.metrics.CryptoMetrics;
+import org.apache.commons.crypto.utils.Utils;
+
+/**
+ * OpenSSL secure random calling <code>RAND_bytes</code> through the Foreign
+ * Function &amp; Memory API. This implementation is thread-safe. If the
+ * OpenSSL crypto library can't be loaded, {@link JavaCryptoRandom} is used.
+ */
+public class OpensslFfmCryptoRandom extends Random implements CryptoRandom {
+    private static final long serialVersionUID = 2521473528740862214L;
+    private static final Log LOG = LogFactory
+            .getLog(OpensslFfmCryptoRandom.class.getName());
+
+    /** Critical downcalls are made in chunks of this size. */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /** int RAND_bytes(unsigned char *buf, int num), accepting heap arrays. */
+    private static final MethodHandle RAND_bytes;
+
+    static {
+        MethodHandle handle = null;
+        String name = Utils.getOpensslLibraryName();
+        try {
+            SymbolLookup crypto = SymbolLookup.libraryLookup(name,
+                    Arena.global());
+            handle = Linker.nativeLinker().downcallHandle(
+                    crypto.find("RAND_bytes").orElseThrow(),
+                    FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT),
+                    Linker.Option.critical(true));
+        } catch (Throwable t) {
+            LOG.error("Failed to load RAND_bytes from " + name, t);
+        }
+        RAND_bytes = handle;
+    }
+
+    /** Used if RAND_bytes is unavailable or fails. */
+    private final JavaCryptoRandom fallback;
+
+    /**
+     * Judges whether loading the OpenSSL crypto library successfully.
+     *
+     * @return true if loading library successfully.
+     */
+    public static boolean isNativeCodeLoaded() {
+        return RAND_bytes != null;
+    }
+
+    /**
+     * Constructs a {@link OpensslFfmCryptoRandom}.
+     *
+     * @param props the configuration properties.
+     * @throws NoSuchAlgorithmException if no Provider supports a
+     *         SecureRandomSpi implementation for the specified algorithm.
+     */
+    public OpensslFfmCryptoRandom(Properties props)
+            throws NoSuchAlgorithmException {
+        fallback = new JavaCryptoRandom(props);
+    }
+
+    /**
+     * Generates a user-specified number of random bytes. It's thread-safe.
+     *
+     * @param bytes the array to be filled in with random bytes.
+     */
+    @Override
+    public void nextBytes(byte[] bytes) {
+        long start = CryptoMetrics.start();
+        if (RAND_bytes == null || !randBytes(bytes)) {
+            // The fallback records its own metrics
+            fallback.nextBytes(bytes);
+            return;
+        }
+        CryptoMetrics.record(CryptoMetric.RANDOM_BYTES, bytes.length, start);
+    }
+
+    /**
+     * Overrides {@link Random#setSeed(long)}. For
+     * {@link OpensslFfmCryptoRandom}, we don't need to set seed.
+     *
+     * @param seed the initial seed.
+     */
+    @Override
+    public void setSeed(long seed) {
+        // Self-seeding.
+    }
+
+    /**
+     * Overrides Random#next(). Generates an integer containing the
+     * user-specified number of random bits(right justified, with leading
+     * zeros).
+     *
+     * @param numBits number of random bits to be generated, where 0
+     *        {@literal <=} <code>numBits</code> {@literal <=} 32.
+     * @return int an <code>int</code> containing the user-specified number of
+     *         random bits (right justified, with leading zeros).
+     */
+    @Override
+    final protected int next(int numBits) {
+        Utils.checkArgument(numBits >= 0 && numBits <= 32);
+        int numBytes = (numBits + 7) / 8;
+        byte b[] = new byte[numBytes];
+        int next = 0;
+
+        nextBytes(b);
+        for (int i = 0; i < numBytes; i++) {
+            next = (next << 8) + (b[i] & 0xFF);
+        }
+
+        return next >>> (numBytes * 8 - numBits);
+    }
+
+    /**
+     * Overrides {@link java.lang.AutoCloseable#close()}. Closes the fallback
+     * random.
+     */
+    @Override
+    public void close() {
+        fallback.close();
+    }
+
+    private static boolean randBytes(byte[] bytes) {
+        MemorySegment segment = MemorySegment.ofArray(bytes);
+        try {
+            for (int off = 0; off < bytes.length; off += CHUNK_SIZE) {
+                int length = Math.min(CHUNK_SIZE, bytes.length - off);
+                int rc = (int) RAND_bytes.invokeExact(
+                        segment.asSlice(off, length), length);
+                if (rc != 1) {
+                    return false;
+                }
+            }
+        } catch (Throwable t) {
+            LOG.error("RAND_bytes failed", t);
+            return false;
+        }
+        return true;
+    }
+}
@@ -31,6 +31,7 @@ static EVP_CIPHER_CTX * (*dlsym_EVP_CIPHER_CTX_new)(void);
 static void (*dlsym_EVP_CIPHER_CTX_free)(EVP_CIPHER_CTX *);
 static int (*dlsym_EVP_CIPHER_CTX_cleanup)(EVP_CIPHER_CTX *);
 static void (*dlsym_EVP_CIPHER_CTX_init)(EVP_CIPHER_CTX *);
+static int (*dlsym_EVP_CIPHER_CTX_copy)(EVP_CIPHER_CTX *, const EVP_CIPHER_CTX *);
 static int (*dlsym_EVP_CIPHER_CTX_set_padding)(EVP_CIPHER_CTX *, int);
 static int (*dlsym_EVP_CipherInit_ex)(EVP_CIPHER_CTX *, const EVP_CIPHER *,  \
            ENGINE *, const unsigned char *, const unsigned char *, int);
@@ -51,6 +52,8 @@ typedef EVP_CIPHER_CTX * (__cdecl *__dlsym_EVP_CIPHER_CTX_new)(void);
 typedef void (__cdecl *__dlsym_EVP_CIPHER_CTX_free)(EVP_CIPHER_CTX *);
 typedef int (__cdecl *__dlsym_EVP_CIPHER_CTX_cleanup)(EVP_CIPHER_CTX *);
 typedef void (__cdecl *__dlsym_EVP_CIPHER_CTX_init)(EVP_CIPHER_CTX *);
+typedef int (__cdecl *__dlsym_EVP_CIPHER_CTX_copy)(EVP_CIPHER_CTX *,  \
+             const EVP_CIPHER_CTX *);
 typedef int (__cdecl *__dlsym_EVP_CIPHER_CTX_set_padding)(EVP_CIPHER_CTX *, int);
 typedef int (__cdecl *__dlsym_EVP_CipherInit_ex)(EVP_CIPHER_CTX *,  \
              const EVP_CIPHER *, ENGINE *, const unsigned char *,  \
@@ -69,6 +72,7 @@ static __dlsym_EVP_CIPHER_CTX_new dlsym_EVP_CIPHER_CTX_new;
 static __dlsym_EVP_CIPHER_CTX_free dlsym_EVP_CIPHER_CTX_free;
 static __dlsym_EVP_CIPHER_CTX_cleanup dlsym_EVP_CIPHER_CTX_cleanup;
 static __dlsym_EVP_CIPHER_CTX_init dlsym_EVP_CIPHER_CTX_init;
+static __dlsym_EVP_CIPHER_CTX_copy dlsym_EVP_CIPHER_CTX_copy;
 static __dlsym_EVP_CIPHER_CTX_set_padding dlsym_EVP_CIPHER_CTX_set_padding;
 static __dlsym_EVP_CipherInit_ex dlsym_EVP_CipherInit_ex;
 static __dlsym_EVP_CipherUpdate dlsym_EVP_CipherUpdate;
@@ -138,6 +142,8 @@ JNIEXPORT void JNICALL Java_org_apache_commons_crypto_cipher_OpensslNative_initI
                       "EVP_CIPHER_CTX_cleanup");
   LOAD_DYNAMIC_SYMBOL(dlsym_EVP_CIPHER_CTX_init, env, openssl,  \
                       "EVP_CIPHER_CTX_init");
+  LOAD_DYNAMIC_SYMBOL(dlsym_EVP_CIPHER_CTX_copy, env, openssl,  \
+                      "EVP_CIPHER_CTX_copy");
   LOAD_DYNAMIC_SYMBOL(dlsym_EVP_CIPHER_CTX_set_padding, env, openssl,  \
                       "EVP_CIPHER_CTX_set_padding");
   LOAD_DYNAMIC_SYMBOL(dlsym_EVP_CipherInit_ex, env, openssl,  \
@@ -158,6 +164,8 @@ JNIEXPORT void JNICALL Java_org_apache_commons_crypto_cipher_OpensslNative_initI
                       openssl, "EVP_CIPHER_CTX_cleanup");
   LOAD_DYNAMIC_SYMBOL(__dlsym_EVP_CIPHER_CTX_init, dlsym_EVP_CIPHER_CTX_init,  \
                       env, openssl, "EVP_CIPHER_CTX_init");
+  LOAD_DYNAMIC_SYMBOL(__dlsym_EVP_CIPHER_CTX_copy, dlsym_EVP_CIPHER_CTX_copy,  \
+                      env, openssl, "EVP_CIPHER_CTX_copy");
   LOAD_DYNAMIC_SYMBOL(__dlsym_EVP_CIPHER_CTX_set_padding,  \
                       dlsym_EVP_CIPHER_CTX_set_padding, env,  \
                       openssl, "EVP_CIPHER_CTX_set_padding");
@@ -304,9 +312,97 @@ JNIEXPORT jlong JNICALL Java_org_apache_commons_crypto_cipher_OpensslNative_init
   return JLONG(context);
 }
 
+JNIEXPORT jlong JNICALL Java_org_apache_commons_crypto_cipher_OpensslNative_prepareKey
+    (JNIEnv *env, jclass clazz, jint mode, jint alg, jint padding, jbyteArray key)
+{
+  int jKeyLen = (*env)->GetArrayLength(env, key);
+  if (jKeyLen != KEY_LENGTH_128 && jKeyLen != KEY_LENGTH_192
+        && jKeyLen != KEY_LENGTH_256) {
+    char str[64] = {0};
+    snprintf(str, sizeof(str), "Invalid AES key length: %d bytes", jKeyLen);
+    THROW(env, "java/security/InvalidKeyException", str);
+    return (jlong)0;
+  }
+  if (!(alg == AES_CTR || alg == AES_CBC)) {
+    THROW(env, "java/security/NoSuchAlgorithmException", "The algorithm is not supported.");
+    return (jlong)0;
+  }
+
+  // The template context holds the expanded key, it is never used directly
+  EVP_CIPHER_CTX *context = dlsym_EVP_CIPHER_CTX_new();
+  if (!context) {
+    THROW(env, "java/lang/OutOfMemoryError", NULL);
+    return (jlong)0;
+  }
+
+  jbyte *jKey = (*env)->GetByteArrayElements(env, key, NULL);
+  if (jKey == NULL) {
+    dlsym_EVP_CIPHER_CTX_free(context);
+    THROW(env, "java/lang/InternalError", "Cannot get bytes array for key.");
+    return (jlong)0;
+  }
+
+  int rc = dlsym_EVP_CipherInit_ex(context, getEvpCipher(alg, jKeyLen),  \
+      NULL, (unsigned char *)jKey, NULL, mode == ENCRYPT_MODE);
+  (*env)->ReleaseByteArrayElements(env, key, jKey, JNI_ABORT);
+  if (rc == 0) {
+    dlsym_EVP_CIPHER_CTX_free(context);
+    THROW(env, "java/lang/InternalError", "Error in EVP_CipherInit_ex.");
+    return (jlong)0;
+  }
+
+  if (padding == NOPADDING) {
+    dlsym_EVP_CIPHER_CTX_set_padding(context, 0);
+  } else if (padding == PKCS5PADDING) {
+    dlsym_EVP_CIPHER_CTX_set_padding(context, 1);
+  }
+
+  return JLONG(context);
+}
+
+JNIEXPORT jlong JNICALL Java_org_apache_commons_crypto_cipher_OpensslNative_initPrepared
+    (JNIEnv *env, jclass clazz, jlong ctx, jlong preparedKey, jbyteArray iv)
+{
+  int jIvLen = (*env)->GetArrayLength(env, iv);
+  if (jIvLen != IV_LENGTH) {
+    THROW(env, "java/security/InvalidAlgorithmParameterException", "Wrong IV length: must be 16 bytes long");
+    return (jlong)0;
+  }
+
+  EVP_CIPHER_CTX *template = CONTEXT(preparedKey);
+  EVP_CIPHER_CTX *context = CONTEXT(ctx);
+  if (context == 0) {
+    // Create and initialize a EVP_CIPHER_CTX
+    context = dlsym_EVP_CIPHER_CTX_new();
+    if (!context) {
+      THROW(env, "java/lang/OutOfMemoryError", NULL);
+      return (jlong)0;
+    }
+  }
+
+  // Clone the expanded key and the padding setting, then set the iv only
+  if (!dlsym_EVP_CIPHER_CTX_copy(context, template)) {
+    dlsym_EVP_CIPHER_CTX_cleanup(context);
+    THROW(env, "java/lang/InternalError", "Error in EVP_CIPHER_CTX_copy.");
+    return (jlong)0;
+  }
+
+  jbyte jIv[IV_LENGTH];
+  (*env)->GetByteArrayRegion(env, iv, 0, IV_LENGTH, jIv);
+  int rc = dlsym_EVP_CipherInit_ex(context, NULL, NULL, NULL,  \
+      (unsigned char *)jIv, -1);
+  if (rc == 0) {
+    dlsym_EVP_CIPHER_CTX_cleanup(context);
+    THROW(env, "java/lang/InternalError", "Error in EVP_CipherInit_ex.");
+    return (jlong)0;
+  }
+
+  return JLONG(context);
+}
+
 // https://www.openssl.org/docs/crypto/EVP_EncryptInit.html
-static int check_update_max_output_len(EVP_CIPHER_CTX *context, int input_len,
-    int max_output_len)
+static int check_update_max_output_len(EVP_CIPHER_CTX *context,
+    jlong input_len, jlong max_output_len)
 {
   if (context->flags & EVP_CIPH_NO_PADDING) {
     if (max_output_len >= input_len) {
@@ -358,6 +454,12 @@ JNIEXPORT jint JNICALL Java_org_apache_commons_crypto_cipher_OpensslNative_updat
   return output_len;
 }
 
+// The byte arrays are pinned with GetPrimitiveArrayCritical instead of copied
+// with GetByteArrayElements. While an array is pinned the VM may hold off the
+// garbage collector, so large arrays are processed in chunks of this size to
+// keep every critical region short.
+#define CRITICAL_CHUNK_SIZE (64 * 1024)
+
 JNIEXPORT jint JNICALL Java_org_apache_commons_crypto_cipher_OpensslNative_updateByteArray
     (JNIEnv *env, jclass clazz, jlong ctx, jbyteArray input, jint input_offset,
     jint input_len, jbyteArray output, jint output_offset, jint max_output_len)
@@ -368,31 +470,120 @@ JNIEXPORT jint JNICALL Java_org_apache_commons_crypto_cipher_OpensslNative_updat
         "Output buffer is not sufficient.");
     return 0;
   }
-  unsigned char *input_bytes = (unsigned char *) (*env)->GetByteArrayElements(env, input, 0);
-  unsigned char *output_bytes = (unsigned char *) (*env)->GetByteArrayElements(env, output, 0);
-  if (input_bytes == NULL || output_bytes == NULL) {
-    THROW(env, "java/lang/InternalError", "Cannot get buffer address.");
-    return 0;
+  // In-place update pins the array only once
+  jboolean in_place = (*env)->IsSameObject(env, input, output);
+
+  // EVP_CipherUpdate rejects input and output that overlap without being
+  // exactly the same bytes, and the chunks below would overwrite input that
+  // is not read yet. Such input is copied first and read from the copy.
+  unsigned char *copy = NULL;
+  if (in_place && input_offset != output_offset && input_len > 0
+      && input_offset < output_offset + max_output_len
+      && output_offset < input_offset + input_len) {
+    copy = (unsigned char *) malloc(input_len);
+    if (copy == NULL) {
+      THROW(env, "java/lang/OutOfMemoryError", NULL);
+      return 0;
+    }
+    (*env)->GetByteArrayRegion(env, input, input_offset, input_len,  \
+        (jbyte *) copy);
   }
 
   int output_len = 0;
-  int rc = dlsym_EVP_CipherUpdate(context, output_bytes + output_offset, &output_len,  \
-      input_bytes + input_offset, input_len);
+  int done = 0;
+  do {
+    int chunk_len = input_len - done;
+    if (chunk_len > CRITICAL_CHUNK_SIZE) {
+      chunk_len = CRITICAL_CHUNK_SIZE;
+    }
 
-  (*env)->ReleaseByteArrayElements(env, input, (jbyte *) input_bytes, 0);
-  (*env)->ReleaseByteArrayElements(env, output, (jbyte *) output_bytes, 0);
+    unsigned char *input_bytes = (unsigned char *)  \
+        (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+    if (input_bytes == NULL) {
+      free(copy);
+      THROW(env, "java/lang/InternalError", "Cannot get buffer address.");
+      return 0;
+    }
+    unsigned char *output_bytes = input_bytes;
+    if (!in_place) {
+      output_bytes = (unsigned char *)  \
+          (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+      if (output_bytes == NULL) {
+        (*env)->ReleasePrimitiveArrayCritical(env, input, input_bytes, JNI_ABORT);
+        THROW(env, "java/lang/InternalError", "Cannot get buffer address.");
+        return 0;
+      }
+    }
+    unsigned char *chunk_bytes = copy != NULL ? copy + done  \
+        : input_bytes + input_offset + done;
+
+    int len = 0;
+    int rc = dlsym_EVP_CipherUpdate(context,  \
+        output_bytes + output_offset + output_len, &len,  \
+        chunk_bytes, chunk_len);
+
+    // The input is only read, so it is not copied back
+    if (!in_place) {
+      (*env)->ReleasePrimitiveArrayCritical(env, output, output_bytes, 0);
+      (*env)->ReleasePrimitiveArrayCritical(env, input, input_bytes, JNI_ABORT);
+    } else {
+      (*env)->ReleasePrimitiveArrayCritical(env, input, input_bytes, 0);
+    }
 
-  if (rc == 0) {
-    dlsym_EVP_CIPHER_CTX_cleanup(context);
-    THROW(env, "java/lang/InternalError", "Error in EVP_CipherUpdate.");
+    if (rc == 0) {
+      free(copy);
+      dlsym_EVP_CIPHER_CTX_cleanup(context);
+      THROW(env, "java/lang/InternalError", "Error in EVP_CipherUpdate.");
+      return 0;
+    }
+    output_len += len;
+    done += chunk_len;
+  } while (done < input_len);
+
+  free(copy);
+  return output_len;
+}
+
+// EVP_CipherUpdate takes an int length, so memory given by address is
+// processed in chunks of this size, a multiple of the block size.
+#define ADDRESS_CHUNK_SIZE (1 << 30)
+
+JNIEXPORT jlong JNICALL Java_org_apache_commons_crypto_cipher_OpensslNative_updateAddress
+    (JNIEnv *env, jclass clazz, jlong ctx, jlong input, jlong input_len,
+    jlong output, jlong max_output_len)
+{
+  EVP_CIPHER_CTX *context = CONTEXT(ctx);
+  if (!check_update_max_output_len(context, input_len, max_output_len)) {
+    THROW(env, "javax/crypto/ShortBufferException",  \
+        "Output buffer is not sufficient.");
     return 0;
   }
+  unsigned char *input_bytes = (unsigned char *)((ptrdiff_t) input);
+  unsigned char *output_bytes = (unsigned char *)((ptrdiff_t) output);
+
+  jlong output_len = 0;
+  jlong done = 0;
+  while (done < input_len) {
+    int chunk_len = ADDRESS_CHUNK_SIZE;
+    if (input_len - done < ADDRESS_CHUNK_SIZE) {
+      chunk_len = (int) (input_len - done);
+    }
+    int len = 0;
+    if (!dlsym_EVP_CipherUpdate(context, output_bytes + output_len, &len,  \
+        input_bytes + done, chunk_len)) {
+      dlsym_EVP_CIPHER_CTX_cleanup(context);
+      THROW(env, "java/lang/InternalError", "Error in EVP_CipherUpdate.");
+      return 0;
+    }
+    output_len += len;
+    done += chunk_len;
+  }
   return output_len;
 }
 
 // https://www.openssl.org/docs/crypto/EVP_EncryptInit.html
 static int check_doFinal_max_output_len(EVP_CIPHER_CTX *context,
-    int max_output_len)
+    jlong max_output_len)
 {
   if (context->flags & EVP_CIPH_NO_PADDING) {
     return 1;
@@ -442,18 +633,42 @@ JNIEXPORT jint JNICALL Java_org_apache_commons_crypto_cipher_OpensslNative_doFin
         "Output buffer is not sufficient.");
     return 0;
   }
-  unsigned char *output_bytes = (unsigned char *) (*env)->GetByteArrayElements(env, output, 0);
-  if (output_bytes == NULL) {
-    THROW(env, "java/lang/InternalError", "Cannot get buffer address.");
+  // The final output is at most one block, finish into a local buffer and
+  // copy only those bytes instead of copying the whole output array twice.
+  unsigned char output_bytes[EVP_MAX_BLOCK_LENGTH];
+  int output_len = 0;
+  int rc = dlsym_EVP_CipherFinal_ex(context, output_bytes, &output_len);
+
+  if (rc == 0) {
+    dlsym_EVP_CIPHER_CTX_cleanup(context);
+    THROW(env, "java/lang/InternalError", "Error in EVP_CipherFinal_ex.");
     return 0;
   }
+  if (output_len > max_output_len) {
+    THROW(env, "javax/crypto/ShortBufferException",  \
+        "Output buffer is not sufficient.");
+    return 0;
+  }
+  if (output_len > 0) {
+    (*env)->SetByteArrayRegion(env, output, offset, output_len,  \
+        (jbyte *) output_bytes);
+  }
+  return output_len;
+}
 
-  int output_len = 0;
-  int rc = dlsym_EVP_CipherFinal_ex(context, output_bytes + offset, &output_len);
-
-  (*env)->ReleaseByteArrayElements(env, output, (jbyte *) output_bytes, 0);
+JNIEXPORT jint JNICALL Java_org_apache_commons_crypto_cipher_OpensslNative_doFinalAddress
+    (JNIEnv *env, jclass clazz, jlong ctx, jlong output, jlong max_output_len)
+{
+  EVP_CIPHER_CTX *context = CONTEXT(ctx);
+  if (!check_doFinal_max_output_len(context, max_output_len)) {
+    THROW(env, "javax/crypto/ShortBufferException",  \
+        "Output buffer is not sufficient.");
+    return 0;
+  }
+  unsigned char *output_bytes = (unsigned char *)((ptrdiff_t) output);
 
-  if (rc == 0) {
+  int output_len = 0;
+  if (!dlsym_EVP_CipherFinal_ex(context, output_bytes, &output_len)) {
     dlsym_EVP_CIPHER_CTX_cleanup(context);
     THROW(env, "java/lang/InternalError", "Error in EVP_CipherFinal_ex.");
     return 0;
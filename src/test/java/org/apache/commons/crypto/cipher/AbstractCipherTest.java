@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Properties;
 import java.util.Random;
 import javax.crypto.spec.IvParameterSpec;
@@ -96,6 +97,94 @@ public abstract class AbstractCipherTest {
         }
     }
 
+    @Test
+    public void largeByteArrayTest() throws GeneralSecurityException {
+        // Larger than the chunks in which native code pins byte arrays
+        final int dataLen = 200 * 1024;
+        for (CipherTransformation tran : transformations) {
+            int blockSize = tran.getAlgorithmBlockSize();
+            byte[] plainText = new byte[dataLen];
+            new SecureRandom().nextBytes(plainText);
+
+            resetCipher(tran, KEY, IV);
+            byte[] cipherText = new byte[dataLen + blockSize];
+            int n = enc.doFinal(plainText, 0, dataLen, cipherText, 0);
+
+            // In place, input and output are the same array. With padding,
+            // decryption needs a block of room more than its input.
+            resetCipher(tran, KEY, IV);
+            byte[] inPlace = new byte[dataLen + 2 * blockSize];
+            System.arraycopy(plainText, 0, inPlace, 0, dataLen);
+            Assert.assertEquals(n, enc.doFinal(inPlace, 0, dataLen, inPlace, 0));
+            Assert.assertArrayEquals("in place encryption error.",
+                    Arrays.copyOf(cipherText, n), Arrays.copyOf(inPlace, n));
+
+            int m = dec.doFinal(inPlace, 0, n, inPlace, 0);
+            Assert.assertEquals(dataLen, m);
+            byte[] result = new byte[m];
+            System.arraycopy(inPlace, 0, result, 0, m);
+            Assert.assertArrayEquals("in place decryption error.", plainText,
+                    result);
+        }
+    }
+
+    @Test
+    public void overlappingByteArrayTest() throws GeneralSecurityException {
+        // Larger than the chunks in which native code pins byte arrays
+        final int dataLen = 200 * 1024;
+        final int shift = 21;
+        for (CipherTransformation tran : transformations) {
+            int blockSize = tran.getAlgorithmBlockSize();
+            byte[] plainText = new byte[dataLen];
+            new SecureRandom().nextBytes(plainText);
+
+            resetCipher(tran, KEY, IV);
+            byte[] cipherText = new byte[dataLen + blockSize];
+            int n = enc.doFinal(plainText, 0, dataLen, cipherText, 0);
+
+            // Same array, the output starts before or after the input
+            int[][] offsets = { { shift, 0 }, { 0, shift } };
+            for (int[] offset : offsets) {
+                resetCipher(tran, KEY, IV);
+                byte[] buffer = new byte[dataLen + blockSize + shift];
+                System.arraycopy(plainText, 0, buffer, offset[0], dataLen);
+                Assert.assertEquals(n, enc.doFinal(buffer, offset[0], dataLen,
+                        buffer, offset[1]));
+                byte[] result = new byte[n];
+                System.arraycopy(buffer, offset[1], result, 0, n);
+                Assert.assertArrayEquals("overlapping encryption error.",
+                        Arrays.copyOf(cipherText, n), result);
+            }
+        }
+    }
+
+    @Test
+    public void updateInPlaceTest() throws GeneralSecurityException {
+        CipherTransformation tran = CipherTransformation.AES_CTR_NOPADDING;
+        byte[] plainText = new byte[BYTEBUFFER_SIZE + 7];
+        new Random().nextBytes(plainText);
+        resetCipher(tran, KEY, IV);
+        byte[] cipherText = new byte[plainText.length];
+        enc.doFinal(plainText, 0, plainText.length, cipherText, 0);
+
+        ByteBuffer[] buffers = { ByteBuffer.allocateDirect(plainText.length + 3),
+                ByteBuffer.allocate(plainText.length + 3) };
+        for (ByteBuffer buffer : buffers) {
+            resetCipher(tran, KEY, IV);
+            buffer.position(3);
+            buffer.put(plainText);
+            buffer.position(3);
+            Assert.assertEquals(plainText.length,
+                    CryptoCipherUtils.updateInPlace(enc, buffer));
+            Assert.assertEquals(buffer.limit(), buffer.position());
+            byte[] result = new byte[plainText.length];
+            buffer.position(3);
+            buffer.get(result);
+            Assert.assertArrayEquals("in place encryption error.", cipherText,
+                    result);
+        }
+    }
+
     private void byteBufferTest(CipherTransformation transformation,
             byte[] key, byte[] iv, ByteBuffer input, ByteBuffer output)
             throws GeneralSecurityException, IOException {
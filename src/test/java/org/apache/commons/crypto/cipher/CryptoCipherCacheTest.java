@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.cipher;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CryptoCipherCacheTest {
+
+    @After
+    public void tearDown() {
+        CryptoCipherCache.release();
+    }
+
+    @Test(timeout = 120000)
+    public void testSameThreadReusesCipher() throws Exception {
+        CryptoCipher cipher = CryptoCipherCache
+                .getCipher(CipherTransformation.AES_CTR_NOPADDING);
+        Assert.assertSame(cipher, CryptoCipherCache
+                .getCipher(CipherTransformation.AES_CTR_NOPADDING));
+        Assert.assertNotSame(cipher, CryptoCipherCache
+                .getCipher(CipherTransformation.AES_CBC_NOPADDING));
+
+        // Re-initializing the cached cipher gives the same result
+        SecretKeySpec key = new SecretKeySpec(new byte[16], "AES");
+        IvParameterSpec iv = new IvParameterSpec(new byte[16]);
+        byte[] first = new byte[32];
+        byte[] second = new byte[32];
+        cipher.init(CryptoCipher.ENCRYPT_MODE, key, iv);
+        cipher.doFinal(new byte[32], 0, 32, first, 0);
+        cipher.init(CryptoCipher.ENCRYPT_MODE, key, iv);
+        cipher.doFinal(new byte[32], 0, 32, second, 0);
+        Assert.assertArrayEquals(first, second);
+
+        CryptoCipherCache.release(CipherTransformation.AES_CTR_NOPADDING);
+        Assert.assertNotSame(cipher, CryptoCipherCache
+                .getCipher(CipherTransformation.AES_CTR_NOPADDING));
+    }
+
+    @Test(timeout = 120000)
+    public void testThreadsDontShareCiphers() throws Exception {
+        final CryptoCipher cipher = CryptoCipherCache
+                .getCipher(CipherTransformation.AES_CTR_NOPADDING);
+        final AtomicReference<Object> other = new AtomicReference<Object>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    other.set(CryptoCipherCache
+                            .getCipher(CipherTransformation.AES_CTR_NOPADDING));
+                } catch (Exception e) {
+                    other.set(e);
+                } finally {
+                    CryptoCipherCache.release();
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        Assert.assertTrue(other.get() instanceof CryptoCipher);
+        Assert.assertNotSame(cipher, other.get());
+    }
+}
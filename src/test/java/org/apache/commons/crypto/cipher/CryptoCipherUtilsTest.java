@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.cipher;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.crypto.utils.NativeCodeLoader;
+import org.apache.commons.crypto.utils.ReflectionUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class CryptoCipherUtilsTest {
+
+    private final SecretKeySpec key = new SecretKeySpec(new byte[] { 0x01,
+            0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x10, 0x11, 0x12,
+            0x13, 0x14, 0x15, 0x16 }, "AES");
+    private final IvParameterSpec iv = new IvParameterSpec(new byte[] { 0x01,
+            0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x10, 0x11, 0x12,
+            0x13, 0x14, 0x15, 0x16 });
+
+    @Test(timeout = 120000)
+    public void testGetOutputSize() {
+        Assert.assertEquals(16, CryptoCipherUtils.getOutputSize(
+                CipherTransformation.AES_CBC_PKCS5PADDING,
+                CryptoCipher.ENCRYPT_MODE, 0));
+        Assert.assertEquals(16, CryptoCipherUtils.getOutputSize(
+                CipherTransformation.AES_CBC_PKCS5PADDING,
+                CryptoCipher.ENCRYPT_MODE, 15));
+        Assert.assertEquals(272, CryptoCipherUtils.getOutputSize(
+                CipherTransformation.AES_CBC_PKCS5PADDING,
+                CryptoCipher.ENCRYPT_MODE, 256));
+        Assert.assertEquals(256, CryptoCipherUtils.getOutputSize(
+                CipherTransformation.AES_CTR_NOPADDING,
+                CryptoCipher.ENCRYPT_MODE, 256));
+    }
+
+    @Test(timeout = 120000)
+    public void testUpdateInPlaceOtherCipher() throws Exception {
+        // A cipher unknown to the helper only sees separate buffers
+        final CryptoCipher jce = new JceCipher(new Properties(),
+                CipherTransformation.AES_CTR_NOPADDING);
+        CryptoCipher cipher = (CryptoCipher) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { CryptoCipher.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        if (method.getName().equals("update")
+                                && args[0] instanceof ByteBuffer) {
+                            ByteBuffer in = (ByteBuffer) args[0];
+                            ByteBuffer out = (ByteBuffer) args[1];
+                            Assert.assertEquals(in.isDirect(), out.isDirect());
+                            if (!in.isDirect()) {
+                                Assert.assertNotSame(in.array(), out.array());
+                            }
+                        }
+                        try {
+                            return method.invoke(jce, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+        byte[] plain = randomBytes(100);
+        ByteBuffer[] buffers = { ByteBuffer.allocateDirect(plain.length),
+                ByteBuffer.allocate(plain.length) };
+        for (ByteBuffer buffer : buffers) {
+            cipher.init(CryptoCipher.ENCRYPT_MODE, key, iv);
+            buffer.put(plain);
+            buffer.flip();
+            Assert.assertEquals(plain.length,
+                    CryptoCipherUtils.updateInPlace(cipher, buffer));
+            Assert.assertFalse(buffer.hasRemaining());
+            buffer.flip();
+            byte[] result = new byte[plain.length];
+            buffer.get(result);
+            Assert.assertArrayEquals(jceDoFinal(
+                    CipherTransformation.AES_CTR_NOPADDING,
+                    Cipher.ENCRYPT_MODE, plain), result);
+        }
+        cipher.close();
+    }
+
+    @Test(timeout = 120000)
+    public void testByteArraysJce() throws Exception {
+        doByteArraysTest(JceCipher.class);
+    }
+
+    @Test(timeout = 120000)
+    public void testByteArraysOpenssl() throws Exception {
+        assumeOpenssl();
+        doByteArraysTest(OpensslCipher.class);
+    }
+
+    @Test(timeout = 120000)
+    public void testByteBuffersJce() throws Exception {
+        doByteBuffersTest(JceCipher.class);
+    }
+
+    @Test(timeout = 120000)
+    public void testByteBuffersOpenssl() throws Exception {
+        assumeOpenssl();
+        doByteBuffersTest(OpensslCipher.class);
+    }
+
+    @Test(timeout = 120000)
+    public void testDefaultCipher() throws Exception {
+        // Whichever cipher the factory picks
+        for (CipherTransformation transformation : CipherTransformation
+                .values()) {
+            // Not a multiple of the block size if the cipher pads
+            boolean padding = transformation == CipherTransformation.AES_CBC_PKCS5PADDING;
+            byte[] plain = randomBytes(padding ? 301 : 256);
+            byte[] encrypted = CryptoCipherUtils.encrypt(transformation,
+                    key, iv, plain);
+            Assert.assertArrayEquals(jceDoFinal(transformation,
+                    Cipher.ENCRYPT_MODE, plain), encrypted);
+            Assert.assertArrayEquals(plain, CryptoCipherUtils.decrypt(
+                    transformation, key, iv, encrypted));
+        }
+    }
+
+    private void doByteArraysTest(Class<? extends CryptoCipher> cipherClass)
+            throws Exception {
+        for (CipherTransformation transformation : CipherTransformation
+                .values()) {
+            CryptoCipher cipher = newCipher(cipherClass, transformation);
+            boolean padding = transformation == CipherTransformation.AES_CBC_PKCS5PADDING;
+            // Every length modulo the block size with padding
+            for (int len = 0; len <= 4096; len += padding ? 257 : 256) {
+                if (len == 0 && !padding) {
+                    continue;
+                }
+                byte[] plain = randomBytes(len);
+                byte[] encrypted = CryptoCipherUtils.toArray(CryptoCipherUtils
+                        .doFinal(cipher, CryptoCipher.ENCRYPT_MODE, key, iv,
+                                ByteBuffer.wrap(plain)));
+                Assert.assertArrayEquals(jceDoFinal(transformation,
+                        Cipher.ENCRYPT_MODE, plain), encrypted);
+                Assert.assertArrayEquals(plain, CryptoCipherUtils
+                        .toArray(CryptoCipherUtils.doFinal(cipher,
+                                CryptoCipher.DECRYPT_MODE, key, iv,
+                                ByteBuffer.wrap(encrypted))));
+            }
+            cipher.close();
+        }
+    }
+
+    private void doByteBuffersTest(Class<? extends CryptoCipher> cipherClass)
+            throws Exception {
+        CipherTransformation transformation = CipherTransformation.AES_CBC_PKCS5PADDING;
+        CryptoCipher cipher = newCipher(cipherClass, transformation);
+        byte[] plain = randomBytes(300);
+        ByteBuffer input = ByteBuffer.allocateDirect(plain.length);
+        input.put(plain);
+        input.flip();
+
+        ByteBuffer encrypted = CryptoCipherUtils.doFinal(cipher,
+                CryptoCipher.ENCRYPT_MODE, key, iv, input);
+        Assert.assertEquals(input.limit(), input.position());
+        Assert.assertTrue(encrypted.isDirect());
+        Assert.assertEquals(304, encrypted.remaining());
+
+        ByteBuffer decrypted = CryptoCipherUtils.doFinal(cipher,
+                CryptoCipher.DECRYPT_MODE, key, iv, encrypted);
+        Assert.assertEquals(plain.length, decrypted.remaining());
+        byte[] result = new byte[decrypted.remaining()];
+        decrypted.get(result);
+        Assert.assertArrayEquals(plain, result);
+
+        // A heap buffer not starting at position 0
+        ByteBuffer heap = ByteBuffer.allocate(plain.length + 10);
+        heap.position(10);
+        heap.put(plain);
+        heap.position(10);
+        ByteBuffer heapEncrypted = CryptoCipherUtils.doFinal(cipher,
+                CryptoCipher.ENCRYPT_MODE, key, iv, heap);
+        Assert.assertFalse(heapEncrypted.isDirect());
+        Assert.assertArrayEquals(jceDoFinal(transformation,
+                Cipher.ENCRYPT_MODE, plain), CryptoCipherUtils
+                .toArray(heapEncrypted));
+        cipher.close();
+    }
+
+    private void assumeOpenssl() {
+        Assume.assumeTrue(NativeCodeLoader.isNativeCodeLoaded()
+                && Openssl.getLoadingFailureReason() == null);
+    }
+
+    private CryptoCipher newCipher(Class<? extends CryptoCipher> cipherClass,
+            CipherTransformation transformation) {
+        return ReflectionUtils.newInstance(cipherClass, new Properties(),
+                transformation);
+    }
+
+    private byte[] randomBytes(int len) {
+        byte[] bytes = new byte[len];
+        new Random(len).nextBytes(bytes);
+        return bytes;
+    }
+
+    private byte[] jceDoFinal(CipherTransformation transformation, int mode,
+            byte[] input) throws Exception {
+        Cipher cipher = Cipher.getInstance(transformation.getName());
+        cipher.init(mode, key, iv);
+        return cipher.doFinal(input);
+    }
+}
@@ -18,12 +18,15 @@
 
 package org.apache.commons.crypto.cipher;
 
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
 
 import javax.crypto.Cipher;
 
 import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Test;
 
 public class JceCipherTest extends AbstractCipherTest {
 
@@ -49,4 +52,13 @@ public class JceCipherTest extends AbstractCipherTest {
                 MAX_KEY_LEN_LOWER_BOUND, maxKeyLen),
                 maxKeyLen >= MAX_KEY_LEN_LOWER_BOUND);
     }
+
+    @Test
+    public void testHeapBufferPreferred() throws GeneralSecurityException {
+        JceCipher cipher = new JceCipher(new Properties(),
+                CipherTransformation.AES_CTR_NOPADDING);
+        Assert.assertFalse(cipher.isDirectBufferPreferred());
+        Assert.assertFalse(CryptoCipherUtils.isDirectBufferPreferred(cipher));
+        cipher.close();
+    }
 }
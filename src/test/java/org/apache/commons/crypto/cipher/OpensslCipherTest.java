@@ -22,8 +22,13 @@ import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.junit.Assert;
 import org.junit.Assume;
@@ -90,16 +95,32 @@ public class OpensslCipherTest extends AbstractCipherTest {
 
         cipher.init(Openssl.ENCRYPT_MODE, KEY, IV);
 
-        // Require direct buffers
-        ByteBuffer input = ByteBuffer.allocate(1024);
+        // Array-backed heap buffers are accepted
+        byte[] plain = new byte[1024];
+        new Random(plain.length).nextBytes(plain);
+        ByteBuffer input = ByteBuffer.wrap(plain);
         ByteBuffer output = ByteBuffer.allocate(1024);
+        Assert.assertEquals(1024, cipher.update(input, output));
+        Assert.assertFalse(input.hasRemaining());
+        Assert.assertArrayEquals(jceEncrypt(plain), output.array());
 
-        try {
-            cipher.update(input, output);
-            Assert.fail("Input and output buffer should be direct buffer.");
-        } catch (IllegalArgumentException e) {
-            Assert.assertTrue(e.getMessage().contains(
-                    "Direct buffers are required"));
+        // Mixed direct and heap buffers, or heap buffers without an
+        // accessible array, are rejected
+        ByteBuffer[][] rejected = {
+                { ByteBuffer.allocate(1024), ByteBuffer.allocateDirect(1024) },
+                { ByteBuffer.allocateDirect(1024), ByteBuffer.allocate(1024) },
+                { ByteBuffer.allocate(1024).asReadOnlyBuffer(),
+                        ByteBuffer.allocate(1024) },
+                { ByteBuffer.allocate(1024),
+                        ByteBuffer.allocate(1024).asReadOnlyBuffer() } };
+        for (ByteBuffer[] buffers : rejected) {
+            try {
+                cipher.update(buffers[0], buffers[1]);
+                Assert.fail("Mixed or read-only buffers should be rejected.");
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage().contains(
+                        "Direct or array-backed buffers are required"));
+            }
         }
 
         // Output buffer length should be sufficient to store output data
@@ -124,18 +145,30 @@ public class OpensslCipherTest extends AbstractCipherTest {
 
         cipher.init(Openssl.ENCRYPT_MODE, KEY, IV);
 
-        // Require direct buffer
+        // An array-backed heap buffer is accepted
         ByteBuffer output = ByteBuffer.allocate(1024);
+        Assert.assertEquals(0, cipher.doFinal(output));
+        Assert.assertEquals(0, output.position());
 
+        // A heap buffer without an accessible array is rejected
+        cipher.init(Openssl.ENCRYPT_MODE, KEY, IV);
         try {
-            cipher.doFinal(output);
-            Assert.fail("Output buffer should be direct buffer.");
+            cipher.doFinal(ByteBuffer.allocate(1024).asReadOnlyBuffer());
+            Assert.fail("Read-only buffer should be rejected.");
         } catch (IllegalArgumentException e) {
             Assert.assertTrue(e.getMessage().contains(
-                    "Direct buffer is required"));
+                    "Direct or array-backed buffer is required"));
         }
     }
 
+    private byte[] jceEncrypt(byte[] plain) throws Exception {
+        Cipher jce = Cipher
+                .getInstance(CipherTransformation.AES_CTR_NOPADDING.getName());
+        jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "AES"),
+                new IvParameterSpec(IV));
+        return jce.doFinal(plain);
+    }
+
     @Test(expected = InvalidKeyException.class, timeout = 120000)
     public void testInvalidKey() throws Exception {
         Assume.assumeTrue(Openssl.getLoadingFailureReason() == null);
@@ -172,4 +205,63 @@ public class OpensslCipherTest extends AbstractCipherTest {
         }
     }
 
+    @Test(timeout = 120000)
+    public void testUpdateLargeBuffer() throws Exception {
+        Assume.assumeTrue(Openssl.getLoadingFailureReason() == null);
+        Openssl cipher = Openssl
+                .getInstance(CipherTransformation.AES_CTR_NOPADDING.getName());
+        cipher.init(Openssl.ENCRYPT_MODE, KEY, IV);
+
+        // Larger than one native call, not a multiple of the block size
+        int length = 3 * 1024 * 1024 + 5;
+        byte[] plain = new byte[length];
+        new Random(length).nextBytes(plain);
+        ByteBuffer input = ByteBuffer.allocateDirect(length);
+        ByteBuffer output = ByteBuffer.allocateDirect(length);
+        input.put(plain);
+        input.flip();
+        Assert.assertEquals(length, cipher.update(input, output));
+        Assert.assertEquals(length, output.position());
+
+        Cipher jce = Cipher
+                .getInstance(CipherTransformation.AES_CTR_NOPADDING.getName());
+        jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "AES"),
+                new IvParameterSpec(IV));
+        byte[] expected = jce.doFinal(plain);
+        byte[] actual = new byte[length];
+        output.flip();
+        output.get(actual);
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    @Test(timeout = 120000)
+    public void testHeapBuffers() throws Exception {
+        Assume.assumeTrue(Openssl.getLoadingFailureReason() == null);
+        Openssl cipher = Openssl
+                .getInstance(CipherTransformation.AES_CBC_PKCS5PADDING.getName());
+        cipher.init(Openssl.ENCRYPT_MODE, KEY, IV);
+
+        byte[] plain = new byte[100];
+        new Random(100).nextBytes(plain);
+        // Array-backed buffers with an offset into the array
+        ByteBuffer input = ByteBuffer.wrap(new byte[110], 5, 100).slice();
+        ByteBuffer output = ByteBuffer.wrap(new byte[130], 3, 120).slice();
+        input.put(plain);
+        input.flip();
+        int n = cipher.update(input, output);
+        n += cipher.doFinal(output);
+        Assert.assertEquals(112, n);
+        Assert.assertEquals(112, output.position());
+        Assert.assertFalse(input.hasRemaining());
+
+        Cipher jce = Cipher.getInstance(CipherTransformation.AES_CBC_PKCS5PADDING
+                .getName());
+        jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "AES"),
+                new IvParameterSpec(IV));
+        byte[] expected = jce.doFinal(plain);
+        byte[] actual = new byte[n];
+        output.flip();
+        output.get(actual);
+        Assert.assertArrayEquals(expected, actual);
+    }
 }
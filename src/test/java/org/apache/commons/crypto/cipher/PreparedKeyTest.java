@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.cipher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.crypto.utils.NativeCodeLoader;
+import org.apache.commons.crypto.utils.ReflectionUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class PreparedKeyTest {
+
+    private static final byte[] KEY = AbstractCipherTest.KEY;
+    private static final byte[] IV = AbstractCipherTest.IV;
+
+    @Test(timeout = 120000)
+    public void testJceCipher() throws Exception {
+        PreparedKey key = new PreparedKey(KEY);
+        try {
+            assertSameAsPlainKey(JceCipher.class.getName(), key);
+        } finally {
+            key.close();
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testOpensslCipher() throws Exception {
+        Assume.assumeTrue(NativeCodeLoader.isNativeCodeLoaded()
+                && Openssl.getLoadingFailureReason() == null);
+        PreparedKey key = new PreparedKey(KEY);
+        try {
+            // The templates are reused by the second round
+            assertSameAsPlainKey(OpensslCipher.class.getName(), key);
+            assertSameAsPlainKey(OpensslCipher.class.getName(), key);
+        } finally {
+            key.close();
+        }
+        // A closed key is still a plain key
+        assertSameAsPlainKey(OpensslCipher.class.getName(), key);
+    }
+
+    @Test(timeout = 120000)
+    public void testKey() throws Exception {
+        PreparedKey key = new PreparedKey(KEY);
+        Assert.assertEquals("AES", key.getAlgorithm());
+        Assert.assertEquals("RAW", key.getFormat());
+        Assert.assertArrayEquals(KEY, key.getEncoded());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(key);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray()));
+        PreparedKey copy = (PreparedKey) in.readObject();
+        in.close();
+        Assert.assertArrayEquals(KEY, copy.getEncoded());
+        assertSameAsPlainKey(JceCipher.class.getName(), copy);
+    }
+
+    private void assertSameAsPlainKey(String cipherClass, Key key)
+            throws Exception {
+        byte[] input = new byte[1024];
+        new Random().nextBytes(input);
+        for (CipherTransformation transformation : new CipherTransformation[] {
+                CipherTransformation.AES_CBC_NOPADDING,
+                CipherTransformation.AES_CBC_PKCS5PADDING,
+                CipherTransformation.AES_CTR_NOPADDING }) {
+            byte[] expected = crypt(cipherClass, transformation,
+                    CryptoCipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "AES"),
+                    input);
+            byte[] actual = crypt(cipherClass, transformation,
+                    CryptoCipher.ENCRYPT_MODE, key, input);
+            Assert.assertArrayEquals(expected, actual);
+            Assert.assertArrayEquals(input, crypt(cipherClass, transformation,
+                    CryptoCipher.DECRYPT_MODE, key, actual));
+        }
+    }
+
+    private byte[] crypt(String cipherClass,
+            CipherTransformation transformation, int mode, Key key,
+            byte[] input) throws Exception {
+        CryptoCipher cipher = (CryptoCipher) ReflectionUtils.newInstance(
+                ReflectionUtils.getClassByName(cipherClass), new Properties(),
+                transformation);
+        try {
+            byte[] output = new byte[input.length + 16];
+            // Initialize twice, the second init must reset the context
+            cipher.init(mode, key, new IvParameterSpec(IV));
+            cipher.update(input, 0, 16, output, 0);
+            cipher.init(mode, key, new IvParameterSpec(IV));
+            int n = cipher.doFinal(input, 0, input.length, output, 0);
+            return Arrays.copyOf(output, n);
+        } finally {
+            cipher.close();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.container;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.JceCipher;
+import org.apache.commons.crypto.conf.ConfigurationKeys;
+import org.apache.commons.crypto.stream.input.Input;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CryptoContainerTest {
+
+    private final int chunkSize = 4096;
+    private Properties props = new Properties();
+    private byte[] key = new byte[16];
+    private byte[] iv = new byte[16];
+    private Random random = new SecureRandom();
+
+    @Before
+    public void before() {
+        props.setProperty(ConfigurationKeys.COMMONS_CRYPTO_CIPHER_CLASSES_KEY,
+                JceCipher.class.getName());
+        random.nextBytes(key);
+        random.nextBytes(iv);
+    }
+
+    @Test(timeout = 120000)
+    public void testRoundTrip() throws Exception {
+        int[] lengths = { 0, 1, chunkSize - 1, chunkSize, chunkSize + 1,
+                5 * chunkSize + 123 };
+        for (int length : lengths) {
+            doRoundTrip(length, true);
+            doRoundTrip(length, false);
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testRandomAccess() throws Exception {
+        byte[] data = randomData(7 * chunkSize + 17);
+        CryptoContainerReader reader = openReader(writeContainer(data, true));
+        try {
+            for (int i = 0; i < 200; i++) {
+                int pos = random.nextInt(data.length);
+                int len = random.nextInt(3 * chunkSize);
+                byte[] buf = new byte[len];
+                int n = reader.read(pos, buf, 0, len);
+                Assert.assertEquals(Math.min(len, data.length - pos), n);
+                Assert.assertArrayEquals(
+                        Arrays.copyOfRange(data, pos, pos + n),
+                        Arrays.copyOf(buf, n));
+            }
+            Assert.assertEquals(-1, reader.read(data.length, new byte[1], 0, 1));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testHeader() throws Exception {
+        byte[] container = writeContainer(randomData(100), true);
+        CryptoContainerReader reader = openReader(container);
+        try {
+            ContainerHeader header = reader.getHeader();
+            Assert.assertEquals(ContainerHeader.VERSION, header.getVersion());
+            Assert.assertEquals(CipherTransformation.AES_CTR_NOPADDING,
+                    header.getTransformation());
+            Assert.assertArrayEquals(iv, header.getIV());
+            Assert.assertEquals(chunkSize, header.getChunkSize());
+            Assert.assertTrue(header.hasChunkTags());
+            Assert.assertEquals(100, reader.getLength());
+            Assert.assertEquals(1, reader.getChunkCount());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testTamperedChunk() throws Exception {
+        byte[] data = randomData(3 * chunkSize);
+        byte[] container = writeContainer(data, true);
+        int headerLength = new ContainerHeader(
+                CipherTransformation.AES_CTR_NOPADDING, iv, chunkSize,
+                ContainerHeader.FLAG_CHUNK_TAGS).toBytes().length;
+        container[headerLength + chunkSize + 10] ^= 1;
+
+        CryptoContainerReader reader = openReader(container);
+        try {
+            byte[] buf = new byte[chunkSize];
+            Assert.assertEquals(chunkSize, reader.readChunk(0, buf, 0));
+            Assert.assertArrayEquals(Arrays.copyOf(data, chunkSize), buf);
+            try {
+                reader.readChunk(1, buf, 0);
+                Assert.fail("Tampered chunk should fail verification");
+            } catch (IOException e) {
+                // expected
+            }
+            try {
+                reader.read(chunkSize - 1, buf, 0, 2);
+                Assert.fail("Read over a tampered chunk should fail");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testTamperedTrailer() throws Exception {
+        byte[] container = writeContainer(randomData(3 * chunkSize), true);
+        // The last chunk tag is just before the trailer tag and the footer.
+        container[container.length - 12 - 32 - 1] ^= 1;
+        try {
+            openReader(container);
+            Assert.fail("Tampered trailer should fail verification");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testWrongKey() throws Exception {
+        byte[] container = writeContainer(randomData(100), true);
+        key[0] ^= 1;
+        try {
+            openReader(container);
+            Assert.fail("Wrong key should fail verification");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testNotAContainer() throws Exception {
+        try {
+            openReader(randomData(1000));
+            Assert.fail("Random data is not a container");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private void doRoundTrip(int length, boolean chunkTags) throws Exception {
+        byte[] data = randomData(length);
+        CryptoContainerReader reader = openReader(writeContainer(data,
+                chunkTags));
+        try {
+            Assert.assertEquals(length, reader.getLength());
+            Assert.assertEquals((length + chunkSize - 1) / chunkSize,
+                    reader.getChunkCount());
+            Assert.assertEquals(chunkTags, reader.getHeader().hasChunkTags());
+
+            ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            byte[] chunk = new byte[chunkSize];
+            for (int i = 0; i < reader.getChunkCount(); i++) {
+                int n = reader.readChunk(i, chunk, 0);
+                Assert.assertEquals(reader.getChunkLength(i), n);
+                plain.write(chunk, 0, n);
+            }
+            Assert.assertArrayEquals(data, plain.toByteArray());
+
+            if (length > 0) {
+                byte[] all = new byte[length];
+                Assert.assertEquals(length, reader.read(0, all, 0, length));
+                Assert.assertArrayEquals(data, all);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private byte[] writeContainer(byte[] data, boolean chunkTags)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CryptoContainerOutputStream out = new CryptoContainerOutputStream(
+                props, baos, key, iv, chunkSize, chunkTags);
+        // Write in uneven pieces to cross buffer and chunk boundaries.
+        int off = 0;
+        while (off < data.length) {
+            int n = Math.min(data.length - off, 1 + random.nextInt(3000));
+            out.write(data, off, n);
+            off += n;
+        }
+        out.close();
+        return baos.toByteArray();
+    }
+
+    private CryptoContainerReader openReader(byte[] container)
+            throws IOException {
+        return new CryptoContainerReader(props, new ByteArrayInput(container),
+                container.length, key);
+    }
+
+    private byte[] randomData(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static class ByteArrayInput implements Input {
+        private final byte[] data;
+
+        ByteArrayInput(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int available() throws IOException {
+            return 0;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length)
+                throws IOException {
+            if (position >= data.length) {
+                return -1;
+            }
+            int n = (int) Math.min(length, data.length - position);
+            System.arraycopy(data, (int) position, buffer, offset, n);
+            return n;
+        }
+
+        @Override
+        public void seek(long position) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
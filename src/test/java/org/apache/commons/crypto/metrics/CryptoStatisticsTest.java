@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.metrics;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CryptoStatisticsTest {
+
+    @Test(timeout = 120000)
+    public void testRecord() {
+        CryptoStatistics statistics = new CryptoStatistics();
+        statistics.record(CryptoMetric.CIPHER_UPDATE, 100, 1000);
+        statistics.record(CryptoMetric.CIPHER_UPDATE, 200, 3000);
+        statistics.record(CryptoMetric.BUFFER_POOL_MISS, 0, 0);
+
+        Assert.assertEquals(2, statistics.getCount(CryptoMetric.CIPHER_UPDATE));
+        Assert.assertEquals(300, statistics.getBytes(CryptoMetric.CIPHER_UPDATE));
+        Assert.assertEquals(4000,
+                statistics.getTotalNanos(CryptoMetric.CIPHER_UPDATE));
+        Assert.assertEquals(1, statistics.getCount("BUFFER_POOL_MISS"));
+        Assert.assertEquals(0, statistics.getTotalNanos("BUFFER_POOL_MISS"));
+        Assert.assertEquals(0, statistics.getCount(CryptoMetric.CIPHER_INIT));
+        Assert.assertEquals(CryptoMetric.values().length,
+                statistics.getMetricNames().length);
+    }
+
+    @Test(timeout = 120000)
+    public void testRecordInit() {
+        CryptoStatistics statistics = new CryptoStatistics();
+        statistics.recordInit(CipherTransformation.AES_CTR_NOPADDING,
+                "OpenSSL", 500);
+        Assert.assertEquals(1, statistics.getCount(CryptoMetric.CIPHER_INIT));
+        Assert.assertEquals(500,
+                statistics.getTotalNanos(CryptoMetric.CIPHER_INIT));
+    }
+
+    @Test(timeout = 120000)
+    public void testPercentile() {
+        CryptoStatistics statistics = new CryptoStatistics();
+        Assert.assertEquals(0, statistics.getPercentileNanos(
+                CryptoMetric.STREAM_DECRYPT, 50));
+        for (int i = 0; i < 99; i++) {
+            statistics.record(CryptoMetric.STREAM_DECRYPT, 1, 1000);
+        }
+        statistics.record(CryptoMetric.STREAM_DECRYPT, 1, 1000000);
+
+        // 1000 is in [512, 1024), 1000000 is in [2^19, 2^20)
+        Assert.assertEquals(1023, statistics.getPercentileNanos(
+                CryptoMetric.STREAM_DECRYPT, 50));
+        Assert.assertEquals(1023, statistics.getPercentileNanos(
+                CryptoMetric.STREAM_DECRYPT, 99));
+        Assert.assertEquals((1 << 20) - 1, statistics.getPercentileNanos(
+                "STREAM_DECRYPT", 100));
+        Assert.assertEquals(1023, statistics.getPercentileNanos(
+                "STREAM_DECRYPT", 0));
+    }
+
+    @Test(timeout = 120000)
+    public void testReset() {
+        CryptoStatistics statistics = new CryptoStatistics();
+        statistics.record(CryptoMetric.RANDOM_BYTES, 16, Long.MAX_VALUE);
+        Assert.assertEquals(Long.MAX_VALUE, statistics.getPercentileNanos(
+                CryptoMetric.RANDOM_BYTES, 100));
+        statistics.reset();
+        Assert.assertEquals(0, statistics.getCount(CryptoMetric.RANDOM_BYTES));
+        Assert.assertEquals(0, statistics.getBytes(CryptoMetric.RANDOM_BYTES));
+        Assert.assertEquals(0, statistics.getPercentileNanos(
+                CryptoMetric.RANDOM_BYTES, 100));
+    }
+
+    @Test(expected = IllegalArgumentException.class, timeout = 120000)
+    public void testInvalidPercentile() {
+        new CryptoStatistics().getPercentileNanos(CryptoMetric.CIPHER_INIT,
+                101);
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.netty;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.JceCipher;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CryptoHandlerTest {
+
+    private final SecretKeySpec key = new SecretKeySpec(new byte[] { 0x01,
+            0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x10, 0x11, 0x12,
+            0x13, 0x14, 0x15, 0x16 }, "AES");
+    private final IvParameterSpec iv = new IvParameterSpec(new byte[] { 0x01,
+            0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x10, 0x11, 0x12,
+            0x13, 0x14, 0x15, 0x16 });
+
+    @Test(timeout = 120000)
+    public void testRoundTripAcrossFrames() throws Exception {
+        byte[] plain = new byte[10000];
+        new Random(1).nextBytes(plain);
+
+        Properties props = new Properties();
+        props.setProperty("commons.crypto.cipher.classes",
+                JceCipher.class.getName());
+        EmbeddedChannel encryptChannel = new EmbeddedChannel(
+                new CryptoEncryptHandler(props, key, iv));
+        // Direct frames encrypted in place, heap frames copied
+        encryptChannel.writeOutbound(direct(plain, 0, 1000),
+                Unpooled.wrappedBuffer(Arrays.copyOfRange(plain, 1000, 1017)),
+                direct(plain, 1017, plain.length));
+        byte[] encrypted = readAll(encryptChannel, false, plain.length);
+        Assert.assertArrayEquals(jceEncrypt(plain), encrypted);
+
+        // The decrypting side receives the bytes split differently
+        EmbeddedChannel decryptChannel = new EmbeddedChannel(
+                new CryptoDecryptHandler(props, key, iv));
+        decryptChannel.writeInbound(
+                Unpooled.wrappedBuffer(Arrays.copyOfRange(encrypted, 0, 5)),
+                direct(encrypted, 5, 4096),
+                direct(encrypted, 4096, encrypted.length));
+        Assert.assertArrayEquals(plain,
+                readAll(decryptChannel, true, plain.length));
+
+        Assert.assertFalse(encryptChannel.finish());
+        Assert.assertFalse(decryptChannel.finish());
+    }
+
+    @Test(timeout = 120000)
+    public void testSharedBuffersNotModified() throws Exception {
+        byte[] plain = new byte[3000];
+        new Random(2).nextBytes(plain);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new CryptoEncryptHandler(
+                new JceCipher(new Properties(),
+                        CipherTransformation.AES_CTR_NOPADDING), key, iv));
+        // A duplicate for broadcast and a buffer retained by its writer
+        ByteBuf broadcast = direct(plain, 0, 1000);
+        ByteBuf retained = direct(plain, 1000, plain.length);
+        retained.retain();
+        channel.writeOutbound(broadcast.retainedDuplicate(), retained);
+        Assert.assertArrayEquals(jceEncrypt(plain),
+                readAll(channel, false, plain.length));
+
+        // The other holders still see the plain text
+        Assert.assertArrayEquals(Arrays.copyOfRange(plain, 0, 1000),
+                bytes(broadcast));
+        Assert.assertArrayEquals(Arrays.copyOfRange(plain, 1000, plain.length),
+                bytes(retained));
+        Assert.assertTrue(broadcast.release());
+        Assert.assertTrue(retained.release());
+        Assert.assertFalse(channel.finish());
+    }
+
+    @Test(timeout = 120000)
+    public void testUnsupportedMessageRejected() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new CryptoEncryptHandler(
+                new JceCipher(new Properties(),
+                        CipherTransformation.AES_CTR_NOPADDING), key, iv));
+        ByteBufHolder holder = new DefaultByteBufHolder(
+                Unpooled.wrappedBuffer(new byte[] { 1, 2, 3 }));
+        ChannelFuture future = channel.writeOneOutbound(holder);
+        channel.flushOutbound();
+        Assert.assertTrue(future.cause() instanceof UnsupportedOperationException);
+        // Released and never written in plain text
+        Assert.assertEquals(0, holder.refCnt());
+        Assert.assertNull(channel.readOutbound());
+        Assert.assertFalse(channel.finish());
+    }
+
+    private byte[] bytes(ByteBuf buf) {
+        // Written buffers are read, so the bytes are taken from the start
+        byte[] bytes = new byte[buf.writerIndex()];
+        buf.getBytes(0, bytes);
+        return bytes;
+    }
+
+    private ByteBuf direct(byte[] data, int from, int to) {
+        ByteBuf buf = Unpooled.directBuffer(to - from);
+        buf.writeBytes(Arrays.copyOfRange(data, from, to));
+        return buf;
+    }
+
+    private byte[] readAll(EmbeddedChannel channel, boolean inbound,
+            int length) {
+        byte[] result = new byte[length];
+        int offset = 0;
+        ByteBuf buf;
+        while ((buf = inbound ? channel.<ByteBuf> readInbound() : channel
+                .<ByteBuf> readOutbound()) != null) {
+            int n = buf.readableBytes();
+            byte[] bytes = new byte[n];
+            buf.readBytes(bytes);
+            buf.release();
+            System.arraycopy(bytes, 0, result, offset, n);
+            offset += n;
+        }
+        Assert.assertEquals(length, offset);
+        return result;
+    }
+
+    private byte[] jceEncrypt(byte[] plain) throws Exception {
+        Cipher cipher = Cipher.getInstance(CipherTransformation.AES_CTR_NOPADDING
+                .getName());
+        cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+        return cipher.doFinal(plain);
+    }
+}
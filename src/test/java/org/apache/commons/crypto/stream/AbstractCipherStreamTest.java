@@ -21,6 +21,9 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -28,11 +31,13 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Properties;
 import java.util.Random;
 
 import org.apache.commons.crypto.cipher.*;
 import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.conf.ConfigurationKeys;
 import org.apache.commons.crypto.utils.ReflectionUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -104,6 +109,84 @@ public abstract class AbstractCipherStreamTest {
         doByteBufferWrite(opensslCipherClass, baos, true);
     }
 
+    /** Test streams on files, which are read and written through channels. */
+    @Test(timeout = 120000)
+    public void testFileStreams() throws Exception {
+        File file = File.createTempFile("commons-crypto-", ".enc");
+        file.deleteOnExit();
+
+        OutputStream out = new CryptoOutputStream(new FileOutputStream(file),
+                getCipher(jceCipherClass), smallBufferSize, new SecretKeySpec(
+                        key, "AES"), new IvParameterSpec(iv));
+        out.write(data);
+        out.close();
+
+        byte[] written = new byte[(int) file.length()];
+        DataInputStream dis = new DataInputStream(new FileInputStream(file));
+        dis.readFully(written);
+        dis.close();
+        Assert.assertArrayEquals(encData, written);
+
+        InputStream in = new CryptoInputStream(new FileInputStream(file),
+                getCipher(jceCipherClass), smallBufferSize, new SecretKeySpec(
+                        key, "AES"), new IvParameterSpec(iv));
+        byte[] result = new byte[dataLen];
+        Assert.assertEquals(dataLen, readAll(in, result, 0, dataLen));
+        Assert.assertEquals(-1, in.read());
+        in.close();
+        Assert.assertTrue(Arrays.equals(data, result));
+    }
+
+    /** Test streams growing and shrinking their buffers with the traffic. */
+    @Test(timeout = 120000)
+    public void testAdaptiveBufferSize() throws Exception {
+        Properties adaptiveProps = new Properties();
+        adaptiveProps.setProperty(
+                ConfigurationKeys.COMMONS_CRYPTO_STREAM_BUFFER_ADAPTIVE_KEY,
+                "true");
+        adaptiveProps.setProperty(
+                ConfigurationKeys.COMMONS_CRYPTO_STREAM_BUFFER_MAX_SIZE_KEY,
+                "32768");
+        int large = 16384;
+        int small = 16;
+        byte[] plain = new byte[24 * large + 32 * small];
+        new Random(plain.length).nextBytes(plain);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CryptoOutputStream out = getCryptoOutputStream(baos, new JceCipher(
+                adaptiveProps, transformation), defaultBufferSize, iv, false);
+        int off = 0;
+        for (int i = 0; i < 24; i++, off += large) {
+            out.write(plain, off, large);
+        }
+        Assert.assertEquals(32768, out.getBufferSize());
+        for (int i = 0; i < 32; i++, off += small) {
+            out.write(plain, off, small);
+        }
+        Assert.assertTrue(out.getBufferSize() < defaultBufferSize);
+        out.close();
+
+        CryptoInputStream in = getCryptoInputStream(new ByteArrayInputStream(
+                baos.toByteArray()), new JceCipher(adaptiveProps,
+                transformation), defaultBufferSize, iv, false);
+        byte[] result = new byte[plain.length];
+        off = 0;
+        for (int i = 0; i < 24; i++) {
+            int n = readAll(in, result, off, large);
+            Assert.assertEquals(large, n);
+            off += n;
+        }
+        Assert.assertTrue(in.getBufferSize() > defaultBufferSize);
+        while (off < plain.length) {
+            int n = in.read(result, off, small);
+            Assert.assertTrue(n > 0);
+            off += n;
+        }
+        Assert.assertEquals(-1, in.read());
+        in.close();
+        Assert.assertArrayEquals(plain, result);
+    }
+
     private void doSkipTest(String cipherClass, boolean withChannel)
             throws IOException {
         InputStream in = getCryptoInputStream(
@@ -20,10 +20,30 @@ package org.apache.commons.crypto.stream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.security.GeneralSecurityException;
+import java.util.Properties;
+import java.util.Random;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.crypto.cipher.CryptoCipher;
 import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.JceCipher;
+import org.apache.commons.crypto.utils.CipherPool;
+import org.apache.commons.crypto.utils.Utils;
+import org.junit.Assert;
+import org.junit.Test;
 
 public class CTRCryptoStreamTest extends AbstractCipherStreamTest {
 
@@ -55,4 +75,288 @@ public class CTRCryptoStreamTest extends AbstractCipherStreamTest {
             return new CTRCryptoOutputStream(baos, cipher, bufferSize, key, iv);
         }
     }
+
+    /** Test writes larger than the buffer, which skip the input buffer. */
+    @Test(timeout = 120000)
+    public void testLargeWrite() throws Exception {
+        byte[] iv = new byte[16];
+        byte[] plain = new byte[10 * smallBufferSize + 7];
+        new Random(plain.length).nextBytes(plain);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CTRCryptoOutputStream out = new CTRCryptoOutputStream(baos,
+                new JceCipher(new Properties(), transformation),
+                smallBufferSize, key, iv);
+        // CTR encrypts in place, without a second buffer
+        Assert.assertNull(out.getOutBuffer());
+        // Unaligned buffered data, then large writes from an offset
+        out.write(plain, 0, 5);
+        out.write(plain, 5, 3 * smallBufferSize + 1);
+        out.write(plain, 3 * smallBufferSize + 6, 100);
+        out.write(plain, 3 * smallBufferSize + 106, plain.length
+                - (3 * smallBufferSize + 106));
+        out.close();
+
+        Cipher jce = Cipher.getInstance(transformation.getName());
+        jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"),
+                new IvParameterSpec(iv));
+        Assert.assertArrayEquals(jce.doFinal(plain), baos.toByteArray());
+    }
+
+    /** Test streams giving their buffers and cipher back while idle. */
+    @Test(timeout = 120000)
+    public void testIdleRelease() throws Exception {
+        byte[] iv = new byte[16];
+        byte[] plain = new byte[3 * smallBufferSize + 5];
+        new Random(plain.length).nextBytes(plain);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CTRCryptoOutputStream out = new CTRCryptoOutputStream(baos,
+                new JceCipher(new Properties(), transformation),
+                smallBufferSize, key, iv);
+        // Unaligned releases, the counter is recomputed after each one
+        out.write(plain, 0, 37);
+        out.release();
+        Assert.assertNull(out.getInBuffer());
+        out.write(plain, 37, smallBufferSize + 3);
+        out.release();
+        Assert.assertNull(out.getInBuffer());
+        out.write(plain, smallBufferSize + 40, plain.length
+                - (smallBufferSize + 40));
+        out.close();
+
+        Cipher jce = Cipher.getInstance(transformation.getName());
+        jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"),
+                new IvParameterSpec(iv));
+        byte[] encrypted = baos.toByteArray();
+        Assert.assertArrayEquals(jce.doFinal(plain), encrypted);
+
+        CTRCryptoInputStream in = new CTRCryptoInputStream(
+                new ByteArrayInputStream(encrypted), new JceCipher(
+                        new Properties(), transformation), smallBufferSize,
+                key, iv);
+        byte[] result = new byte[plain.length];
+        int off = 0;
+        while (off < result.length) {
+            off += in.read(result, off, Math.min(100, result.length - off));
+            // Released only once the decrypted data is read
+            in.release();
+        }
+        Assert.assertNull(in.inBuffer);
+        Assert.assertEquals(plain.length, off);
+        Assert.assertArrayEquals(plain, result);
+        in.close();
+    }
+
+    /**
+     * Test released streams pooling only the ciphers they created, and
+     * keeping the cipher of the caller.
+     */
+    @Test(timeout = 120000)
+    public void testReleaseKeepsCallerCipher() throws Exception {
+        byte[] iv = new byte[16];
+        byte[] plain = new byte[2 * smallBufferSize + 5];
+        new Random(plain.length).nextBytes(plain);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CryptoCipher outCipher = new JceCipher(new Properties(),
+                transformation);
+        CTRCryptoOutputStream out = new CTRCryptoOutputStream(baos, outCipher,
+                smallBufferSize, key, iv);
+        Assert.assertFalse(out.cipherCreated);
+        out.write(plain, 0, 37);
+        out.release();
+        Assert.assertNull(out.getInBuffer());
+        Assert.assertNotSame(outCipher, CipherPool.acquire(outCipher));
+        out.write(plain, 37, plain.length - 37);
+        Assert.assertSame(outCipher, out.getCipher());
+        out.close();
+
+        CryptoCipher inCipher = new JceCipher(new Properties(),
+                transformation);
+        CTRCryptoInputStream in = new CTRCryptoInputStream(
+                new ByteArrayInputStream(baos.toByteArray()), inCipher,
+                smallBufferSize, key, iv);
+        byte[] result = new byte[plain.length];
+        int off = 0;
+        while (off < result.length) {
+            off += in.read(result, off, Math.min(100, result.length - off));
+            in.release();
+            Assert.assertNotSame(inCipher, CipherPool.acquire(inCipher));
+        }
+        Assert.assertSame(inCipher, in.getCipher());
+        Assert.assertArrayEquals(plain, result);
+        in.close();
+
+        CTRCryptoOutputStream created = new CTRCryptoOutputStream(
+                new Properties(), new ByteArrayOutputStream(), key, iv);
+        Assert.assertTrue(created.cipherCreated);
+        created.close();
+    }
+
+    /** Test busy streams keeping their buffers and cipher. */
+    @Test(timeout = 120000)
+    public void testBusyStreamKeepsCipher() throws Exception {
+        byte[] iv = new byte[16];
+        byte[] plain = new byte[3 * smallBufferSize + 5];
+        new Random(plain.length).nextBytes(plain);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CTRCryptoOutputStream out = new CTRCryptoOutputStream(baos,
+                new JceCipher(new Properties(), transformation),
+                smallBufferSize, key, iv);
+        CryptoCipher outCipher = out.getCipher();
+        ByteBuffer outBuffer = out.getInBuffer();
+        for (int off = 0; off < plain.length; off += 100) {
+            out.write(plain, off, Math.min(100, plain.length - off));
+            out.flush();
+            Assert.assertSame(outCipher, out.getCipher());
+            Assert.assertSame(outBuffer, out.getInBuffer());
+        }
+        out.close();
+
+        // A channel input never has data available
+        CTRCryptoInputStream in = new CTRCryptoInputStream(
+                Channels.newChannel(new ByteArrayInputStream(baos
+                        .toByteArray())), new JceCipher(new Properties(),
+                        transformation), smallBufferSize, key, iv);
+        CryptoCipher inCipher = in.getCipher();
+        ByteBuffer inBuffer = in.inBuffer;
+        byte[] result = new byte[plain.length];
+        int off = 0;
+        while (off < result.length) {
+            off += in.read(result, off, Math.min(100, result.length - off));
+            Assert.assertSame(inCipher, in.getCipher());
+            Assert.assertSame(inBuffer, in.inBuffer);
+        }
+        Assert.assertArrayEquals(plain, result);
+        in.close();
+    }
+
+    /**
+     * Test reading into direct and heap buffers with a cipher that, like
+     * OpenSSL, rejects a heap buffer mixed with a direct one.
+     */
+    @Test(timeout = 120000)
+    public void testByteBufferReadUnmixed() throws Exception {
+        byte[] iv = new byte[16];
+        byte[] plain = new byte[3 * smallBufferSize + 5];
+        new Random(plain.length).nextBytes(plain);
+        Cipher jce = Cipher.getInstance(transformation.getName());
+        jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"),
+                new IvParameterSpec(iv));
+        byte[] encrypted = jce.doFinal(plain);
+
+        // Stream and channel inputs, with either buffer type preferred
+        for (int i = 0; i < 8; i++) {
+            boolean withChannel = (i & 1) != 0;
+            boolean directPreferred = (i & 2) != 0;
+            ByteBuffer buf = (i & 4) != 0 ? ByteBuffer
+                    .allocateDirect(plain.length) : ByteBuffer
+                    .allocate(plain.length);
+            CTRCryptoInputStream in = getCryptoInputStream(
+                    new ByteArrayInputStream(encrypted),
+                    getUnmixedCipher(directPreferred), smallBufferSize, iv,
+                    withChannel);
+            while (buf.hasRemaining() && in.read(buf) >= 0) {
+                // Reads both through outBuffer and straight into buf
+            }
+            in.close();
+            buf.flip();
+            byte[] result = new byte[plain.length];
+            buf.get(result);
+            Assert.assertArrayEquals(plain, result);
+        }
+    }
+
+    /**
+     * Test a cipher of another implementation, which gets separate input and
+     * output buffers instead of being updated in place.
+     */
+    @Test(timeout = 120000)
+    public void testOtherCipherNotInPlace() throws Exception {
+        byte[] iv = new byte[16];
+        byte[] plain = new byte[3 * smallBufferSize + 5];
+        new Random(plain.length).nextBytes(plain);
+        Cipher jce = Cipher.getInstance(transformation.getName());
+        jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"),
+                new IvParameterSpec(iv));
+        byte[] encrypted = jce.doFinal(plain);
+
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            CTRCryptoOutputStream out = getCryptoOutputStream(baos,
+                    getSeparateBuffersCipher(), smallBufferSize, iv, i == 1);
+            Assert.assertNotNull(out.getOutBuffer());
+            out.write(plain, 0, 100);
+            out.write(plain, 100, 2 * smallBufferSize);
+            out.write(plain, 100 + 2 * smallBufferSize,
+                    plain.length - 100 - 2 * smallBufferSize);
+            out.close();
+            Assert.assertArrayEquals(encrypted, baos.toByteArray());
+        }
+    }
+
+    /**
+     * Gets a cipher that isn't one of this library and fails when its input
+     * and output buffers are the same.
+     */
+    private static CryptoCipher getSeparateBuffersCipher()
+            throws GeneralSecurityException {
+        final CryptoCipher jce = new JceCipher(new Properties(),
+                CipherTransformation.AES_CTR_NOPADDING);
+        return (CryptoCipher) Proxy.newProxyInstance(
+                CTRCryptoStreamTest.class.getClassLoader(),
+                new Class<?>[] { CryptoCipher.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        if (method.getName().equals("update")
+                                && args[0] instanceof ByteBuffer) {
+                            Assert.assertNotSame(args[0], args[1]);
+                        }
+                        try {
+                            return method.invoke(jce, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Gets a cipher that throws like OpenSSL does when given a heap buffer
+     * and a direct one.
+     */
+    static CryptoCipher getUnmixedCipher(final boolean directPreferred)
+            throws GeneralSecurityException {
+        return new JceCipher(new Properties(),
+                CipherTransformation.AES_CTR_NOPADDING) {
+            @Override
+            public boolean isDirectBufferPreferred() {
+                return directPreferred;
+            }
+
+            @Override
+            public int update(ByteBuffer inBuffer, ByteBuffer outBuffer)
+                    throws ShortBufferException {
+                checkUnmixed(inBuffer, outBuffer);
+                return super.update(inBuffer, outBuffer);
+            }
+
+            @Override
+            public int doFinal(ByteBuffer inBuffer, ByteBuffer outBuffer)
+                    throws ShortBufferException, IllegalBlockSizeException,
+                    BadPaddingException {
+                checkUnmixed(inBuffer, outBuffer);
+                return super.doFinal(inBuffer, outBuffer);
+            }
+
+            private void checkUnmixed(ByteBuffer inBuffer,
+                    ByteBuffer outBuffer) {
+                Utils.checkArgument(inBuffer.isDirect() == outBuffer.isDirect(),
+                        "Direct or array-backed buffers are required.");
+            }
+        };
+    }
 }
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.JceCipher;
+import org.apache.commons.crypto.conf.ConfigurationKeys;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CryptoTransferTest {
+    private final byte[] key = new byte[16];
+    private final byte[] iv = new byte[16];
+    private final byte[] data = new byte[5000];
+    private byte[] encrypted;
+
+    @Before
+    public void before() throws Exception {
+        Random random = new Random(data.length);
+        random.nextBytes(key);
+        random.nextBytes(iv);
+        random.nextBytes(data);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CTRCryptoOutputStream out = new CTRCryptoOutputStream(baos,
+                newCipher(), 4096, key, iv);
+        out.write(data);
+        out.close();
+        encrypted = baos.toByteArray();
+    }
+
+    /** Several buffers are transferred with a small maximum buffer size. */
+    private CryptoCipher newCipher() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(
+                ConfigurationKeys.COMMONS_CRYPTO_STREAM_BUFFER_MAX_SIZE_KEY,
+                "1024");
+        return new JceCipher(props, CipherTransformation.AES_CTR_NOPADDING);
+    }
+
+    @Test
+    public void testEncryptDecrypt() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Assert.assertEquals(data.length, CryptoTransfer.encrypt(
+                Channels.newChannel(new ByteArrayInputStream(data)),
+                Channels.newChannel(baos), newCipher(), key, iv));
+        Assert.assertArrayEquals(encrypted, baos.toByteArray());
+
+        baos.reset();
+        Assert.assertEquals(data.length, CryptoTransfer.decrypt(
+                Channels.newChannel(new ByteArrayInputStream(encrypted)),
+                Channels.newChannel(baos), newCipher(), key, iv));
+        Assert.assertArrayEquals(data, baos.toByteArray());
+    }
+
+    @Test
+    public void testTransferTo() throws Exception {
+        File file = File.createTempFile("transfer", null);
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(data);
+        fos.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel();
+        try {
+            // An unaligned region spanning several buffers
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            Assert.assertEquals(3001, CryptoTransfer.transferTo(channel, 1003,
+                    3001, Channels.newChannel(baos), newCipher(), key, iv));
+            Assert.assertArrayEquals(
+                    Arrays.copyOfRange(encrypted, 1003, 4004),
+                    baos.toByteArray());
+            Assert.assertEquals(0, channel.position());
+
+            // The end of the file is reached
+            baos.reset();
+            Assert.assertEquals(10, CryptoTransfer.transferTo(channel,
+                    data.length - 10, 100, Channels.newChannel(baos),
+                    newCipher(), key, iv));
+            Assert.assertArrayEquals(
+                    Arrays.copyOfRange(encrypted, data.length - 10,
+                            data.length), baos.toByteArray());
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.apache.commons.crypto.cipher.CryptoCipher;
 import org.apache.commons.crypto.cipher.CipherTransformation;
 import org.apache.commons.crypto.cipher.JceCipher;
 import org.apache.commons.crypto.cipher.OpensslCipher;
+import org.apache.commons.crypto.stream.input.ChannelInput;
 import org.apache.commons.crypto.stream.input.Input;
 import org.apache.commons.crypto.utils.ReflectionUtils;
 import org.junit.Assert;
@@ -31,8 +32,11 @@ import org.junit.Test;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Arrays;
@@ -291,6 +295,85 @@ public class PositionedCryptoInputStreamTest {
         Assert.assertArrayEquals(expectedData, realData);
     }
 
+    @Test(timeout = 120000)
+    public void testFileChannelInput() throws Exception {
+        File file = File.createTempFile("commons-crypto-", ".enc");
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(encData);
+        fos.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        PositionedCryptoInputStream in = new PositionedCryptoInputStream(
+                new ChannelInput(raf.getChannel()), getCipher(jceCipherClass),
+                bufferSize, key, iv, 0);
+        try {
+            Assert.assertEquals(dataLen, in.available());
+
+            // Positioned read
+            byte[] result = new byte[length];
+            int n = in.read(dataLen / 3, result, 0, length);
+            Assert.assertEquals(length, n);
+            compareByteArray(testData, dataLen / 3, result, length);
+
+            // Skip and seek move the file position
+            Assert.assertEquals(100, in.skip(100));
+            Assert.assertEquals(dataLen - 100, in.available());
+            in.seek(dataLen / 2);
+            n = in.read(result, 0, length);
+            Assert.assertEquals(length, n);
+            compareByteArray(testData, dataLen / 2, result, length);
+
+            // Skip stops at the end of the file
+            Assert.assertEquals(dataLen / 2 - length, in.skip(dataLen));
+            Assert.assertEquals(0, in.available());
+            Assert.assertEquals(-1, in.read(result, 0, length));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testSkipReadsNothing() throws Exception {
+        final long[] bytesRead = new long[1];
+        Input input = new PositionedInputForTest(Arrays.copyOf(encData,
+                encData.length)) {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int n = super.read(dst);
+                if (n > 0) {
+                    bytesRead[0] += n;
+                }
+                return n;
+            }
+        };
+        PositionedCryptoInputStream in = new PositionedCryptoInputStream(
+                input, getCipher(jceCipherClass), bufferSize, key, iv, 0);
+        try {
+            long pos = 0;
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals(333, in.skip(333));
+                pos += 333;
+            }
+            Assert.assertEquals(0, bytesRead[0]);
+
+            byte[] result = new byte[length];
+            int n = in.read(result, 0, length);
+            Assert.assertEquals(length, n);
+            compareByteArray(testData, (int) pos, result, length);
+            pos += length;
+
+            // Skip past the decrypted data, then read again
+            Assert.assertEquals(bufferSize + 7, in.skip(bufferSize + 7));
+            pos += bufferSize + 7;
+            n = in.read(result, 0, length);
+            Assert.assertEquals(length, n);
+            compareByteArray(testData, (int) pos, result, length);
+        } finally {
+            in.close();
+        }
+    }
+
     private CryptoCipher getCipher(String cipherClass) throws IOException {
         try {
             return (CryptoCipher) ReflectionUtils.newInstance(
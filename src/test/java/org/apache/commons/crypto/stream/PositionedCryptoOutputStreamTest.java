@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.JceCipher;
+import org.apache.commons.crypto.stream.output.FileChannelOutput;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PositionedCryptoOutputStreamTest {
+
+    private final int dataLen = 20000;
+    private final byte[] testData = new byte[dataLen];
+    private byte[] encData;
+    private final byte[] key = new byte[16];
+    private final byte[] iv = new byte[16];
+    private final int bufferSize = 2048;
+    private final CipherTransformation transformation = CipherTransformation.AES_CTR_NOPADDING;
+
+    @Before
+    public void before() throws Exception {
+        Random random = new Random(dataLen);
+        random.nextBytes(testData);
+        random.nextBytes(key);
+        random.nextBytes(iv);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CTRCryptoOutputStream out = new CTRCryptoOutputStream(baos,
+                new JceCipher(new Properties(), transformation), bufferSize,
+                key, iv);
+        out.write(testData);
+        out.close();
+        encData = baos.toByteArray();
+    }
+
+    @Test(timeout = 120000)
+    public void testParallelWrites() throws Exception {
+        File file = File.createTempFile("positioned", null);
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final PositionedCryptoOutputStream out = new PositionedCryptoOutputStream(
+                new FileChannelOutput(raf.getChannel()), new JceCipher(
+                        new Properties(), transformation), bufferSize, key,
+                iv, 0);
+
+        // Unaligned regions, some larger than the buffer, in random order
+        List<Callable<Void>> writes = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < dataLen;) {
+            final int position = start;
+            final int length = Math.min(dataLen - start, 1000 + start % 3001);
+            final boolean heap = writes.size() % 2 == 0;
+            writes.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    if (heap) {
+                        out.write(position, testData, position, length);
+                    } else {
+                        ByteBuffer src = ByteBuffer.allocateDirect(length);
+                        src.put(testData, position, length);
+                        src.flip();
+                        Assert.assertEquals(length, out.write(position, src));
+                        Assert.assertFalse(src.hasRemaining());
+                    }
+                    return null;
+                }
+            });
+            start += length;
+        }
+        Collections.shuffle(writes, new Random(writes.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (Future<Void> future : executor.invokeAll(writes)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        out.close();
+
+        raf = new RandomAccessFile(file, "r");
+        byte[] result = new byte[(int) raf.length()];
+        raf.readFully(result);
+        raf.close();
+        Assert.assertArrayEquals(encData, result);
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.JceCipher;
+import org.apache.commons.crypto.conf.ConfigurationKeys;
+import org.apache.commons.crypto.stream.input.Input;
+import org.apache.commons.crypto.utils.ReflectionUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentedCryptoStreamTest {
+
+    private final int segmentSize = 1024;
+    private final int segmentLength = segmentSize
+            + SegmentedCryptoOutputStream.TAG_LENGTH;
+    private Properties props = new Properties();
+    private byte[] key = new byte[16];
+    private byte[] iv = new byte[16];
+    private Random random = new SecureRandom();
+
+    @Before
+    public void before() {
+        props.setProperty(ConfigurationKeys.COMMONS_CRYPTO_CIPHER_CLASSES_KEY,
+                JceCipher.class.getName());
+        props.setProperty(
+                ConfigurationKeys.COMMONS_CRYPTO_STREAM_SEGMENT_SIZE_KEY,
+                String.valueOf(segmentSize));
+        random.nextBytes(key);
+        random.nextBytes(iv);
+    }
+
+    @Test(timeout = 120000)
+    public void testRoundTrip() throws Exception {
+        int[] lengths = { 0, 1, segmentSize - 1, segmentSize,
+                segmentSize + 1, 10 * segmentSize, 10 * segmentSize + 77 };
+        for (int length : lengths) {
+            byte[] data = randomData(length);
+            byte[] encrypted = encrypt(data);
+            Assert.assertEquals((length / segmentSize + 1)
+                    * SegmentedCryptoOutputStream.TAG_LENGTH + length,
+                    encrypted.length);
+            Assert.assertArrayEquals(data, decrypt(encrypted));
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testCompatibleWithCTR() throws Exception {
+        // The cipher text of the segments is the plain CTR stream
+        byte[] data = randomData(3 * segmentSize + 100);
+        byte[] encrypted = encrypt(data);
+
+        ByteArrayOutputStream ctr = new ByteArrayOutputStream();
+        CTRCryptoOutputStream out = new CTRCryptoOutputStream(props, ctr, key,
+                iv);
+        out.write(data);
+        out.close();
+        byte[] expected = ctr.toByteArray();
+
+        for (int i = 0; i * segmentSize < data.length; i++) {
+            int len = Math.min(segmentSize, data.length - i * segmentSize);
+            Assert.assertArrayEquals(Arrays.copyOfRange(expected, i
+                    * segmentSize, i * segmentSize + len), Arrays.copyOfRange(
+                    encrypted, i * segmentLength, i * segmentLength + len));
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testTamperedSegment() throws Exception {
+        byte[] data = randomData(4 * segmentSize);
+        byte[] encrypted = encrypt(data);
+        encrypted[2 * segmentLength + 5] ^= 1;
+
+        InputStream in = new SegmentedCryptoInputStream(props,
+                new ByteArrayInputStream(encrypted), key, iv);
+        byte[] buf = new byte[2 * segmentSize];
+        readFully(in, buf);
+        // The segments before the tampered one are released
+        Assert.assertArrayEquals(Arrays.copyOf(data, 2 * segmentSize), buf);
+        try {
+            in.read();
+            Assert.fail("Tampered segment should fail verification");
+        } catch (IOException e) {
+            // expected
+        }
+        in.close();
+    }
+
+    @Test(timeout = 120000)
+    public void testTruncated() throws Exception {
+        byte[] data = randomData(3 * segmentSize);
+        byte[] encrypted = encrypt(data);
+        // Drop the empty last segment, the stream still ends on a boundary
+        assertFailure(Arrays.copyOf(encrypted, 3 * segmentLength));
+        // Drop a whole segment with its tag
+        assertFailure(Arrays.copyOf(encrypted, 2 * segmentLength));
+        // Cut a tag
+        assertFailure(Arrays.copyOf(encrypted, encrypted.length - 1));
+    }
+
+    @Test(timeout = 120000)
+    public void testReordered() throws Exception {
+        byte[] data = randomData(3 * segmentSize + 10);
+        byte[] encrypted = encrypt(data);
+        byte[] swapped = encrypted.clone();
+        System.arraycopy(encrypted, 0, swapped, segmentLength, segmentLength);
+        System.arraycopy(encrypted, segmentLength, swapped, 0, segmentLength);
+        assertFailure(swapped);
+    }
+
+    @Test(timeout = 120000)
+    public void testSeek() throws Exception {
+        byte[] data = randomData(10 * segmentSize + 300);
+        byte[] encrypted = encrypt(data);
+        CryptoCipher cipher = (CryptoCipher) ReflectionUtils.newInstance(
+                ReflectionUtils.getClassByName(JceCipher.class.getName()),
+                props, CipherTransformation.AES_CTR_NOPADDING);
+        SegmentedCryptoInputStream in = new SegmentedCryptoInputStream(
+                new SeekableInput(encrypted), cipher, segmentSize, key, iv);
+        for (int i = 0; i < 100; i++) {
+            int pos = random.nextInt(data.length + 1);
+            in.seek(pos);
+            byte[] buf = new byte[Math.min(data.length - pos,
+                    random.nextInt(2 * segmentSize))];
+            readFully(in, buf);
+            Assert.assertArrayEquals(
+                    Arrays.copyOfRange(data, pos, pos + buf.length), buf);
+        }
+        in.seek(data.length);
+        Assert.assertEquals(-1, in.read());
+        in.close();
+    }
+
+    private void assertFailure(byte[] encrypted) throws IOException {
+        try {
+            decrypt(encrypted);
+            Assert.fail("Modified stream should fail verification");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private byte[] encrypt(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        SegmentedCryptoOutputStream out = new SegmentedCryptoOutputStream(
+                props, baos, key, iv);
+        int off = 0;
+        while (off < data.length) {
+            int n = Math.min(data.length - off, 1 + random.nextInt(700));
+            out.write(data, off, n);
+            off += n;
+            out.flush();
+        }
+        out.close();
+        return baos.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] encrypted) throws IOException {
+        InputStream in = new SegmentedCryptoInputStream(props,
+                new ByteArrayInputStream(encrypted), key, iv);
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        byte[] buf = new byte[333];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            plain.write(buf, 0, n);
+        }
+        in.close();
+        return plain.toByteArray();
+    }
+
+    private void readFully(InputStream in, byte[] buf) throws IOException {
+        int off = 0;
+        while (off < buf.length) {
+            int n = in.read(buf, off, buf.length - off);
+            Assert.assertTrue(n > 0);
+            off += n;
+        }
+    }
+
+    private byte[] randomData(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static class SeekableInput implements Input {
+        private final byte[] data;
+        private int pos;
+
+        SeekableInput(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (pos >= data.length) {
+                return -1;
+            }
+            int n = Math.min(dst.remaining(), data.length - pos);
+            dst.put(data, pos, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = Math.min(n, data.length - pos);
+            pos += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return data.length - pos;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length)
+                throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void seek(long position) throws IOException {
+            pos = (int) Math.min(position, data.length);
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.random.OsCryptoRandom;
+import org.apache.commons.crypto.utils.IOUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Runs streams and the OS random on virtual threads. Run with
+ * -Djdk.tracePinnedThreads=full (the virtual-threads profile) to also fail
+ * when a virtual thread blocks while pinned to its carrier.
+ */
+public class VirtualThreadStreamTest {
+
+    private static final int THREADS = 16;
+    private static final int DATA_SIZE = 256 * 1024;
+
+    @Test(timeout = 120000)
+    public void testStreamsOnVirtualThreads() throws Exception {
+        Assume.assumeTrue(hasVirtualThreads());
+        final OsCryptoRandom random = new OsCryptoRandom(new Properties());
+        final List<Throwable> errors = Collections
+                .synchronizedList(new ArrayList<Throwable>());
+        String trace;
+        try {
+            trace = runTraced(THREADS, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        roundTrip(random);
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            });
+        } finally {
+            random.close();
+        }
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        // jdk.tracePinnedThreads prints the carrier and stack of a pinned
+        // thread, whether a monitor or a native frame pinned it
+        Assert.assertEquals("", trace);
+    }
+
+    @Test(timeout = 120000)
+    public void testPinningIsTraced() throws Exception {
+        // Monitors stop pinning in Java 24, which drops the tracing
+        Assume.assumeTrue(hasVirtualThreads()
+                && System.getProperty("jdk.tracePinnedThreads") != null
+                && Integer.parseInt(System
+                        .getProperty("java.specification.version")) < 24);
+        final Object lock = new Object();
+        String trace = runTraced(1, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        // The trace testStreamsOnVirtualThreads expects to be empty
+        Assert.assertTrue(trace, trace.contains("<== monitors"));
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs the task on virtual threads and returns what they printed to
+     * System.out, where pinned threads are traced.
+     */
+    private static String runTraced(int threads, Runnable task)
+            throws Exception {
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Method start = Class.forName("java.lang.Thread$Builder").getMethod(
+                "start", Runnable.class);
+        PrintStream out = System.out;
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(trace, true));
+        try {
+            Thread[] started = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                started[i] = (Thread) start.invoke(builder, task);
+            }
+            for (Thread thread : started) {
+                thread.join();
+            }
+        } finally {
+            System.setOut(out);
+        }
+        return trace.toString();
+    }
+
+    private void roundTrip(OsCryptoRandom random) throws Exception {
+        byte[] key = new byte[16];
+        byte[] iv = new byte[16];
+        byte[] data = new byte[DATA_SIZE];
+        random.nextBytes(key);
+        random.nextBytes(iv);
+        random.nextBytes(data);
+        SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+        IvParameterSpec ivSpec = new IvParameterSpec(iv);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        CryptoOutputStream out = new CryptoOutputStream(
+                CipherTransformation.AES_CTR_NOPADDING, new Properties(),
+                encrypted, keySpec, ivSpec);
+        out.write(data);
+        out.close();
+
+        CryptoInputStream in = new CryptoInputStream(
+                CipherTransformation.AES_CTR_NOPADDING, new Properties(),
+                new ByteArrayInputStream(encrypted.toByteArray()), keySpec,
+                ivSpec);
+        byte[] decrypted = new byte[DATA_SIZE];
+        IOUtils.readFully(in, decrypted, 0, decrypted.length);
+        in.close();
+        Assert.assertArrayEquals(data, decrypted);
+    }
+}
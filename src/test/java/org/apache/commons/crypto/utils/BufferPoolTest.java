@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.utils;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testReuse() {
+        ByteBuffer direct = BufferPool.acquire(4112, true);
+        Assert.assertTrue(direct.isDirect());
+        Assert.assertEquals(4112, direct.capacity());
+        direct.put((byte) 1).limit(10);
+        BufferPool.release(direct);
+
+        // A buffer of another capacity or kind is not reused
+        ByteBuffer heap = BufferPool.acquire(4112, false);
+        Assert.assertFalse(heap.isDirect());
+        Assert.assertNotSame(direct, BufferPool.acquire(4128, true));
+
+        ByteBuffer reused = BufferPool.acquire(4112, true);
+        Assert.assertSame(direct, reused);
+        Assert.assertEquals(0, reused.position());
+        Assert.assertEquals(4112, reused.limit());
+        BufferPool.release(reused);
+        BufferPool.release(heap);
+        BufferPool.release(null);
+    }
+
+    @Test
+    public void testReleaseZeroes() {
+        for (boolean direct : new boolean[] { true, false }) {
+            ByteBuffer buffer = BufferPool.acquire(10000, direct);
+            while (buffer.hasRemaining()) {
+                buffer.put((byte) 0x5a);
+            }
+            buffer.position(3).limit(7);
+            BufferPool.release(buffer);
+
+            ByteBuffer reused = BufferPool.acquire(10000, direct);
+            Assert.assertSame(buffer, reused);
+            Assert.assertEquals(0, reused.position());
+            Assert.assertEquals(10000, reused.limit());
+            while (reused.hasRemaining()) {
+                Assert.assertEquals(0, reused.get());
+            }
+            BufferPool.release(reused);
+        }
+    }
+}
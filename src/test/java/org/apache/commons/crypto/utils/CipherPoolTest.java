@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.utils;
+
+import java.util.Properties;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.JceCipher;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CipherPoolTest {
+
+    @Test
+    public void testReuse() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("commons.crypto.cipher.classes",
+                JceCipher.class.getName());
+        CryptoCipher cipher = CipherPool.acquire(
+                CipherTransformation.AES_CTR_NOPADDING, props);
+        Assert.assertTrue(cipher instanceof JceCipher);
+        CipherPool.release(cipher);
+
+        // A cipher of another transformation or configuration is not reused
+        Assert.assertNotSame(cipher, CipherPool.acquire(
+                CipherTransformation.AES_CBC_NOPADDING, props));
+        Assert.assertNotSame(cipher, CipherPool.acquire(new JceCipher(
+                new Properties(), CipherTransformation.AES_CTR_NOPADDING)));
+
+        // Equal properties are the same kind
+        Properties same = new Properties();
+        same.setProperty("commons.crypto.cipher.classes",
+                JceCipher.class.getName());
+        CryptoCipher like = new JceCipher(same,
+                CipherTransformation.AES_CTR_NOPADDING);
+        Assert.assertSame(cipher, CipherPool.acquire(like));
+        CipherPool.release(cipher);
+        Assert.assertSame(cipher, CipherPool.acquire(
+                CipherTransformation.AES_CTR_NOPADDING, same));
+        CipherPool.release(null);
+    }
+
+    @Test
+    public void testChangedProperties() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("commons.crypto.cipher.classes",
+                JceCipher.class.getName());
+        CryptoCipher cipher = new JceCipher(props,
+                CipherTransformation.AES_CBC_PKCS5PADDING);
+        CipherPool.release(cipher);
+
+        // The pool keeps the properties the cipher was released with
+        props.setProperty("commons.crypto.test.changed", "true");
+        Assert.assertNotSame(cipher, CipherPool.acquire(new JceCipher(props,
+                CipherTransformation.AES_CBC_PKCS5PADDING)));
+        props.remove("commons.crypto.test.changed");
+        Assert.assertSame(cipher, CipherPool.acquire(new JceCipher(props,
+                CipherTransformation.AES_CBC_PKCS5PADDING)));
+    }
+}
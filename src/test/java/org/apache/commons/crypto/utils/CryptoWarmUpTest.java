@@ -0,0 +1,45 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.utils;
+
+import java.util.Properties;
+
+import org.apache.commons.crypto.cipher.JceCipher;
+import org.apache.commons.crypto.conf.ConfigurationKeys;
+import org.apache.commons.crypto.random.JavaCryptoRandom;
+import org.junit.Test;
+
+public class CryptoWarmUpTest {
+
+    @Test(timeout = 120000)
+    public void testWarmUpJce() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ConfigurationKeys.COMMONS_CRYPTO_CIPHER_CLASSES_KEY,
+                JceCipher.class.getName());
+        props.setProperty(
+                ConfigurationKeys.COMMONS_CRYPTO_SECURE_RANDOM_CLASSES_KEY,
+                JavaCryptoRandom.class.getName());
+        CryptoWarmUp.warmUp(props);
+    }
+
+    @Test(timeout = 120000)
+    public void testWarmUpDefault() throws Exception {
+        // Falls back to the JCE cipher and Java random without native code
+        CryptoWarmUp.warmUp();
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NativeCodeLoaderTest {
+
+    // Any resource does, the cached file is never loaded
+    private static final String FOLDER = "/org/apache/commons/crypto/utils";
+    private static final String NAME = "NativeCodeLoader.class";
+
+    private File cacheFolder;
+    private byte[] content;
+
+    @Before
+    public void before() throws IOException {
+        File temp = File.createTempFile("commons-crypto-cache", null);
+        Assert.assertTrue(temp.delete());
+        // The cache folder is created on the first extraction
+        cacheFolder = new File(temp, "cache");
+        content = read(NativeCodeLoader.class.getResourceAsStream(FOLDER
+                + "/" + NAME));
+    }
+
+    @After
+    public void after() {
+        File[] files = cacheFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheFolder.delete();
+        cacheFolder.getParentFile().delete();
+    }
+
+    @Test
+    public void testCachedFileReused() throws IOException {
+        File cached = NativeCodeLoader.extractCachedLibraryFile(FOLDER, NAME,
+                cacheFolder);
+        Assert.assertNotNull(cached);
+        Assert.assertArrayEquals(content, read(new FileInputStream(cached)));
+        Assert.assertTrue(cached.getName().endsWith(NAME));
+
+        // The file of an earlier JVM is reused without being written again
+        Assert.assertTrue(cached.setLastModified(1000000000L));
+        Assert.assertEquals(cached, NativeCodeLoader.extractCachedLibraryFile(
+                FOLDER, NAME, cacheFolder));
+        Assert.assertEquals(1000000000L, cached.lastModified());
+        Assert.assertEquals(1, cacheFolder.listFiles().length);
+    }
+
+    @Test
+    public void testCorruptedCachedFileRewritten() throws IOException {
+        File cached = NativeCodeLoader.extractCachedLibraryFile(FOLDER, NAME,
+                cacheFolder);
+        Assert.assertNotNull(cached);
+
+        // Same length, other content
+        byte[] corrupted = content.clone();
+        corrupted[corrupted.length / 2] ^= 1;
+        write(cached, corrupted);
+        Assert.assertEquals(cached, NativeCodeLoader.extractCachedLibraryFile(
+                FOLDER, NAME, cacheFolder));
+        Assert.assertArrayEquals(content, read(new FileInputStream(cached)));
+        Assert.assertEquals(1, cacheFolder.listFiles().length);
+    }
+
+    @Test
+    public void testShortCachedFileRewritten() throws IOException {
+        File cached = NativeCodeLoader.extractCachedLibraryFile(FOLDER, NAME,
+                cacheFolder);
+        Assert.assertNotNull(cached);
+
+        // A copy cut short, as by a crash while writing it
+        byte[] truncated = new byte[content.length / 2];
+        System.arraycopy(content, 0, truncated, 0, truncated.length);
+        write(cached, truncated);
+        Assert.assertEquals(cached, NativeCodeLoader.extractCachedLibraryFile(
+                FOLDER, NAME, cacheFolder));
+        Assert.assertArrayEquals(content, read(new FileInputStream(cached)));
+        Assert.assertEquals(1, cacheFolder.listFiles().length);
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.crypto.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Flow;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.crypto.cipher.CipherTransformation;
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.JceCipher;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CryptoProcessorTest {
+
+    private final SecretKeySpec key = new SecretKeySpec(new byte[] { 0x01,
+            0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x10, 0x11, 0x12,
+            0x13, 0x14, 0x15, 0x16 }, "AES");
+    private final IvParameterSpec iv = new IvParameterSpec(new byte[] { 0x01,
+            0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x10, 0x11, 0x12,
+            0x13, 0x14, 0x15, 0x16 });
+
+    @Test(timeout = 120000)
+    public void testRoundTrip() throws Exception {
+        for (CipherTransformation transformation : new CipherTransformation[] {
+                CipherTransformation.AES_CTR_NOPADDING,
+                CipherTransformation.AES_CBC_PKCS5PADDING }) {
+            byte[] plain = new byte[5000];
+            new Random(1).nextBytes(plain);
+            // Items smaller than a block, and larger than the buffers
+            int[] sizes = { 7, 1500, 3, 9, 2000, 1481 };
+
+            byte[] encrypted = process(CryptoCipher.ENCRYPT_MODE,
+                    transformation, split(plain, sizes), Long.MAX_VALUE);
+            Assert.assertArrayEquals(jce(Cipher.ENCRYPT_MODE, transformation,
+                    plain), encrypted);
+
+            // One buffer requested at a time
+            Assert.assertArrayEquals(plain, process(CryptoCipher.DECRYPT_MODE,
+                    transformation, split(encrypted, new int[] { 5, 11,
+                            encrypted.length - 16 }), 1));
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void testSingleSubscriber() throws Exception {
+        CryptoProcessor processor = newProcessor(CryptoCipher.ENCRYPT_MODE,
+                CipherTransformation.AES_CTR_NOPADDING);
+        Collector first = new Collector(1);
+        processor.subscribe(first);
+        Collector second = new Collector(1);
+        processor.subscribe(second);
+        Assert.assertTrue(second.error instanceof IllegalStateException);
+        Assert.assertNull(first.error);
+    }
+
+    @Test(timeout = 120000)
+    public void testNonPositiveRequest() throws Exception {
+        CryptoProcessor processor = newProcessor(CryptoCipher.ENCRYPT_MODE,
+                CipherTransformation.AES_CTR_NOPADDING);
+        ListPublisher publisher = new ListPublisher(split(new byte[100],
+                new int[] { 100 }));
+        Collector collector = new Collector(0);
+        processor.subscribe(collector);
+        publisher.subscribe(processor);
+        collector.subscription.request(0);
+        Assert.assertTrue(collector.error instanceof IllegalArgumentException);
+        // Upstream is cancelled and nothing is emitted after the error
+        Assert.assertTrue(publisher.cancelled);
+        collector.subscription.request(1);
+        Assert.assertEquals(0, collector.data.size());
+        Assert.assertFalse(collector.completed);
+    }
+
+    @Test(timeout = 120000)
+    public void testCancel() throws Exception {
+        CryptoProcessor processor = newProcessor(CryptoCipher.ENCRYPT_MODE,
+                CipherTransformation.AES_CTR_NOPADDING);
+        ListPublisher publisher = new ListPublisher(split(new byte[100],
+                new int[] { 50, 50 }));
+        Collector collector = new Collector(0);
+        processor.subscribe(collector);
+        publisher.subscribe(processor);
+        collector.subscription.request(1);
+        Assert.assertEquals(50, collector.data.size());
+        collector.subscription.cancel();
+        Assert.assertTrue(publisher.cancelled);
+        collector.subscription.request(1);
+        Assert.assertEquals(50, collector.data.size());
+        Assert.assertFalse(collector.completed);
+        Assert.assertNull(collector.error);
+    }
+
+    private byte[] process(int mode, CipherTransformation transformation,
+            List<ByteBuffer> items, long request) throws Exception {
+        CryptoProcessor processor = newProcessor(mode, transformation);
+        Collector collector = new Collector(request);
+        processor.subscribe(collector);
+        new ListPublisher(items).subscribe(processor);
+        Assert.assertNull(collector.error);
+        Assert.assertTrue(collector.completed);
+        return collector.data.toByteArray();
+    }
+
+    private CryptoProcessor newProcessor(int mode,
+            CipherTransformation transformation) throws Exception {
+        return new CryptoProcessor(mode, new JceCipher(new Properties(),
+                transformation), 512, key, iv);
+    }
+
+    private byte[] jce(int mode, CipherTransformation transformation,
+            byte[] input) throws Exception {
+        Cipher cipher = Cipher.getInstance(transformation.getName());
+        cipher.init(mode, key, iv);
+        return cipher.doFinal(input);
+    }
+
+    private static List<ByteBuffer> split(byte[] data, int[] sizes) {
+        List<ByteBuffer> items = new ArrayList<ByteBuffer>();
+        int offset = 0;
+        for (int size : sizes) {
+            items.add(ByteBuffer.wrap(data, offset, size));
+            offset += size;
+        }
+        Assert.assertEquals(data.length, offset);
+        return items;
+    }
+
+    /**
+     * Emits its items on the thread requesting them, then completes.
+     */
+    private static class ListPublisher implements Flow.Publisher<ByteBuffer> {
+        private final List<ByteBuffer> items;
+        private boolean cancelled;
+
+        ListPublisher(List<ByteBuffer> items) {
+            this.items = items;
+        }
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                private int next;
+                private long pending;
+                private boolean emitting;
+
+                @Override
+                public void request(long n) {
+                    pending += n;
+                    // A request from onNext is served by the running loop
+                    if (emitting) {
+                        return;
+                    }
+                    emitting = true;
+                    while (!cancelled && pending > 0 && next < items.size()) {
+                        pending--;
+                        subscriber.onNext(items.get(next++));
+                    }
+                    if (!cancelled && next == items.size()) {
+                        next++;
+                        subscriber.onComplete();
+                    }
+                    emitting = false;
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Collects the bytes, requesting the given number of buffers on
+     * subscription and after each buffer.
+     */
+    private static class Collector implements Flow.Subscriber<ByteBuffer> {
+        private final long request;
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private Flow.Subscription subscription;
+        private Throwable error;
+        private boolean completed;
+
+        Collector(long request) {
+            this.request = request;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (request > 0) {
+                subscription.request(request);
+            }
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            byte[] bytes = new byte[item.remaining()];
+            item.get(bytes);
+            data.write(bytes, 0, bytes.length);
+            if (request > 0 && request < Long.MAX_VALUE) {
+                subscription.request(request);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}